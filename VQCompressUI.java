@@ -4,7 +4,18 @@ import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import javax.imageio.ImageIO;
+import vqcompress.VQCodec;
+import vqcompress.VQExecutor;
+import vqcompress.VQOptions;
 
 public class VQCompressUI extends JFrame {
     private JTextField filePathField;
@@ -18,6 +29,16 @@ public class VQCompressUI extends JFrame {
     private JLabel decompressedImageLabel;
     private BufferedImage selectedImage;
     private BufferedImage decompressedImage;
+    private JButton cancelButton;
+    private JProgressBar progressBar;
+    // Running compression (null when idle); the job cancels its training and quantization passes
+    private SwingWorker<BufferedImage, BufferedImage> worker;
+    private VQExecutor.Job job;
+
+    // Size of the preview icons and the least time between progressive preview refreshes
+    private static final int PREVIEW_WIDTH = 300;
+    private static final int PREVIEW_HEIGHT = 220;
+    private static final long PREVIEW_INTERVAL_MILLIS = 100;
 
     public VQCompressUI() {
         try {
@@ -69,8 +90,15 @@ public class VQCompressUI extends JFrame {
         // Buttons
         compressButton = new JButton("Compress & Show");
         // decompressButton = new JButton("Decompress"); // Remove
+        cancelButton = new JButton("Cancel");
+        cancelButton.setEnabled(false);
+        progressBar = new JProgressBar(0, 100);
+        progressBar.setStringPainted(true);
+        progressBar.setString("Idle");
         JPanel buttonPanel = new JPanel();
         buttonPanel.add(compressButton);
+        buttonPanel.add(cancelButton);
+        buttonPanel.add(progressBar);
         // buttonPanel.add(decompressButton); // Remove
 
         // Status area
@@ -113,7 +141,7 @@ public class VQCompressUI extends JFrame {
                 try {
                     selectedImage = ImageIO.read(file);
                     if (selectedImage != null) {
-                        imageLabel.setIcon(new ImageIcon(selectedImage.getScaledInstance(300, 220, Image.SCALE_SMOOTH)));
+                        imageLabel.setIcon(new ImageIcon(selectedImage.getScaledInstance(PREVIEW_WIDTH, PREVIEW_HEIGHT, Image.SCALE_SMOOTH)));
                         imageLabel.setText("");
                     } else {
                         imageLabel.setIcon(null);
@@ -126,7 +154,7 @@ public class VQCompressUI extends JFrame {
             }
         });
 
-        // Compress action
+        // Compress action: the work runs on a background thread so the window stays responsive
         compressButton.addActionListener(e -> {
             String filePath = filePathField.getText().trim();
             int tileSize = (Integer) tileSizeBox.getSelectedItem();
@@ -135,43 +163,16 @@ public class VQCompressUI extends JFrame {
                 showStatus("Please select an image file.");
                 return;
             }
-            try {
-                vectorQuantizationCompress compressor = new vectorQuantizationCompress();
-                compressor.tileSize = tileSize;
-                compressor.qualityOption = qualityOption;
-                switch (qualityOption) {
-                    case 1: compressor.codeBookSize = 256; break;
-                    case 2: compressor.codeBookSize = 128; break;
-                    case 3: compressor.codeBookSize = 16; break;
-                    default: compressor.codeBookSize = 128; break;
-                }
-                compressor.loadImage(filePath);
-                compressor.initializeCodebook();
-                compressor.quantizeImage();
-                compressor.saveCompressedFile("Compressed.txt");
-                // Immediately decompress and show the image
-                vectorQuantizationDecompress decompressor = new vectorQuantizationDecompress();
-                decompressor.loadCompressedData("Compressed.txt");
-                // Display decompressed image
-                String jpgPath = new java.io.File("DecompressedImage.jpg").getAbsolutePath();
-                try {
-                    BufferedImage decompressedImage = javax.imageio.ImageIO.read(new java.io.File(jpgPath));
-                    if (decompressedImage != null) {
-                        decompressedImageLabel.setIcon(new ImageIcon(decompressedImage.getScaledInstance(300, 220, Image.SCALE_SMOOTH)));
-                        decompressedImageLabel.setText("");
-                    } else {
-                        decompressedImageLabel.setIcon(null);
-                        decompressedImageLabel.setText("Cannot display image");
-                    }
-                } catch (Exception ex) {
-                    decompressedImageLabel.setIcon(null);
-                    decompressedImageLabel.setText("Cannot display image");
-                }
-                showStatus("Compression and decompression complete.");
-                JOptionPane.showMessageDialog(this, "Decompressed image stored at: " + jpgPath, "Decompression Complete", JOptionPane.INFORMATION_MESSAGE);
-            } catch (Exception ex) {
-                ex.printStackTrace();
-                showStatus("Compression/decompression failed: " + ex.getMessage());
+            startCompression(filePath, VQOptions.forQuality(qualityOption, tileSize));
+        });
+
+        // Only the job is cancelled: the worker stops at its next check, and done() (which
+        // re-enables Compress) runs once the background task has really finished
+        cancelButton.addActionListener(e -> {
+            if (worker != null) {
+                job.cancel();
+                cancelButton.setEnabled(false);
+                progressBar.setString("Cancelling...");
             }
         });
 
@@ -204,6 +205,165 @@ public class VQCompressUI extends JFrame {
         // }); // Remove
     }
 
+    // Load, encode, save and decode in a SwingWorker. Quantization publishes scaled previews as
+    // tile rows finish; the decoded image goes straight to the preview without a disk round trip.
+    private void startCompression(String filePath, VQOptions options) {
+        VQCodec codec = new VQCodec(options);
+        StageProgress stageProgress = new StageProgress();
+        job = new VQExecutor.Job(stageProgress);
+        stageProgress.owner = job;
+        VQExecutor.Job current = job;
+        compressButton.setEnabled(false);
+        cancelButton.setEnabled(true);
+        progressBar.setIndeterminate(true);
+        progressBar.setString("Loading...");
+        decompressedImageLabel.setIcon(null);
+        decompressedImageLabel.setText("Compressing...");
+        showStatus("Compressing " + filePath + " (" + options + ")");
+        worker = new SwingWorker<BufferedImage, BufferedImage>() {
+            private volatile long compressedBytes;
+            private volatile long millis;
+            private long lastPreview;
+
+            @Override
+            protected BufferedImage doInBackground() throws Exception {
+                long start = System.nanoTime();
+                BufferedImage source = ImageIO.read(new File(filePath));
+                if (source == null) {
+                    throw new IOException("Cannot read image: " + filePath);
+                }
+                checkCancelled();
+                ByteBuffer compressed = codec.encode(source, current, null, (image, completed, total) -> {
+                    long now = System.nanoTime() / 1_000_000;
+                    synchronized (this) {
+                        if (completed < total && now - lastPreview < PREVIEW_INTERVAL_MILLIS) {
+                            return;
+                        }
+                        lastPreview = now;
+                    }
+                    publish(scaled(image));
+                });
+                compressedBytes = compressed.remaining();
+                // A cancelled run must not replace the last good Compressed.vqc
+                checkCancelled();
+                try (FileChannel ch = FileChannel.open(Paths.get("Compressed.vqc"), StandardOpenOption.WRITE,
+                        StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                    ByteBuffer out = compressed.duplicate();
+                    while (out.hasRemaining()) {
+                        ch.write(out);
+                    }
+                }
+                checkCancelled();
+                BufferedImage decoded = codec.decode(compressed, current);
+                millis = (System.nanoTime() - start) / 1_000_000;
+                return decoded;
+            }
+
+            // Image reading, entropy coding and the file write do not poll the job themselves
+            private void checkCancelled() {
+                if (current.isCancelled()) {
+                    throw new CancellationException("Compression cancelled");
+                }
+            }
+
+            @Override
+            protected void process(List<BufferedImage> previews) {
+                if (worker != this) {
+                    return;
+                }
+                decompressedImageLabel.setIcon(new ImageIcon(previews.get(previews.size() - 1)));
+                decompressedImageLabel.setText("");
+            }
+
+            @Override
+            protected void done() {
+                worker = null;
+                compressButton.setEnabled(true);
+                cancelButton.setEnabled(false);
+                progressBar.setIndeterminate(false);
+                try {
+                    decompressedImage = get();
+                    decompressedImageLabel.setIcon(new ImageIcon(decompressedImage.getScaledInstance(
+                            PREVIEW_WIDTH, PREVIEW_HEIGHT, Image.SCALE_SMOOTH)));
+                    decompressedImageLabel.setText("");
+                    progressBar.setValue(100);
+                    progressBar.setString("Done");
+                    showStatus("Compression and decompression complete in " + millis + " ms: " + compressedBytes
+                            + " bytes stored at " + new File("Compressed.vqc").getAbsolutePath());
+                } catch (ExecutionException ex) {
+                    if (ex.getCause() instanceof CancellationException) {
+                        cancelled();
+                        return;
+                    }
+                    ex.getCause().printStackTrace();
+                    progressBar.setValue(0);
+                    progressBar.setString("Failed");
+                    decompressedImageLabel.setIcon(null);
+                    decompressedImageLabel.setText("Cannot display image");
+                    showStatus("Compression/decompression failed: " + ex.getCause().getMessage());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        };
+        worker.execute();
+    }
+
+    // Shows the codec's stage and its progress on the bar. Called on worker threads; the bar is
+    // only updated on the event thread, and only while the job is still the running one.
+    private class StageProgress implements VQExecutor.ProgressListener {
+        private VQExecutor.Job owner;
+        private volatile String stage = "Loading";
+        private int shown = -1;
+
+        @Override
+        public void stage(String name) {
+            stage = name;
+            show(0, true);
+        }
+
+        @Override
+        public void progress(int completed, int total) {
+            show((int) (100L * completed / Math.max(1, total)), false);
+        }
+
+        private void show(int percent, boolean newStage) {
+            synchronized (this) {
+                if (percent == shown && !newStage) {
+                    return;
+                }
+                shown = percent;
+            }
+            String text = stage + " " + percent + "%";
+            SwingUtilities.invokeLater(() -> {
+                if (worker == null || job != owner || owner.isCancelled()) {
+                    return;
+                }
+                progressBar.setIndeterminate(false);
+                progressBar.setValue(percent);
+                progressBar.setString(text);
+            });
+        }
+    }
+
+    private void cancelled() {
+        progressBar.setValue(0);
+        progressBar.setString("Cancelled");
+        decompressedImageLabel.setIcon(null);
+        decompressedImageLabel.setText("Decompressed image will appear here");
+        showStatus("Compression cancelled.");
+    }
+
+    // Preview-sized copy, drawn off the event thread while the source may still be filling in
+    private static BufferedImage scaled(BufferedImage image) {
+        BufferedImage small = new BufferedImage(PREVIEW_WIDTH, PREVIEW_HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = small.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g.drawImage(image, 0, 0, PREVIEW_WIDTH, PREVIEW_HEIGHT, null);
+        g.dispose();
+        return small;
+    }
+
     private void showStatus(String msg) {
         statusArea.append(msg + "\n");
         statusArea.setCaretPosition(statusArea.getDocument().getLength());
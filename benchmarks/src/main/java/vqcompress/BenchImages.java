@@ -0,0 +1,52 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import javax.imageio.ImageIO;
+
+// Inputs shared by the benchmarks. An image spec is either "synthetic-N" (an N x N test
+// pattern) or the name of an image in -Dvq.images=DIR (default: the project root).
+final class BenchImages {
+
+    private BenchImages() {
+    }
+
+    static BufferedImage load(String spec) throws IOException {
+        if (spec.startsWith("synthetic-")) {
+            int size = Integer.parseInt(spec.substring("synthetic-".length()));
+            return synthetic(size, size);
+        }
+        File file = new File(System.getProperty("vq.images", "."), spec);
+        if (!file.exists()) {
+            // Running from inside benchmarks/
+            file = new File("..", spec);
+        }
+        BufferedImage image = ImageIO.read(file);
+        if (image == null) {
+            throw new IOException("Cannot read benchmark image " + file);
+        }
+        return image;
+    }
+
+    // Smooth gradients, hard edges and a little noise, so both flat and busy tiles occur
+    static BufferedImage synthetic(int width, int height) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = ((x / 32) + (y / 32)) % 2 == 0 ? 200 : 40;
+                int n = random.nextInt(16) - 8;
+                image.setRGB(x, y, (clamp(r + n) << 16) | (clamp(g + n) << 8) | clamp(b + n));
+            }
+        }
+        return image;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : Math.min(255, v);
+    }
+}
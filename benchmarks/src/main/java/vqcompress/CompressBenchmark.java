@@ -0,0 +1,118 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Each compression step on its own, plus the whole encode. Steps after loadImage run on a
+// compressor prepared once per trial, so e.g. quantizeImage measures only the search.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompressBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    int tileSize;
+
+    @Param({"16", "256", "4096"})
+    int codeBookSize;
+
+    @Param({"synthetic-512", "synthetic-2048", "plant.jpg", "Sandesh.png"})
+    String image;
+
+    private BufferedImage source;
+    private vectorQuantizationCompress trained;
+    private VQTileStore tiles;
+    private byte[] scratch;
+    private int cursor;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = BenchImages.load(image);
+        trained = newCompressor();
+        trained.loadImage(source);
+        trained.initializeCodebook();
+        trained.quantizeImage();
+
+        int dim = tileSize * tileSize * 3;
+        tiles = new VQTileStore(trained.tilesPerRow * trained.tilesPerColumn, dim, VQTileStore.Backing.HEAP);
+        tiles.readTiles(source, tileSize, 0, trained.tilesPerColumn, trained.tilesPerRow, VQExecutor.shared());
+        scratch = new byte[dim];
+        output = File.createTempFile("vq-bench", ".vqc");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        output.delete();
+    }
+
+    private vectorQuantizationCompress newCompressor() {
+        vectorQuantizationCompress compressor = new vectorQuantizationCompress();
+        compressor.tileSize = tileSize;
+        compressor.codeBookSize = codeBookSize;
+        return compressor;
+    }
+
+    @Benchmark
+    public vectorQuantizationCompress loadImage() {
+        vectorQuantizationCompress compressor = newCompressor();
+        compressor.loadImage(source);
+        return compressor;
+    }
+
+    @Benchmark
+    public vectorQuantizationCompress initializeCodebook() {
+        trained.initializeCodebook();
+        return trained;
+    }
+
+    @Benchmark
+    public vectorQuantizationCompress quantizeImage() {
+        trained.quantizeImage();
+        return trained;
+    }
+
+    // One lookup per operation, cycling through the image's tiles
+    @Benchmark
+    public int findClosestCodebookVector() {
+        int t = cursor;
+        cursor = t + 1 == tiles.count ? 0 : t + 1;
+        return trained.findClosestCodebookVector(tiles.view(t, scratch), tiles.viewOffset(t));
+    }
+
+    // Entropy coding and serialisation without file I/O
+    @Benchmark
+    public ByteBuffer toContainer() throws IOException {
+        return trained.toContainer().toByteBuffer();
+    }
+
+    @Benchmark
+    public File saveCompressedFile() {
+        trained.saveCompressedFile(output.getPath());
+        return output;
+    }
+
+    @Benchmark
+    public ByteBuffer encode() throws IOException {
+        return new VQCodec(VQOptions.DEFAULT.withTileSize(tileSize).withCodeBookSize(codeBookSize)).encode(source);
+    }
+}
@@ -0,0 +1,91 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+// Decompression steps: parsing the container (what loadCompressedData does before it
+// reconstructs), reconstructImage via decode(container), and the whole decode from bytes.
+// loadCompressedData itself also writes a JPEG, which would dominate, so it is split here.
+// decodeRegion and preview measure random access through VQRegionDecoder.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DecompressBenchmark {
+
+    @Param({"1", "2", "4", "8"})
+    int tileSize;
+
+    @Param({"16", "256", "4096"})
+    int codeBookSize;
+
+    @Param({"synthetic-512", "synthetic-2048", "plant.jpg", "Sandesh.png"})
+    String image;
+
+    private File input;
+    private ByteBuffer encoded;
+    private VQContainer container;
+    private VQCodec codec;
+    private VQRegionDecoder regions;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        codec = new VQCodec(VQOptions.DEFAULT.withTileSize(tileSize).withCodeBookSize(codeBookSize));
+        encoded = codec.encode(BenchImages.load(image));
+        input = File.createTempFile("vq-bench", ".vqc");
+        VQContainer.read(encoded.duplicate()).write(input.getPath());
+        container = VQContainer.read(input.getPath());
+        regions = VQRegionDecoder.open(input.getPath());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        input.delete();
+    }
+
+    @Benchmark
+    public VQContainer loadCompressedData() throws IOException {
+        return VQContainer.read(input.getPath());
+    }
+
+    @Benchmark
+    public BufferedImage reconstructImage() {
+        return new vectorQuantizationDecompress().decode(container);
+    }
+
+    @Benchmark
+    public BufferedImage decode() throws IOException {
+        return codec.decode(encoded.duplicate());
+    }
+
+    // A 256x256 viewport (or the whole image if smaller) from the centre
+    @Benchmark
+    public BufferedImage decodeRegion() throws IOException {
+        int w = Math.min(256, regions.width());
+        int h = Math.min(256, regions.height());
+        return regions.decodeRegion((regions.width() - w) / 2, (regions.height() - h) / 2, w, h);
+    }
+
+    @Benchmark
+    public BufferedImage preview() throws IOException {
+        return regions.preview();
+    }
+}
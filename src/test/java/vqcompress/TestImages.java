@@ -0,0 +1,60 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+// Small synthetic images for the round-trip tests: smooth gradients with a few flat blocks and
+// some noise, sized so the tile grid has partial tiles at the right and bottom edges
+final class TestImages {
+
+    private TestImages() {
+    }
+
+    static BufferedImage image(int width, int height, long seed) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(seed);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int r = x * 255 / width;
+                int g = y * 255 / height;
+                int b = ((x / 16 + y / 12) & 1) == 0 ? 180 : 60;
+                int n = random.nextInt(5) - 2;
+                image.setRGB(x, y, clamp(r + n) << 16 | clamp(g + n) << 8 | clamp(b + n));
+            }
+        }
+        return image;
+    }
+
+    // Pixels of a and b as 0xRRGGBB, compared over the region of a at (x, y) in b
+    static int differingPixels(BufferedImage a, BufferedImage b, int x, int y) {
+        int differing = 0;
+        for (int j = 0; j < a.getHeight(); j++) {
+            for (int i = 0; i < a.getWidth(); i++) {
+                if ((a.getRGB(i, j) & 0xFFFFFF) != (b.getRGB(x + i, y + j) & 0xFFFFFF)) {
+                    differing++;
+                }
+            }
+        }
+        return differing;
+    }
+
+    static double psnr(BufferedImage a, BufferedImage b) {
+        double sum = 0;
+        for (int y = 0; y < a.getHeight(); y++) {
+            for (int x = 0; x < a.getWidth(); x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int shift = 0; shift < 24; shift += 8) {
+                    int d = ((p >> shift) & 0xFF) - ((q >> shift) & 0xFF);
+                    sum += d * d;
+                }
+            }
+        }
+        double mse = sum / (3.0 * a.getWidth() * a.getHeight());
+        return mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255 * 255 / mse);
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : Math.min(255, v);
+    }
+}
@@ -0,0 +1,80 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VQBatchTest {
+
+    @TempDir
+    Path dir;
+
+    private List<Path> images(int count) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Path p = dir.resolve("image" + i + ".png");
+            ImageIO.write(TestImages.image(32, 24, i), "png", p.toFile());
+            inputs.add(p);
+        }
+        return inputs;
+    }
+
+    private static VQBatch batch() {
+        VQBatch batch = new VQBatch();
+        batch.options = VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16);
+        return batch;
+    }
+
+    @Test
+    void encodesAndDecodesEveryFile() throws Exception {
+        List<Path> inputs = images(3);
+        assertEquals(0, batch().run(inputs, dir.resolve("vqc")));
+        VQBatch decode = batch();
+        decode.decode = true;
+        assertEquals(0, decode.run(VQBatch.listInputs(dir.resolve("vqc").toString()), dir.resolve("png")));
+        for (int i = 0; i < 3; i++) {
+            BufferedImage image = ImageIO.read(dir.resolve("png/image" + i + ".png").toFile());
+            assertTrue(TestImages.psnr(TestImages.image(32, 24, i), image) > 20);
+        }
+    }
+
+    @Test
+    void noInputs() throws Exception {
+        assertEquals(0, batch().run(List.of(), dir.resolve("out")));
+        assertTrue(Files.isDirectory(dir.resolve("out")));
+    }
+
+    @Test
+    void stageKilledByAnErrorDoesNotHangTheBatch() throws Exception {
+        List<Path> inputs = images(2);
+        batch().run(inputs, dir.resolve("vqc"));
+        List<Path> containers = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            // More files than the queues hold, so a stage that stopped taking them would block
+            containers.add(Files.copy(dir.resolve("vqc/image" + i % 2 + ".vqc"), dir.resolve("copy" + i + ".vqc")));
+        }
+        VQBatch decode = batch();
+        decode.decode = true;
+        decode.queueSize = 2;
+        decode.imageWriter = new VQImageWriter() {
+            @Override
+            public void write(BufferedImage image, Format format, Path path) {
+                throw new StackOverflowError("writer stage died");
+            }
+        };
+        int failed = assertTimeoutPreemptively(Duration.ofSeconds(60),
+                () -> decode.run(containers, dir.resolve("png")));
+        assertEquals(containers.size(), failed);
+    }
+}
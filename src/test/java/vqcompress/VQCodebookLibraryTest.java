@@ -0,0 +1,116 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VQCodebookLibraryTest {
+
+    private static final BufferedImage IMAGE = TestImages.image(67, 45, 1);
+
+    @Test
+    void sharedCodebook(@TempDir Path dir) throws IOException {
+        VQCodebookLibrary library = new VQCodebookLibrary(dir, 4);
+        VQOptions options = VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(32);
+        byte[] own = VQContainerTest.bytes(new VQCodec(options).encode(IMAGE));
+        byte[] trained = VQContainer.read(ByteBuffer.wrap(own)).codeBook;
+        VQCodebookLibrary.Codebook codebook = library.save("test-4x32", 4, 3, trained);
+
+        VQCodec codec = new VQCodec(options.withSharedCodebook(codebook), VQExecutor.shared(), library);
+        byte[] encoded = VQContainerTest.bytes(codec.encode(IMAGE));
+        int flags = ((encoded[6] & 0xFF) << 8) | (encoded[7] & 0xFF);
+        assertEquals(VQContainer.FLAG_SHARED_CODEBOOK, flags & VQContainer.FLAG_SHARED_CODEBOOK);
+        assertTrue(encoded.length < own.length - trained.length / 2, "the codebook is referenced, not stored");
+
+        VQContainer container = VQContainer.read(ByteBuffer.wrap(encoded), library);
+        assertArrayEquals(trained, container.codeBook);
+        assertArrayEquals(encoded, VQContainerTest.bytes(container.toByteBuffer()));
+        assertTrue(TestImages.psnr(IMAGE.getSubimage(0, 0, 64, 44),
+                codec.decode(ByteBuffer.wrap(encoded)).getSubimage(0, 0, 64, 44)) > 20);
+
+        // A library without the codebook cannot resolve the reference
+        VQCodebookLibrary empty = new VQCodebookLibrary(dir.resolve("empty"), 4);
+        assertThrows(IOException.class, () -> VQContainer.read(ByteBuffer.wrap(encoded), empty));
+        // Nor can one where the id now names a different codebook
+        VQCodebookLibrary changed = new VQCodebookLibrary(dir.resolve("changed"), 4);
+        byte[] other = trained.clone();
+        other[0] ^= 1;
+        changed.save("test-4x32", 4, 3, other);
+        assertThrows(IOException.class, () -> VQContainer.read(ByteBuffer.wrap(encoded), changed));
+    }
+
+    @Test
+    void trainedCodebookReloads(@TempDir Path dir) throws IOException {
+        List<Path> corpus = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Path p = dir.resolve("image" + i + ".png");
+            ImageIO.write(TestImages.image(40 + i * 8, 32, i), "png", p.toFile());
+            corpus.add(p);
+        }
+        Path libraryDir = dir.resolve("library");
+        VQCodebookLibrary.Codebook trained = new VQCodebookLibrary(libraryDir, 4)
+                .train("corpus", corpus, 4, 16, 100);
+        assertEquals(16, trained.codeBookSize);
+        assertEquals(16 * 4 * 4 * 3, trained.codeBook.length);
+
+        // A fresh library reads the same codebook back from disk
+        VQCodebookLibrary.Codebook loaded = new VQCodebookLibrary(libraryDir, 4).get("corpus", trained.hash);
+        assertEquals(trained.hash, loaded.hash);
+        assertArrayEquals(trained.codeBook, loaded.codeBook);
+        assertThrows(IOException.class, () -> new VQCodebookLibrary(libraryDir, 4).get("corpus", trained.hash + 1));
+    }
+
+    @Test
+    void damagedCodebookFiles(@TempDir Path dir) throws IOException {
+        VQCodebookLibrary library = new VQCodebookLibrary(dir, 4);
+        byte[] codeBook = VQContainerTest.container(8, 8, 4, 16, 1).codeBook;
+        library.save("good", 4, 3, codeBook);
+        byte[] file = Files.readAllBytes(dir.resolve("good.vqcb"));
+
+        List<byte[]> damaged = new ArrayList<>();
+        damaged.add(Arrays.copyOf(file, 10));
+        damaged.add(Arrays.copyOf(file, file.length - 1));
+        for (int offset : new int[] {5, 9, 13}) {
+            // tileSize, codeBookSize and channels
+            for (int value : new int[] {0, -1, 1 << 20}) {
+                byte[] d = file.clone();
+                ByteBuffer.wrap(d).putInt(offset, value);
+                damaged.add(d);
+            }
+        }
+        for (byte[] d : damaged) {
+            Files.write(dir.resolve("bad.vqcb"), d);
+            assertThrows(IOException.class, () -> new VQCodebookLibrary(dir, 4).load("bad"));
+        }
+
+        // An id that is not a plain file name is a corrupt container, not a caller error
+        VQContainer c = VQContainerTest.container(8, 8, 4, 16, 1);
+        c.codebookId = "../good";
+        c.codebookHash = 1;
+        byte[] encoded = VQContainerTest.bytes(c.toByteBuffer());
+        assertThrows(IOException.class, () -> VQContainer.read(ByteBuffer.wrap(encoded), library));
+    }
+
+    @Test
+    void trainingNeedsImagesAndASample(@TempDir Path dir) throws IOException {
+        VQCodebookLibrary library = new VQCodebookLibrary(dir, 4);
+        Path p = dir.resolve("image.png");
+        ImageIO.write(TestImages.image(32, 32, 1), "png", p.toFile());
+        assertThrows(IllegalArgumentException.class, () -> library.train("none", List.of(), 4, 16, 100));
+        assertThrows(IllegalArgumentException.class, () -> library.train("zero", List.of(p), 4, 16, 0));
+        assertThrows(IllegalArgumentException.class, () -> library.train("small", List.of(p), 64, 16, 100));
+    }
+}
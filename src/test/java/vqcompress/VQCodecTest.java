@@ -0,0 +1,124 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+class VQCodecTest {
+
+    private static final BufferedImage IMAGE = TestImages.image(67, 45, 1);
+
+    @ParameterizedTest(name = "coding {0}")
+    @ValueSource(ints = {VQContainer.CODING_PACKED, VQContainer.CODING_HUFFMAN, VQContainer.CODING_HUFFMAN_CONTEXT})
+    void roundTrip(int coding) throws IOException {
+        VQCodec codec = new VQCodec(VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(32).withIndexCoding(coding));
+        BufferedImage decoded = codec.decode(codec.encode(IMAGE));
+        assertEquals(IMAGE.getWidth(), decoded.getWidth());
+        assertEquals(IMAGE.getHeight(), decoded.getHeight());
+        // Partial tiles at the right and bottom edges are not coded
+        double psnr = TestImages.psnr(IMAGE.getSubimage(0, 0, 64, 44), decoded.getSubimage(0, 0, 64, 44));
+        assertTrue(psnr > 20, psnr + " dB");
+    }
+
+    @Test
+    void streamsMatchBuffers() throws IOException {
+        VQCodec codec = new VQCodec(VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16));
+        byte[] encoded = VQContainerTest.bytes(codec.encode(IMAGE));
+
+        ByteArrayOutputStream png = new ByteArrayOutputStream();
+        ImageIO.write(IMAGE, "png", png);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        codec.encode(new ByteArrayInputStream(png.toByteArray()), out);
+        assertArrayEquals(encoded, out.toByteArray());
+
+        BufferedImage fromStream = codec.decode(new ByteArrayInputStream(encoded));
+        assertEquals(0, TestImages.differingPixels(fromStream, codec.decode(ByteBuffer.wrap(encoded)), 0, 0));
+    }
+
+    @Test
+    void unreadableImageIsRejected() {
+        VQCodec codec = new VQCodec(VQOptions.DEFAULT);
+        assertThrows(IOException.class,
+                () -> codec.encode(new ByteArrayInputStream(new byte[] {1, 2, 3}), new ByteArrayOutputStream()));
+    }
+
+    @Test
+    void libraryCallsPrintNothing() throws IOException {
+        PrintStream stdout = System.out;
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true));
+        try {
+            VQOptions options = VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16);
+            for (VQOptions o : new VQOptions[] {options, options.withStages(2), options.withTreeStructured(true),
+                    options.withColorSpace(VQContainer.COLOR_YCBCR_420), options.withTileSize(8).withQuadtree(2, 30)}) {
+                VQCodec codec = new VQCodec(o);
+                codec.decode(codec.encode(IMAGE));
+            }
+        } finally {
+            System.setOut(stdout);
+        }
+        assertEquals("", captured.toString());
+    }
+
+    @Test
+    void jobReportsEveryStage() throws IOException {
+        List<String> events = Collections.synchronizedList(new ArrayList<>());
+        VQExecutor.Job job = new VQExecutor.Job(new VQExecutor.ProgressListener() {
+            @Override
+            public void stage(String name) {
+                events.add(name);
+            }
+
+            @Override
+            public void progress(int completed, int total) {
+                if (completed == total) {
+                    events.add("done");
+                }
+            }
+        });
+        VQCodec codec = new VQCodec(VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16));
+        codec.decode(codec.encode(IMAGE, job), job);
+        List<String> stages = new ArrayList<>(events);
+        // Each stage is reported, and each runs to completion before the next begins
+        assertEquals(List.of("Loading", "Training", "Quantizing", "Decoding"),
+                stages.stream().filter(e -> !e.equals("done")).collect(Collectors.toList()));
+        for (int i = 1; i < stages.size(); i++) {
+            if (!stages.get(i).equals("done")) {
+                assertEquals("done", stages.get(i - 1), "before " + stages.get(i));
+            }
+        }
+    }
+
+    @Test
+    void quadtreeWarmStart() throws IOException {
+        VQOptions options = VQOptions.DEFAULT.withTileSize(8).withCodeBookSize(16).withQuadtree(2, 30);
+        byte[] previous = VQContainer.read(new VQCodec(options).encode(IMAGE)).codeBook;
+        BufferedImage next = TestImages.image(67, 45, 2);
+        byte[] cold = VQContainerTest.bytes(new VQCodec(options).encode(next));
+        VQCodec warm = new VQCodec(options.withWarmStart(previous));
+        byte[] warmed = VQContainerTest.bytes(warm.encode(next));
+        assertFalse(Arrays.equals(cold, warmed), "training starts from the given codebooks");
+        assertTrue(TestImages.psnr(next, warm.decode(ByteBuffer.wrap(warmed))) > 20);
+        // A flat codebook does not fit the per-level layout
+        VQCodec flat = new VQCodec(options.withWarmStart(new byte[16 * 8 * 8 * 3]));
+        assertThrows(IllegalArgumentException.class, () -> flat.encode(next));
+    }
+}
@@ -0,0 +1,162 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.junit.jupiter.params.provider.MethodSource;
+
+class VQContainerTest {
+
+    private static final BufferedImage IMAGE = TestImages.image(67, 45, 1);
+
+    // A container with a random codebook and index grid; width and height need not be tile multiples
+    static VQContainer container(int width, int height, int tileSize, int codeBookSize, long seed) {
+        Random random = new Random(seed);
+        VQContainer c = new VQContainer();
+        c.imageWidth = width;
+        c.imageHeight = height;
+        c.tileSize = tileSize;
+        c.codeBookSize = codeBookSize;
+        int dim = tileSize * tileSize * c.channels;
+        c.codeBook = new byte[codeBookSize * dim];
+        random.nextBytes(c.codeBook);
+        c.indices = new int[c.tilesPerRow()][c.tilesPerColumn()];
+        for (int[] row : c.indices) {
+            for (int col = 0; col < row.length; col++) {
+                row[col] = random.nextInt(codeBookSize);
+            }
+        }
+        return c;
+    }
+
+    static byte[] bytes(ByteBuffer buf) {
+        byte[] data = new byte[buf.remaining()];
+        buf.duplicate().get(data);
+        return data;
+    }
+
+    static void assertSameContent(VQContainer expected, VQContainer actual) {
+        assertEquals(expected.imageWidth, actual.imageWidth);
+        assertEquals(expected.imageHeight, actual.imageHeight);
+        assertEquals(expected.tileSize, actual.tileSize);
+        assertEquals(expected.codeBookSize, actual.codeBookSize);
+        assertEquals(expected.channels, actual.channels);
+        assertArrayEquals(expected.codeBook, actual.codeBook);
+        assertArrayEquals(expected.indices, actual.indices);
+        assertEquals(expected.restartRows, actual.restartRows);
+    }
+
+    @ParameterizedTest(name = "{0}x{1}, {2}x{2} tiles, {3} codewords, coding {4}, {5} rows per group")
+    @CsvSource({
+        "64, 48, 8, 256, 0, 0", "64, 48, 8, 256, 1, 0", "64, 48, 8, 256, 2, 0",
+        "67, 45, 4, 24, 0, 0", "67, 45, 4, 24, 1, 0", "67, 45, 4, 24, 2, 0",
+        "67, 45, 4, 24, 0, 1", "67, 45, 4, 24, 1, 3", "67, 45, 4, 24, 2, 4",
+        "9, 7, 2, 1, 0, 0", "9, 7, 2, 1, 1, 2", "9, 7, 2, 1, 2, 0",
+        "5, 5, 1, 2, 2, 2", "33, 17, 16, 3, 1, 100"
+    })
+    void roundTrip(int width, int height, int tileSize, int codeBookSize, int coding, int restartRows,
+                   @TempDir Path dir) throws IOException {
+        VQContainer c = container(width, height, tileSize, codeBookSize, width * 31L + height);
+        c.indexCoding = coding;
+        c.restartRows = restartRows;
+        Path path = dir.resolve("image.vqc");
+        c.write(path.toString());
+        assertTrue(VQContainer.isContainer(path.toString()));
+        assertSameContent(c, VQContainer.read(path.toString()));
+        // The in-memory form is the same bytes as the file
+        byte[] data = bytes(c.toByteBuffer());
+        assertArrayEquals(Files.readAllBytes(path), data);
+        assertSameContent(c, VQContainer.read(ByteBuffer.wrap(data)));
+    }
+
+    static Stream<Arguments> encoded() {
+        VQOptions base = VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(32);
+        Stream.Builder<Arguments> cases = Stream.builder();
+        for (int coding : new int[] {VQContainer.CODING_PACKED, VQContainer.CODING_HUFFMAN,
+                VQContainer.CODING_HUFFMAN_CONTEXT}) {
+            VQOptions o = base.withIndexCoding(coding);
+            cases.add(Arguments.of("plain " + coding, o.withRestartRows(0), 0));
+            cases.add(Arguments.of("row index " + coding, o.withRestartRows(3), VQContainer.FLAG_ROW_INDEX));
+            cases.add(Arguments.of("residual " + coding, o.withRestartRows(0).withStages(3),
+                    VQContainer.FLAG_RESIDUAL));
+            cases.add(Arguments.of("residual row index " + coding, o.withRestartRows(2).withStages(2),
+                    VQContainer.FLAG_RESIDUAL | VQContainer.FLAG_ROW_INDEX));
+            cases.add(Arguments.of("ycbcr " + coding, o.withRestartRows(0).withColorSpace(VQContainer.COLOR_YCBCR_420),
+                    VQContainer.FLAG_YCBCR_420));
+            cases.add(Arguments.of("ycbcr row index " + coding,
+                    o.withRestartRows(4).withColorSpace(VQContainer.COLOR_YCBCR_420).withChromaCodeBookSize(16),
+                    VQContainer.FLAG_YCBCR_420 | VQContainer.FLAG_ROW_INDEX));
+            cases.add(Arguments.of("quadtree " + coding, o.withTileSize(8).withRestartRows(0).withQuadtree(2, 30),
+                    VQContainer.FLAG_QUADTREE));
+        }
+        cases.add(Arguments.of("tree-structured", base.withTreeStructured(true), VQContainer.FLAG_ROW_INDEX));
+        cases.add(Arguments.of("1x1 tiles", base.withTileSize(1).withCodeBookSize(16), VQContainer.FLAG_ROW_INDEX));
+        return cases.build();
+    }
+
+    // Encoder output for each container layout: flags, re-serialisation and decoded quality
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("encoded")
+    void codecRoundTrip(String name, VQOptions options, int flags) throws IOException {
+        VQCodec codec = new VQCodec(options);
+        byte[] encoded = bytes(codec.encode(IMAGE));
+        assertEquals(flags, ((encoded[6] & 0xFF) << 8) | (encoded[7] & 0xFF), "flags");
+
+        // Reading and writing again gives the same bytes
+        VQContainer container = VQContainer.read(ByteBuffer.wrap(encoded));
+        assertArrayEquals(encoded, bytes(container.toByteBuffer()));
+
+        BufferedImage decoded = codec.decode(ByteBuffer.wrap(encoded));
+        assertEquals(IMAGE.getWidth(), decoded.getWidth());
+        assertEquals(IMAGE.getHeight(), decoded.getHeight());
+        // Quadtree containers pad the edges; the others leave partial tiles uncoded
+        int width = options.minTileSize() > 0 ? IMAGE.getWidth() : IMAGE.getWidth() / options.tileSize() * options.tileSize();
+        int height = options.minTileSize() > 0 ? IMAGE.getHeight() : IMAGE.getHeight() / options.tileSize() * options.tileSize();
+        double psnr = TestImages.psnr(IMAGE.getSubimage(0, 0, width, height), decoded.getSubimage(0, 0, width, height));
+        assertTrue(psnr > 20, name + ": " + psnr + " dB");
+    }
+
+    @Test
+    void contextCodingShrinksRuns(@TempDir Path dir) throws IOException {
+        // Runs of equal indices, as in flat image areas
+        VQContainer c = container(256, 256, 4, 64, 7);
+        for (int r = 0; r < c.indices.length; r++) {
+            for (int col = 0; col < c.indices[r].length; col++) {
+                c.indices[r][col] = (r / 8 * 5 + col / 16) % 64;
+            }
+        }
+        long[] sizes = new long[3];
+        for (int coding = 0; coding < 3; coding++) {
+            c.indexCoding = coding;
+            Path path = dir.resolve("coding" + coding + ".vqc");
+            c.write(path.toString());
+            sizes[coding] = Files.size(path);
+            assertSameContent(c, VQContainer.read(path.toString()));
+        }
+        assertTrue(sizes[2] < sizes[1] && sizes[1] < sizes[0], Arrays.toString(sizes));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @CsvSource({"empty, ''", "text, '64 48 8 256'", "short, VQC"})
+    void otherFilesAreNotContainers(String name, String content, @TempDir Path dir) throws IOException {
+        Path path = dir.resolve(name);
+        Files.writeString(path, content);
+        assertFalse(VQContainer.isContainer(path.toString()));
+        assertFalse(VQContainer.isContainer(dir.resolve("missing").toString()));
+    }
+}
@@ -0,0 +1,191 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+// Damaged files must be rejected with an IOException, never decoded into garbage or left to
+// fail with an unchecked exception
+class VQCorruptInputTest {
+
+    @TempDir
+    Path dir;
+
+    private byte[] encode(VQContainer c) throws IOException {
+        Path path = dir.resolve("image.vqc");
+        c.write(path.toString());
+        return Files.readAllBytes(path);
+    }
+
+    private static void assertRejected(byte[] data) {
+        assertThrows(IOException.class, () -> VQContainer.read(ByteBuffer.wrap(data)));
+    }
+
+    @Test
+    void badMagic() throws IOException {
+        byte[] data = encode(VQContainerTest.container(32, 32, 4, 16, 1));
+        data[0] = 'X';
+        assertRejected(data);
+    }
+
+    @Test
+    void unsupportedVersion() throws IOException {
+        byte[] data = encode(VQContainerTest.container(32, 32, 4, 16, 1));
+        data[4] = (byte) (VQContainer.VERSION + 1);
+        assertRejected(data);
+    }
+
+    @Test
+    void flagsNeedVersion2() throws IOException {
+        VQContainer c = VQContainerTest.container(32, 32, 4, 16, 1);
+        byte[] plain = encode(c);
+        assertEquals(VQContainer.FIRST_VERSION, plain[4]);
+        plain[4] = VQContainer.VERSION;
+        plain[6] = (byte) 0x80; // not a known flag
+        assertRejected(plain);
+
+        c.restartRows = 2;
+        byte[] flagged = encode(c);
+        assertEquals(VQContainer.VERSION, flagged[4]);
+        flagged[4] = VQContainer.FIRST_VERSION;
+        assertRejected(flagged);
+    }
+
+    @Test
+    void headerFieldsOutOfRange() throws IOException {
+        byte[] data = encode(VQContainerTest.container(32, 32, 4, 16, 1));
+        // {offset, value}: width, height, tileSize and channels
+        int[][] fields = {{8, 0}, {8, -32}, {8, 1 << 20}, {12, -1}, {12, VQContainer.MAX_DIMENSION + 1},
+                {16, 0}, {16, 1 << 16}, {24, 0}, {24, 9}};
+        for (int[] field : fields) {
+            byte[] damaged = data.clone();
+            ByteBuffer.wrap(damaged).putInt(field[0], field[1]);
+            assertRejected(damaged);
+        }
+    }
+
+    @Test
+    void truncatedOptionalFields() throws IOException {
+        VQOptions base = VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16).withRestartRows(0);
+        BufferedImage image = TestImages.image(32, 32, 5);
+        for (VQOptions options : new VQOptions[] {base.withStages(2),
+                base.withColorSpace(VQContainer.COLOR_YCBCR_420), base.withTileSize(8).withQuadtree(2, 30),
+                base.withRestartRows(2)}) {
+            byte[] data = VQContainerTest.bytes(new VQCodec(options).encode(image));
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            VQContainer.readHeader(buf, null);
+            // Every cut through the header and codebook, and through restartRows after them
+            int end = buf.position() + (options.restartRows() > 0 ? 4 : 0);
+            for (int length = VQContainer.HEADER_SIZE; length < end; length++) {
+                assertRejected(Arrays.copyOf(data, length));
+            }
+        }
+        VQContainer c = VQContainerTest.container(32, 32, 4, 16, 1);
+        c.codebookId = "studio-4x16";
+        c.codebookHash = 42;
+        byte[] data = encode(c);
+        for (int length = VQContainer.HEADER_SIZE; length < VQContainer.HEADER_SIZE + 1 + 11 + 8; length++) {
+            assertRejected(Arrays.copyOf(data, length));
+        }
+    }
+
+    @Test
+    void unsupportedIndexCoding() throws IOException {
+        byte[] data = encode(VQContainerTest.container(32, 32, 4, 16, 1));
+        data[5] = 9;
+        assertRejected(data);
+    }
+
+    @Test
+    void truncatedHeader() throws IOException {
+        byte[] data = encode(VQContainerTest.container(32, 32, 4, 16, 1));
+        assertRejected(Arrays.copyOf(data, VQContainer.HEADER_SIZE - 1));
+        assertRejected(new byte[0]);
+    }
+
+    @Test
+    void truncatedIndexStream() throws IOException {
+        for (int coding = 0; coding < 3; coding++) {
+            for (int restartRows : new int[] {0, 2}) {
+                VQContainer c = VQContainerTest.container(32, 32, 4, 16, 1);
+                c.indexCoding = coding;
+                c.restartRows = restartRows;
+                byte[] data = encode(c);
+                assertRejected(Arrays.copyOf(data, data.length - 3));
+            }
+        }
+    }
+
+    @Test
+    void packedIndexOutOfRange() throws IOException {
+        // 24 codewords are packed in 5 bits, so 24..31 can appear in a damaged stream
+        for (int restartRows : new int[] {0, 2}) {
+            VQContainer c = VQContainerTest.container(32, 32, 4, 24, 2);
+            c.indexCoding = VQContainer.CODING_PACKED;
+            c.restartRows = restartRows;
+            c.indices[3][5] = 30;
+            byte[] data = encode(c);
+            assertRejected(data);
+            if (restartRows > 0) {
+                // Region decoding reads only the groups it needs, and must check them too
+                VQRegionDecoder decoder = new VQRegionDecoder(ByteBuffer.wrap(data),
+                        VQCodebookLibrary.defaultLibrary());
+                assertThrows(IOException.class, () -> decoder.decodeRegion(16, 8, 8, 8));
+            }
+        }
+    }
+
+    @Test
+    void contextSymbolWithoutNeighbour() throws IOException {
+        // Encode a 2x2 grid of zeros, whose symbols are "0, same as left, same as above, same as
+        // left", then decode it as a 4x1 grid: row 1 starts with "same as left" and has no left
+        VQHuffmanCoder encoder = new VQHuffmanCoder(true);
+        int[][] grid = {{0, 0}, {0, 0}};
+        byte[] model = encoder.encodeModel(grid, 2, 2);
+        byte[] segment = encoder.encodeRows(grid, 0, 2, 2);
+
+        VQHuffmanCoder decoder = new VQHuffmanCoder(true);
+        decoder.readModel(ByteBuffer.wrap(model), 2);
+        assertThrows(IOException.class,
+                () -> decoder.decodeRows(ByteBuffer.wrap(segment), new int[4][1], 0, 4, 2));
+    }
+
+    @Test
+    void truncatedHuffmanTables() throws IOException {
+        int[][] grid = VQContainerTest.container(32, 32, 4, 16, 1).indices;
+        for (boolean context : new boolean[] {false, true}) {
+            byte[] encoded = new VQHuffmanCoder(context).encode(grid, 16);
+            byte[] model = new VQHuffmanCoder(context).encodeModel(grid, grid.length, 16);
+            VQHuffmanCoder decoder = new VQHuffmanCoder(context);
+            assertThrows(IOException.class,
+                    () -> decoder.readModel(ByteBuffer.wrap(Arrays.copyOf(model, model.length - 1)), 16));
+            // Tables complete, payload length cut short
+            assertThrows(IOException.class, () -> decoder.decode(
+                    ByteBuffer.wrap(Arrays.copyOf(encoded, model.length + 2)), new int[8][8], 16));
+        }
+    }
+
+    @Test
+    void sequenceWithoutFrameIndex() throws IOException {
+        Path path = dir.resolve("clip.vqs");
+        try (VQSequence sequence = VQSequence.open(path.toString(),
+                VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16))) {
+            sequence.append(TestImages.image(48, 32, 3));
+            sequence.append(TestImages.image(48, 32, 4));
+        }
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            ch.truncate(ch.size() - 1);
+        }
+        assertThrows(IOException.class, () -> VQSequence.Reader.open(path.toString()));
+    }
+}
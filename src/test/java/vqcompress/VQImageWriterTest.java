@@ -0,0 +1,159 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+// The hand-built PNG writer must give files that standard readers decode to the same pixels
+class VQImageWriterTest {
+
+    private static final BufferedImage IMAGE = TestImages.image(157, 101, 5);
+
+    @ParameterizedTest(name = "level {0}, {1} rows per strip")
+    @CsvSource({"0, 1", "0, 64", "1, 7", "1, 1000", "6, 1", "6, 7", "6, 64", "9, 7", "9, 1000"})
+    void pngReadsBack(int level, int stripRows, @TempDir Path dir) throws IOException, DataFormatException {
+        VQImageWriter writer = new VQImageWriter();
+        writer.pngLevel = level;
+        writer.stripRows = stripRows;
+        Path path = dir.resolve("out.png");
+        writer.write(IMAGE, path);
+
+        BufferedImage read = ImageIO.read(path.toFile());
+        assertEquals(IMAGE.getWidth(), read.getWidth());
+        assertEquals(IMAGE.getHeight(), read.getHeight());
+        assertEquals(0, TestImages.differingPixels(read, IMAGE, 0, 0));
+        // ImageIO does not check the zlib trailer, so inflate the joined strips here as well
+        byte[] raw = inflate(idat(Files.readAllBytes(path)));
+        assertEquals(IMAGE.getHeight() * (1 + IMAGE.getWidth() * 3), raw.length);
+    }
+
+    @Test
+    void indexedPngMatchesDecode(@TempDir Path dir) throws IOException {
+        VQOptions options = VQOptions.DEFAULT.withTileSize(1).withCodeBookSize(16);
+        VQContainer container = VQContainer.read(new VQCodec(options).encode(IMAGE));
+        BufferedImage decoded = new vectorQuantizationDecompress().decode(container);
+        VQImageWriter writer = new VQImageWriter();
+        writer.stripRows = 9;
+        Path path = dir.resolve("indexed.png");
+        writer.writeIndexed(container, path);
+
+        BufferedImage read = ImageIO.read(path.toFile());
+        assertEquals(0, TestImages.differingPixels(read, decoded, 0, 0));
+        assertTrue(Files.size(path) < Files.size(write(writer, decoded, dir.resolve("rgb.png"))));
+
+        VQContainer tiled = VQContainer.read(new VQCodec(VQOptions.DEFAULT.withCodeBookSize(16)).encode(IMAGE));
+        assertThrows(IllegalArgumentException.class, () -> writer.writeIndexed(tiled, dir.resolve("x.png")));
+    }
+
+    @Test
+    void ppmAndRaw(@TempDir Path dir) throws IOException {
+        VQImageWriter writer = new VQImageWriter();
+        byte[] ppm = Files.readAllBytes(write(writer, IMAGE, dir.resolve("out.ppm")));
+        byte[] raw = Files.readAllBytes(write(writer, IMAGE, dir.resolve("out.rgb")));
+        byte[] header = ("P6\n157 101\n255\n").getBytes(StandardCharsets.US_ASCII);
+        assertArrayEquals(header, Arrays.copyOf(ppm, header.length));
+        assertArrayEquals(raw, Arrays.copyOfRange(ppm, header.length, ppm.length));
+        assertEquals(IMAGE.getWidth() * IMAGE.getHeight() * 3, raw.length);
+        for (int i = 0; i < 50; i++) {
+            int x = (i * 37) % IMAGE.getWidth();
+            int y = (i * 13) % IMAGE.getHeight();
+            int p = (y * IMAGE.getWidth() + x) * 3;
+            int rgb = ((raw[p] & 0xFF) << 16) | ((raw[p + 1] & 0xFF) << 8) | (raw[p + 2] & 0xFF);
+            assertEquals(IMAGE.getRGB(x, y) & 0xFFFFFF, rgb);
+        }
+    }
+
+    @Test
+    void adlerOfJoinedStrips() {
+        Random random = new Random(6);
+        byte[] data = new byte[5000];
+        random.nextBytes(data);
+        for (int split : new int[] {0, 1, 2500, 4999, 5000}) {
+            long combined = VQImageWriter.adler32Combine(adler(data, 0, split), adler(data, split, data.length),
+                    data.length - split);
+            assertEquals(adler(data, 0, data.length), combined, "split at " + split);
+        }
+    }
+
+    @Test
+    void pngLevelOutOfRange(@TempDir Path dir) {
+        assertThrows(IllegalArgumentException.class, () -> VQImageWriter.checkPngLevel(12));
+        assertThrows(IllegalArgumentException.class, () -> VQImageWriter.checkPngLevel(-1));
+        VQImageWriter writer = new VQImageWriter();
+        writer.pngLevel = 10;
+        assertThrows(IllegalArgumentException.class, () -> writer.write(IMAGE, dir.resolve("out.png")));
+    }
+
+    @Test
+    void formats() {
+        assertEquals(VQImageWriter.Format.PPM, VQImageWriter.formatFor("a/b.PPM"));
+        assertEquals(VQImageWriter.Format.RAW, VQImageWriter.formatFor("b.rgb"));
+        assertEquals(VQImageWriter.Format.JPEG, VQImageWriter.formatFor("b.jpeg"));
+        assertEquals(VQImageWriter.Format.PNG, VQImageWriter.formatFor("b.bmp"));
+        assertEquals(VQImageWriter.Format.INDEXED_PNG, VQImageWriter.parseFormat("indexed"));
+        assertThrows(IllegalArgumentException.class, () -> VQImageWriter.parseFormat("gif"));
+    }
+
+    private static Path write(VQImageWriter writer, BufferedImage image, Path path) throws IOException {
+        writer.write(image, path);
+        return path;
+    }
+
+    private static long adler(byte[] data, int from, int to) {
+        Adler32 adler = new Adler32();
+        adler.update(data, from, to - from);
+        return adler.getValue();
+    }
+
+    // Concatenated IDAT chunk data of a PNG file
+    private static byte[] idat(byte[] png) {
+        ByteBuffer buf = ByteBuffer.wrap(png, 8, png.length - 8);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        while (buf.remaining() >= 12) {
+            int length = buf.getInt();
+            String type = new String(png, buf.position(), 4, StandardCharsets.US_ASCII);
+            buf.position(buf.position() + 4);
+            if (type.equals("IDAT")) {
+                out.write(png, buf.position(), length);
+            }
+            buf.position(buf.position() + length + 4);
+        }
+        return out.toByteArray();
+    }
+
+    // Inflater checks the Adler-32 trailer and fails on a bad one
+    private static byte[] inflate(byte[] zlib) throws DataFormatException {
+        Inflater inflater = new Inflater();
+        inflater.setInput(zlib);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        while (!inflater.finished()) {
+            int n = inflater.inflate(chunk);
+            if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                throw new DataFormatException("Incomplete zlib stream");
+            }
+            out.write(chunk, 0, n);
+        }
+        inflater.end();
+        return out.toByteArray();
+    }
+}
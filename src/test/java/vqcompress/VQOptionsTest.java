@@ -0,0 +1,52 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+// Settings that cannot work are rejected when the options are built, before any training
+class VQOptionsTest {
+
+    @Test
+    void quadtreeNeedsASmallerMinimumTile() {
+        VQOptions options = VQOptions.DEFAULT.withTileSize(8);
+        assertEquals(4, options.withQuadtree(4, 30).minTileSize());
+        assertThrows(IllegalArgumentException.class, () -> options.withQuadtree(8, 30));
+        assertThrows(IllegalArgumentException.class, () -> options.withQuadtree(16, 30));
+        assertThrows(IllegalArgumentException.class, () -> options.withQuadtree(4, 30).withTileSize(4));
+    }
+
+    @Test
+    void quadtreeLevelsNeedASmallerMinimumTile() {
+        assertThrows(IllegalArgumentException.class, () -> VQQuadtree.levels(8, 8));
+        assertEquals(3, VQQuadtree.levels(8, 2));
+        assertThrows(IllegalArgumentException.class, () -> VQQuadtree.levels(8, 3));
+    }
+
+    @Test
+    void codebookMustFitHuffmanCodes() {
+        assertEquals(VQHuffmanCoder.MAX_CODEBOOK_SIZE,
+                VQOptions.DEFAULT.withCodeBookSize(VQHuffmanCoder.MAX_CODEBOOK_SIZE).codeBookSize());
+        assertThrows(IllegalArgumentException.class,
+                () -> VQOptions.DEFAULT.withCodeBookSize(VQHuffmanCoder.MAX_CODEBOOK_SIZE + 1));
+        assertThrows(IllegalArgumentException.class,
+                () -> VQOptions.DEFAULT.withChromaCodeBookSize(1 << 20));
+        // Used directly, the code length limiter fails instead of flattening forever
+        long[] freq = new long[(1 << VQHuffmanCoder.MAX_CODE_LENGTH) + 1];
+        Arrays.fill(freq, 1);
+        assertThrows(IllegalArgumentException.class,
+                () -> VQHuffmanCoder.codeLengths(freq, VQHuffmanCoder.MAX_CODE_LENGTH));
+    }
+
+    @Test
+    void indexCodingAndSearchModeAreChecked() {
+        assertEquals(VQContainer.CODING_PACKED,
+                VQOptions.DEFAULT.withIndexCoding(VQContainer.CODING_PACKED).indexCoding());
+        assertThrows(IllegalArgumentException.class, () -> VQOptions.DEFAULT.withIndexCoding(-1));
+        assertThrows(IllegalArgumentException.class,
+                () -> VQOptions.DEFAULT.withIndexCoding(VQContainer.CODING_HUFFMAN_CONTEXT + 1));
+        assertThrows(IllegalArgumentException.class, () -> VQOptions.DEFAULT.withSearchMode(null));
+    }
+}
@@ -0,0 +1,95 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+// decodeRegion must give exactly the pixels of a full decode, whatever the container layout
+class VQRegionDecoderTest {
+
+    private static final BufferedImage IMAGE = TestImages.image(93, 61, 2);
+
+    static Stream<Arguments> containers() {
+        VQOptions base = VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(32);
+        return Stream.of(
+                Arguments.of("row index", base.withRestartRows(2)),
+                Arguments.of("no row index", base.withRestartRows(0)),
+                Arguments.of("residual", base.withStages(2).withRestartRows(3)),
+                Arguments.of("ycbcr", base.withColorSpace(VQContainer.COLOR_YCBCR_420).withRestartRows(2)),
+                Arguments.of("ycbcr odd groups", base.withColorSpace(VQContainer.COLOR_YCBCR_420).withRestartRows(3)),
+                Arguments.of("quadtree", base.withTileSize(16).withQuadtree(2, 30)),
+                Arguments.of("packed row index", base.withIndexCoding(VQContainer.CODING_PACKED).withRestartRows(1)),
+                Arguments.of("1x1 tiles", base.withTileSize(1).withCodeBookSize(16).withRestartRows(5)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("containers")
+    void regionsMatchFullDecode(String name, VQOptions options) throws IOException {
+        VQCodec codec = new VQCodec(options);
+        ByteBuffer encoded = codec.encode(IMAGE);
+        BufferedImage full = codec.decode(encoded.duplicate());
+        VQRegionDecoder decoder = new VQRegionDecoder(encoded.duplicate(), VQCodebookLibrary.defaultLibrary());
+        assertEquals(IMAGE.getWidth(), decoder.width());
+        assertEquals(IMAGE.getHeight(), decoder.height());
+
+        assertEquals(0, TestImages.differingPixels(decoder.decodeRegion(0, 0, full.getWidth(), full.getHeight()),
+                full, 0, 0), "whole image");
+        Random random = new Random(3);
+        for (int i = 0; i < 40; i++) {
+            int w = 1 + random.nextInt(full.getWidth());
+            int h = 1 + random.nextInt(full.getHeight());
+            int x = random.nextInt(full.getWidth() - w + 1);
+            int y = random.nextInt(full.getHeight() - h + 1);
+            BufferedImage region = decoder.decodeRegion(x, y, w, h);
+            assertEquals(w, region.getWidth());
+            assertEquals(h, region.getHeight());
+            assertEquals(0, TestImages.differingPixels(region, full, x, y), w + "x" + h + "+" + x + "+" + y);
+        }
+    }
+
+    @Test
+    void fewerStagesMatchDecoderWithFewerStages() throws IOException {
+        ByteBuffer encoded = new VQCodec(VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16).withStages(3))
+                .encode(IMAGE);
+        VQRegionDecoder decoder = new VQRegionDecoder(encoded.duplicate(), VQCodebookLibrary.defaultLibrary());
+        for (int stages = 1; stages <= 3; stages++) {
+            vectorQuantizationDecompress decompressor = new vectorQuantizationDecompress();
+            decompressor.maxStages = stages;
+            BufferedImage full = decompressor.decode(VQContainer.read(encoded.duplicate()));
+            assertEquals(0, TestImages.differingPixels(decoder.decodeRegion(5, 7, 60, 40, stages), full, 5, 7),
+                    stages + " stages");
+        }
+        assertThrows(IllegalArgumentException.class, () -> decoder.decodeRegion(0, 0, 8, 8, 4));
+    }
+
+    @Test
+    void previewHasOnePixelPerTile() throws IOException {
+        ByteBuffer encoded = new VQCodec(VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(32)).encode(IMAGE);
+        VQRegionDecoder decoder = new VQRegionDecoder(encoded, VQCodebookLibrary.defaultLibrary());
+        BufferedImage preview = decoder.preview();
+        assertEquals(IMAGE.getWidth() / 4, preview.getWidth());
+        assertEquals(IMAGE.getHeight() / 4, preview.getHeight());
+        // Pixels 6..15 and 6..8 overlap tile columns 1..3 and tile rows 1..2
+        BufferedImage part = decoder.preview(6, 6, 10, 3);
+        assertEquals(3, part.getWidth());
+        assertEquals(2, part.getHeight());
+    }
+
+    @Test
+    void regionOutsideImageIsRejected() throws IOException {
+        ByteBuffer encoded = new VQCodec(VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16)).encode(IMAGE);
+        VQRegionDecoder decoder = new VQRegionDecoder(encoded, VQCodebookLibrary.defaultLibrary());
+        assertThrows(IllegalArgumentException.class, () -> decoder.decodeRegion(90, 0, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> decoder.decodeRegion(-1, 0, 10, 10));
+        assertThrows(IllegalArgumentException.class, () -> decoder.decodeRegion(0, 0, 0, 10));
+    }
+}
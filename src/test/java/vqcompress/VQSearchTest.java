@@ -0,0 +1,54 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+class VQSearchTest {
+
+    @Test
+    void distancesOfLargeTilesDoNotOverflow() {
+        // 128 x 128 RGB tiles: a black tile against a white codeword is 49152 * 255^2 > 2^31
+        int dim = 128 * 128 * 3;
+        byte[] codeBook = new byte[3 * dim];
+        Arrays.fill(codeBook, dim, 2 * dim, (byte) 255);
+        Arrays.fill(codeBook, 2 * dim, 3 * dim, (byte) 128);
+        byte[] black = new byte[dim];
+        byte[] white = new byte[dim];
+        Arrays.fill(white, (byte) 255);
+        for (VQSearch.Mode mode : VQSearch.Mode.values()) {
+            VQSearch search = new VQSearch(codeBook, dim, mode);
+            assertEquals(0, search.findClosest(black, 0), mode.name());
+            assertEquals(1, search.findClosest(white, 0), mode.name());
+        }
+    }
+
+    @Test
+    void sortedSearchOfCodebooksAbove2To20Entries() {
+        int dim = 3;
+        int size = (1 << 20) + 64;
+        Random random = new Random(7);
+        byte[] codeBook = new byte[size * dim];
+        random.nextBytes(codeBook);
+        VQSearch bruteForce = new VQSearch(codeBook, dim, VQSearch.Mode.BRUTE_FORCE);
+        VQSearch sorted = new VQSearch(codeBook, dim, VQSearch.Mode.SORTED);
+        byte[] tile = new byte[dim];
+        for (int n = 0; n < 200; n++) {
+            random.nextBytes(tile);
+            int expected = bruteForce.findClosest(tile, 0);
+            int actual = sorted.findClosest(tile, 0);
+            assertEquals(distance(codeBook, expected, tile), distance(codeBook, actual, tile));
+        }
+    }
+
+    private static long distance(byte[] codeBook, int codeword, byte[] tile) {
+        long d = 0;
+        for (int j = 0; j < tile.length; j++) {
+            int diff = (tile[j] & 0xFF) - (codeBook[codeword * tile.length + j] & 0xFF);
+            d += diff * diff;
+        }
+        return d;
+    }
+}
@@ -0,0 +1,105 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VQSequenceTest {
+
+    private static final VQOptions OPTIONS = VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(32);
+
+    @Test
+    void framesReadBackInAnyOrder(@TempDir Path dir) throws IOException {
+        String path = dir.resolve("clip.vqs").toString();
+        BufferedImage[] frames = {
+            TestImages.image(64, 40, 1), TestImages.image(64, 40, 1), TestImages.image(64, 40, 2),
+            TestImages.image(64, 40, 3)
+        };
+        try (VQSequence sequence = VQSequence.open(path, OPTIONS)) {
+            for (int n = 0; n < 3; n++) {
+                sequence.append(frames[n]);
+            }
+        }
+        // Reopening appends after the frames already written
+        try (VQSequence sequence = VQSequence.open(path, OPTIONS)) {
+            assertEquals(3, sequence.frames());
+            sequence.append(frames[3]);
+        }
+
+        try (VQSequence.Reader reader = VQSequence.Reader.open(path)) {
+            assertEquals(4, reader.frames());
+            assertEquals(64, reader.width());
+            assertEquals(40, reader.height());
+            assertEquals(VQSequence.FRAME_CODEBOOK, reader.frameType(0));
+            BufferedImage[] sequential = new BufferedImage[4];
+            for (int n = 0; n < 4; n++) {
+                sequential[n] = reader.frame(n);
+                assertTrue(TestImages.psnr(frames[n], sequential[n]) > 20, "frame " + n);
+            }
+            assertEquals(0, TestImages.differingPixels(sequential[1], sequential[0], 0, 0));
+            for (int n : new int[] {3, 1, 2, 0, 2}) {
+                assertEquals(0, TestImages.differingPixels(reader.frame(n), sequential[n], 0, 0), "frame " + n);
+            }
+        }
+    }
+
+    @Test
+    void framesOfEarlierRunsSurviveAnUnclosedAppend(@TempDir Path dir) throws IOException {
+        Path path = dir.resolve("clip.vqs");
+        Path crashed = dir.resolve("crashed.vqs");
+        try (VQSequence sequence = VQSequence.open(path.toString(), OPTIONS)) {
+            sequence.append(TestImages.image(64, 40, 1));
+            sequence.append(TestImages.image(64, 40, 2));
+        }
+        BufferedImage[] closed = new BufferedImage[2];
+        try (VQSequence.Reader reader = VQSequence.Reader.open(path.toString())) {
+            closed[0] = reader.frame(0);
+            closed[1] = reader.frame(1);
+        }
+        try (VQSequence sequence = VQSequence.open(path.toString(), OPTIONS)) {
+            sequence.append(TestImages.image(64, 40, 3));
+            sequence.append(TestImages.image(64, 40, 4));
+            // The file as a writer killed now would leave it, also cut inside the last frame
+            Files.copy(path, crashed);
+            try (FileChannel ch = FileChannel.open(crashed, StandardOpenOption.WRITE)) {
+                ch.truncate(ch.size() - 5);
+            }
+        }
+        try (VQSequence.Reader reader = VQSequence.Reader.open(crashed.toString())) {
+            assertEquals(2, reader.frames());
+            assertEquals(0, TestImages.differingPixels(reader.frame(0), closed[0], 0, 0));
+            assertEquals(0, TestImages.differingPixels(reader.frame(1), closed[1], 0, 0));
+        }
+        // The closed file has all four frames, and the damaged one can still be appended to
+        try (VQSequence.Reader reader = VQSequence.Reader.open(path.toString())) {
+            assertEquals(4, reader.frames());
+        }
+        try (VQSequence sequence = VQSequence.open(crashed.toString(), OPTIONS)) {
+            sequence.append(TestImages.image(64, 40, 5));
+        }
+        try (VQSequence.Reader reader = VQSequence.Reader.open(crashed.toString())) {
+            assertEquals(3, reader.frames());
+            assertEquals(0, TestImages.differingPixels(reader.frame(1), closed[1], 0, 0));
+            assertTrue(TestImages.psnr(TestImages.image(64, 40, 5), reader.frame(2)) > 20);
+        }
+    }
+
+    @Test
+    void reopenWithOtherGeometryIsRejected(@TempDir Path dir) throws IOException {
+        String path = dir.resolve("clip.vqs").toString();
+        try (VQSequence sequence = VQSequence.open(path, OPTIONS)) {
+            sequence.append(TestImages.image(32, 32, 1));
+        }
+        assertThrows(IOException.class, () -> VQSequence.open(path, OPTIONS.withTileSize(8)));
+        assertThrows(IllegalArgumentException.class, () -> VQSequence.open(path, OPTIONS.withStages(2)));
+    }
+}
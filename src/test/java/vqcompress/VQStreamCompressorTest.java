@@ -0,0 +1,62 @@
+package vqcompress;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import javax.imageio.ImageIO;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class VQStreamCompressorTest {
+
+    private static final VQOptions OPTIONS = VQOptions.DEFAULT.withTileSize(4).withCodeBookSize(16)
+            .withIndexCoding(VQContainer.CODING_PACKED);
+
+    @TempDir
+    Path dir;
+
+    private byte[] stream(Path input, VQOptions options, String name) throws IOException {
+        VQStreamCompressor compressor = new VQStreamCompressor(options);
+        compressor.stripTileRows = 3;
+        Path out = dir.resolve(name);
+        compressor.compress(input.toString(), out.toString());
+        return Files.readAllBytes(out);
+    }
+
+    @Test
+    void trainingOptionsApply() throws IOException {
+        BufferedImage image = TestImages.image(96, 64, 1);
+        Path input = dir.resolve("image.png");
+        ImageIO.write(image, "png", input.toFile());
+
+        byte[] full = stream(input, OPTIONS, "full.vqc");
+        BufferedImage decoded = new VQCodec(OPTIONS).decode(ByteBuffer.wrap(full));
+        assertTrue(TestImages.psnr(image, decoded) > 20);
+        // A smaller sample, an iteration budget and a warm start each change the codebook
+        byte[] sampled = stream(input, OPTIONS.withTrainingSample(20), "sampled.vqc");
+        byte[] budgeted = stream(input, OPTIONS.withTrainingBudget(0, 1), "budgeted.vqc");
+        byte[] warm = stream(input, OPTIONS.withWarmStart(new byte[16 * 4 * 4 * 3]), "warm.vqc");
+        assertFalse(Arrays.equals(full, sampled));
+        assertFalse(Arrays.equals(full, budgeted));
+        assertFalse(Arrays.equals(full, warm));
+    }
+
+    @Test
+    void unsupportedOptionsAreRejected() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new VQStreamCompressor(OPTIONS.withIndexCoding(VQContainer.CODING_HUFFMAN)));
+        assertThrows(IllegalArgumentException.class, () -> new VQStreamCompressor(OPTIONS.withStages(2)));
+        assertThrows(IllegalArgumentException.class, () -> new VQStreamCompressor(OPTIONS.withTreeStructured(true)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new VQStreamCompressor(OPTIONS.withColorSpace(VQContainer.COLOR_YCBCR_420)));
+        assertThrows(IllegalArgumentException.class,
+                () -> new VQStreamCompressor(OPTIONS.withTileSize(8).withQuadtree(2, 30)));
+    }
+}
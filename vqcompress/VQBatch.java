@@ -0,0 +1,342 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+// Batch command line front end. Files flow through three stages joined by bounded queues:
+//   readers  decode input files (images, or containers with --decode)
+//   workers  run VQCodec encode/decode; each codec call also parallelises on the shared pool
+//   writer   writes results to the output directory
+// so disk I/O, image decoding and VQ work overlap while memory stays bounded by queue sizes.
+//
+// Usage: java vqcompress.VQBatch [options] <input dir | @manifest> <output dir>
+//   --tile N        tile size (default 8)
+//   --codebook N    codebook size (default 128)
+//   --coding N      index coding, see VQContainer.CODING_* (default 2)
+//   --stages N      residual VQ stages, each with its own codebook (default 1)
+//   --tree          tree-structured codebooks for faster encoding
+//   --ycbcr         code luma and 4:2:0 chroma with separate codebooks
+//   --chroma N      chroma codebook size with --ycbcr (default: same as --codebook)
+//   --quadtree MIN  variable tiles from --tile down to MIN pixels (edges padded, not cropped)
+//   --psnr DB       quadtree: split tiles until they reach DB (default 32)
+//   --bpp BITS      quadtree: split by error within an index budget of BITS per pixel instead
+//   --sample N      train each codebook on a stratified sample of N tiles
+//   --batch N       mini-batch k-means with N tiles per iteration instead of full passes
+//   --train-ms MS   stop training after MS milliseconds per image and keep the codebook so far
+//   --train-iterations N  same, after N iterations per codebook
+//   --warm-start    start each file's training from the codebook of the file its worker coded
+//                   last (for near-duplicate frames, e.g. from one camera). Which file that is
+//                   depends on scheduling, so output is only reproducible with --workers 1
+//   --decode        turn .vqc files back into .png images
+//   --format F      image format for --decode: png (default), ppm, raw or jpg (see VQImageWriter)
+//   --png-level N   deflate level 0-9 of decoded PNGs (default 6)
+//   --library DIR   codebook library (default -Dvq.codebooks or ./codebooks)
+//   --shared ID     encode against codebook ID from the library instead of training per file
+//   --metrics FILE  append one JSON line of VQMetrics per file
+//   --jmx NAME      publish running totals as the MXBean vqcompress:type=VQMetrics,name=NAME
+//   --readers N     input decoding threads (default 2)
+//   --workers N     files coded concurrently (default 2)
+//   --queue N       capacity of each queue (default 8)
+// A manifest lists one input path per line.
+public class VQBatch {
+
+    // Work item handed between stages; image or data is set depending on the stage
+    private static class Item {
+        final Path input;
+        BufferedImage image;
+        ByteBuffer data;
+
+        Item(Path input) {
+            this.input = input;
+        }
+    }
+
+    private static final Item END = new Item(null);
+
+    VQOptions options = VQOptions.DEFAULT;
+    VQCodebookLibrary library = VQCodebookLibrary.defaultLibrary();
+    boolean decode;
+    VQImageWriter.Format outputFormat = VQImageWriter.Format.PNG;
+    VQImageWriter imageWriter = new VQImageWriter();
+    boolean warmStart;
+    int readers = 2;
+    int workers = 2;
+    int queueSize = 8;
+    Path metricsFile;
+    VQMetricsJmx jmx;
+
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger written = new AtomicInteger();
+
+    // Process all inputs; returns the number of files that failed
+    public int run(List<Path> inputs, Path outputDir) throws InterruptedException, IOException {
+        Files.createDirectories(outputDir);
+        if (inputs.isEmpty()) {
+            return 0;
+        }
+        VQCodec codec = new VQCodec(options, VQExecutor.shared(), library);
+        BlockingQueue<Path> pending = new ArrayBlockingQueue<>(inputs.size() + readers);
+        BlockingQueue<Item> decoded = new ArrayBlockingQueue<>(queueSize);
+        BlockingQueue<Item> encoded = new ArrayBlockingQueue<>(queueSize);
+        pending.addAll(inputs);
+        BufferedWriter metricsOut = metricsFile == null ? null : Files.newBufferedWriter(metricsFile,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+
+        List<Thread> readerThreads = new ArrayList<>();
+        for (int i = 0; i < readers; i++) {
+            readerThreads.add(start("vq-reader-" + i, () -> {
+                Path p = null;
+                try {
+                    while ((p = pending.poll()) != null) {
+                        Item item = new Item(p);
+                        try {
+                            if (decode) {
+                                item.data = ByteBuffer.wrap(Files.readAllBytes(p));
+                            } else {
+                                try (InputStream in = Files.newInputStream(p)) {
+                                    item.image = VQCodec.readImage(in);
+                                }
+                            }
+                            decoded.put(item);
+                        } catch (IOException | RuntimeException e) {
+                            fail(p, e);
+                        }
+                    }
+                } catch (Error e) {
+                    // The other readers carry on with the remaining files
+                    fail(p, e);
+                    throw e;
+                }
+            }));
+        }
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < workers; i++) {
+            workerThreads.add(start("vq-worker-" + i, () -> {
+                Item item = null;
+                byte[] previous = null;
+                try {
+                    while ((item = decoded.take()) != END) {
+                        try {
+                            VQMetrics metrics = null;
+                            if (metricsOut != null || jmx != null) {
+                                metrics = jmx != null ? new VQMetrics(jmx) : new VQMetrics();
+                            }
+                            if (decode) {
+                                item.image = codec.decode(item.data, null, metrics);
+                                item.data = null;
+                            } else {
+                                VQCodec encoder = previous == null ? codec
+                                        : new VQCodec(options.withWarmStart(previous), VQExecutor.shared(), library);
+                                item.data = encoder.encode(item.image, null, metrics);
+                                item.image = null;
+                                if (warmStart) {
+                                    previous = VQContainer.readHeader(item.data.duplicate(), library).codeBook;
+                                }
+                            }
+                            if (metricsOut != null) {
+                                writeMetrics(metricsOut, item.input, metrics);
+                            }
+                            encoded.put(item);
+                        } catch (IOException | RuntimeException e) {
+                            fail(item.input, e);
+                        }
+                    }
+                } catch (Error e) {
+                    drain(decoded, item, e);
+                    throw e;
+                }
+            }));
+        }
+        Thread writer = start("vq-writer", () -> {
+            Item item = null;
+            try {
+                while ((item = encoded.take()) != END) {
+                    try {
+                        write(item, outputDir);
+                        written.incrementAndGet();
+                    } catch (IOException | RuntimeException e) {
+                        fail(item.input, e);
+                    }
+                }
+            } catch (Error e) {
+                drain(encoded, item, e);
+                throw e;
+            }
+        });
+
+        for (Thread t : readerThreads) t.join();
+        for (Path p : pending) {
+            // Left over only if every reader died
+            fail(p, new IOException("Not read"));
+        }
+        for (int i = 0; i < workers; i++) decoded.put(END);
+        for (Thread t : workerThreads) t.join();
+        encoded.put(END);
+        writer.join();
+        if (metricsOut != null) {
+            metricsOut.close();
+        }
+        return failures.get();
+    }
+
+    private void write(Item item, Path outputDir) throws IOException {
+        String name = item.input.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        if (decode) {
+            String extension = outputFormat == VQImageWriter.Format.PPM ? ".ppm"
+                    : outputFormat == VQImageWriter.Format.RAW ? ".rgb"
+                    : outputFormat == VQImageWriter.Format.JPEG ? ".jpg" : ".png";
+            imageWriter.write(item.image, outputFormat, outputDir.resolve(base + extension));
+            return;
+        }
+        Path out = outputDir.resolve(base + ".vqc");
+        try (FileChannel ch = FileChannel.open(out, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (item.data.hasRemaining()) {
+                ch.write(item.data);
+            }
+        }
+    }
+
+    // {"file": "...", <VQMetrics.toJson() fields>}
+    private static void writeMetrics(BufferedWriter out, Path input, VQMetrics metrics) throws IOException {
+        String file = input.toString().replace("\\", "\\\\").replace("\"", "\\\"");
+        String line = "{\"file\":\"" + file + "\"," + metrics.toJson().substring(1);
+        synchronized (out) {
+            out.write(line);
+            out.newLine();
+            out.flush();
+        }
+    }
+
+    // A stage that died on an Error keeps taking items until its END marker, failing each, so
+    // the stages before it never block on a full queue and the batch still finishes
+    private void drain(BlockingQueue<Item> queue, Item current, Error e) throws InterruptedException {
+        for (Item item = current; item != END; item = queue.take()) {
+            if (item != null) {
+                fail(item.input, e);
+            }
+        }
+    }
+
+    private void fail(Path input, Throwable e) {
+        failures.incrementAndGet();
+        System.err.println("Failed: " + input + ": " + e);
+    }
+
+    private interface Stage {
+        void run() throws InterruptedException;
+    }
+
+    private static Thread start(String name, Stage stage) {
+        Thread t = new Thread(() -> {
+            try {
+                stage.run();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }, name);
+        t.start();
+        return t;
+    }
+
+    // Inputs from a directory (all regular files, sorted) or from an @manifest file
+    static List<Path> listInputs(String source) throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        if (source.startsWith("@")) {
+            for (String line : Files.readAllLines(Paths.get(source.substring(1)))) {
+                line = line.trim();
+                if (!line.isEmpty() && !line.startsWith("#")) {
+                    inputs.add(Paths.get(line));
+                }
+            }
+            return inputs;
+        }
+        try (DirectoryStream<Path> dir = Files.newDirectoryStream(Paths.get(source))) {
+            for (Path p : dir) {
+                if (Files.isRegularFile(p)) inputs.add(p);
+            }
+        }
+        inputs.sort(null);
+        return inputs;
+    }
+
+    public static void main(String[] args) throws Exception {
+        VQBatch batch = new VQBatch();
+        List<String> positional = new ArrayList<>();
+        String shared = null;
+        int quadtree = 0;
+        double psnr = 32;
+        double bpp = 0;
+        long trainMillis = 0;
+        int trainIterations = 0;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--tile": batch.options = batch.options.withTileSize(Integer.parseInt(args[++i])); break;
+                case "--codebook": batch.options = batch.options.withCodeBookSize(Integer.parseInt(args[++i])); break;
+                case "--coding": batch.options = batch.options.withIndexCoding(Integer.parseInt(args[++i])); break;
+                case "--stages": batch.options = batch.options.withStages(Integer.parseInt(args[++i])); break;
+                case "--tree": batch.options = batch.options.withTreeStructured(true); break;
+                case "--ycbcr": batch.options = batch.options.withColorSpace(VQContainer.COLOR_YCBCR_420); break;
+                case "--quadtree": quadtree = Integer.parseInt(args[++i]); break;
+                case "--psnr": psnr = Double.parseDouble(args[++i]); break;
+                case "--bpp": bpp = Double.parseDouble(args[++i]); break;
+                case "--chroma": batch.options = batch.options.withChromaCodeBookSize(Integer.parseInt(args[++i])); break;
+                case "--sample": batch.options = batch.options.withTrainingSample(Integer.parseInt(args[++i])); break;
+                case "--batch": batch.options = batch.options.withTrainingBatch(Integer.parseInt(args[++i])); break;
+                case "--train-ms": trainMillis = Long.parseLong(args[++i]); break;
+                case "--train-iterations": trainIterations = Integer.parseInt(args[++i]); break;
+                case "--warm-start": batch.warmStart = true; break;
+                case "--decode": batch.decode = true; break;
+                case "--format": batch.outputFormat = VQImageWriter.parseFormat(args[++i]); break;
+                case "--png-level": batch.imageWriter.pngLevel = VQImageWriter.checkPngLevel(Integer.parseInt(args[++i])); break;
+                case "--library": batch.library = new VQCodebookLibrary(Paths.get(args[++i]), 32); break;
+                case "--shared": shared = args[++i]; break;
+                case "--metrics": batch.metricsFile = Paths.get(args[++i]); break;
+                case "--jmx": batch.jmx = VQMetricsJmx.register(args[++i]); break;
+                case "--readers": batch.readers = Integer.parseInt(args[++i]); break;
+                case "--workers": batch.workers = Integer.parseInt(args[++i]); break;
+                case "--queue": batch.queueSize = Integer.parseInt(args[++i]); break;
+                default: positional.add(args[i]); break;
+            }
+        }
+        if (positional.size() != 2 || batch.outputFormat == VQImageWriter.Format.INDEXED_PNG) {
+            System.out.println("Usage: java vqcompress.VQBatch [--tile N] [--codebook N] [--coding N] [--stages N] [--tree]"
+                    + " [--ycbcr] [--chroma N] [--quadtree MIN [--psnr DB | --bpp BITS]]"
+                    + " [--sample N] [--batch N] [--train-ms MS] [--train-iterations N] [--warm-start] [--decode]"
+                    + " [--format png|ppm|raw|jpg] [--png-level N]"
+                    + " [--library DIR] [--shared ID] [--metrics FILE] [--jmx NAME]"
+                    + " [--readers N] [--workers N] [--queue N]"
+                    + " <input dir | @manifest> <output dir>");
+            System.exit(2);
+        }
+        if (trainMillis > 0 || trainIterations > 0) {
+            batch.options = batch.options.withTrainingBudget(trainMillis, trainIterations);
+        }
+        if (quadtree > 0) {
+            batch.options = batch.options.withQuadtree(quadtree, psnr).withTargetBitsPerPixel(bpp);
+        }
+        if (shared != null) {
+            batch.options = batch.options.withSharedCodebook(batch.library.load(shared));
+        }
+        int failed = batch.run(listInputs(positional.get(0)), Paths.get(positional.get(1)));
+        System.out.println("Batch finished: " + batch.written.get() + " written, " + failed + " failed.");
+        System.exit(failed == 0 ? 0 : 1);
+    }
+}
@@ -0,0 +1,236 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+// Directory of pretrained codebooks shared by many images. Each codebook is stored once as
+// <id>.vqcb; containers compressed against it carry only the id and hash (see VQContainer).
+// Loaded codebooks stay in an LRU cache keyed by id and hash, so decoding a batch that
+// references the same codebook reads and parses it once.
+//
+// .vqcb layout (big-endian): magic "VQCB" | version u8 | tileSize i32 | codeBookSize i32 |
+// channels i32 | hash i64 | codebook bytes
+public class VQCodebookLibrary {
+
+    static final byte[] MAGIC = {'V', 'Q', 'C', 'B'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 25;
+
+    // A shared codebook and the metadata containers use to refer to it
+    public static final class Codebook {
+        public final String id;
+        public final long hash;
+        final int tileSize;
+        final int codeBookSize;
+        final int channels;
+        final byte[] codeBook;
+
+        Codebook(String id, int tileSize, int codeBookSize, int channels, byte[] codeBook) {
+            this.id = id;
+            this.tileSize = tileSize;
+            this.codeBookSize = codeBookSize;
+            this.channels = channels;
+            this.codeBook = codeBook;
+            this.hash = hash(tileSize, channels, codeBook);
+        }
+    }
+
+    private static VQCodebookLibrary defaultLibrary;
+
+    private final Path directory;
+    private final Map<String, Codebook> cache;
+
+    public VQCodebookLibrary(Path directory, int cacheSize) {
+        this.directory = directory;
+        this.cache = new LinkedHashMap<String, Codebook>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Codebook> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    // Library in -Dvq.codebooks=DIR, or ./codebooks when unset
+    public static synchronized VQCodebookLibrary defaultLibrary() {
+        if (defaultLibrary == null) {
+            defaultLibrary = new VQCodebookLibrary(Paths.get(System.getProperty("vq.codebooks", "codebooks")), 32);
+        }
+        return defaultLibrary;
+    }
+
+    // FNV-1a over the geometry and codebook bytes
+    static long hash(int tileSize, int channels, byte[] codeBook) {
+        long h = 0xcbf29ce484222325L;
+        h = (h ^ tileSize) * 0x100000001b3L;
+        h = (h ^ channels) * 0x100000001b3L;
+        for (byte b : codeBook) {
+            h = (h ^ (b & 0xFF)) * 0x100000001b3L;
+        }
+        return h;
+    }
+
+    // Ids are plain file names, so a container cannot point outside the library directory
+    static boolean isValidId(String id) {
+        return !id.isEmpty() && id.length() <= 255 && id.matches("[A-Za-z0-9._-]+");
+    }
+
+    private Path file(String id) {
+        if (!isValidId(id)) {
+            throw new IllegalArgumentException("Invalid codebook id: " + id);
+        }
+        return directory.resolve(id + ".vqcb");
+    }
+
+    private static String key(String id, long hash) {
+        return id + '@' + Long.toHexString(hash);
+    }
+
+    // Cached codebook for id; the stored hash must match the one the container expects
+    public Codebook get(String id, long hash) throws IOException {
+        String key = key(id, hash);
+        synchronized (cache) {
+            Codebook cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        Codebook loaded = load(id);
+        if (loaded.hash != hash) {
+            throw new IOException("Codebook " + id + " has changed (hash " + Long.toHexString(loaded.hash)
+                    + ", expected " + Long.toHexString(hash) + ")");
+        }
+        synchronized (cache) {
+            cache.put(key, loaded);
+        }
+        return loaded;
+    }
+
+    public Codebook load(String id) throws IOException {
+        try (FileChannel ch = FileChannel.open(file(id), StandardOpenOption.READ)) {
+            if (ch.size() < HEADER_SIZE) {
+                throw new IOException("Truncated codebook file: " + id);
+            }
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            for (byte m : MAGIC) {
+                if (buf.get() != m) throw new IOException("Not a codebook file: " + id);
+            }
+            int version = buf.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported codebook version " + version);
+            }
+            int tileSize = buf.getInt();
+            int size = buf.getInt();
+            int channels = buf.getInt();
+            long storedHash = buf.getLong();
+            if (tileSize <= 0 || tileSize > VQContainer.MAX_TILE_SIZE || size <= 0
+                    || size > VQHuffmanCoder.MAX_CODEBOOK_SIZE || channels <= 0 || channels > 4) {
+                throw new IOException("Codebook " + id + " is corrupt");
+            }
+            if ((long) size * tileSize * tileSize * channels != buf.remaining()) {
+                throw new IOException("Truncated codebook file: " + id);
+            }
+            byte[] codeBook = new byte[size * tileSize * tileSize * channels];
+            buf.get(codeBook);
+            Codebook c = new Codebook(id, tileSize, size, channels, codeBook);
+            if (c.hash != storedHash) {
+                throw new IOException("Codebook " + id + " is corrupt");
+            }
+            return c;
+        }
+    }
+
+    public Codebook save(String id, int tileSize, int channels, byte[] codeBook) throws IOException {
+        Codebook c = new Codebook(id, tileSize, codeBook.length / (tileSize * tileSize * channels), channels, codeBook);
+        Files.createDirectories(directory);
+        ByteBuffer buf = ByteBuffer.allocate(MAGIC.length + 1 + 12 + 8 + codeBook.length);
+        buf.put(MAGIC).put((byte) VERSION).putInt(tileSize).putInt(c.codeBookSize).putInt(channels);
+        buf.putLong(c.hash).put(codeBook).flip();
+        try (FileChannel ch = FileChannel.open(file(id), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+        synchronized (cache) {
+            cache.put(key(id, c.hash), c);
+        }
+        return c;
+    }
+
+    // Train one codebook over a corpus of images and store it under id. Tiles are
+    // reservoir-sampled across the whole corpus, so memory is bounded by sampleSize.
+    public Codebook train(String id, List<Path> corpus, int tileSize, int codeBookSize, int sampleSize)
+            throws IOException {
+        if (sampleSize <= 0) {
+            throw new IllegalArgumentException("sampleSize must be positive: " + sampleSize);
+        }
+        if (corpus.isEmpty()) {
+            throw new IllegalArgumentException("No images to train codebook " + id + " on");
+        }
+        int dim = tileSize * tileSize * 3;
+        VQExecutor executor = VQExecutor.shared();
+        VQTileStore sample = new VQTileStore(sampleSize, dim, VQTileStore.Backing.HEAP);
+        Random random = new Random(1);
+        byte[] scratch = new byte[dim];
+        long seen = 0;
+        for (Path p : corpus) {
+            BufferedImage image;
+            try (InputStream in = Files.newInputStream(p)) {
+                image = VQCodec.readImage(in);
+            }
+            int across = image.getWidth() / tileSize;
+            int rows = image.getHeight() / tileSize;
+            VQTileStore tiles = new VQTileStore(across * rows, dim, VQTileStore.Backing.HEAP);
+            tiles.readTiles(image, tileSize, 0, across, rows, executor);
+            for (int t = 0; t < tiles.count; t++, seen++) {
+                long slot = seen < sampleSize ? seen : (long) (random.nextDouble() * (seen + 1));
+                if (slot < sampleSize) {
+                    tiles.copyTile(t, scratch, 0);
+                    sample.putTile((int) slot, scratch, 0);
+                }
+            }
+        }
+        if (seen == 0) {
+            throw new IllegalArgumentException("No image is at least one " + tileSize + "x" + tileSize + " tile");
+        }
+        if (seen < sampleSize) {
+            VQTileStore trimmed = new VQTileStore((int) seen, dim, VQTileStore.Backing.HEAP);
+            for (int t = 0; t < seen; t++) {
+                sample.copyTile(t, scratch, 0);
+                trimmed.putTile(t, scratch, 0);
+            }
+            sample = trimmed;
+        }
+        byte[] codeBook = new VQCodebookTrainer().train(sample, codeBookSize);
+        return save(id, tileSize, 3, codeBook);
+    }
+
+    // Usage: java vqcompress.VQCodebookLibrary <library dir> <id> <tileSize> <codeBookSize>
+    //        <input dir | @manifest> [sampleSize]
+    public static void main(String[] args) throws IOException {
+        VQLog.console();
+        if (args.length < 5) {
+            System.out.println("Usage: java vqcompress.VQCodebookLibrary <library dir> <id> <tileSize>"
+                    + " <codeBookSize> <input dir | @manifest> [sampleSize]");
+            return;
+        }
+        VQCodebookLibrary library = new VQCodebookLibrary(Paths.get(args[0]), 1);
+        int sampleSize = args.length > 5 ? Integer.parseInt(args[5]) : 1 << 18;
+        Codebook c = library.train(args[1], VQBatch.listInputs(args[4]),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]), sampleSize);
+        System.out.println("Stored codebook " + c.id + " (" + c.codeBookSize + " x " + c.tileSize + "x"
+                + c.tileSize + ", hash " + Long.toHexString(c.hash) + ") in " + args[0]);
+    }
+}
@@ -0,0 +1,387 @@
+package vqcompress;
+
+import java.util.Arrays;
+import java.util.Random;
+
+// LBG codebook trainer: starts from the mean of all tiles, splits every codeword in two
+// until the requested size is reached, and refines each size with Lloyd iterations.
+//
+// For predictable training time on large images:
+//   sampleSize       train on a stratified sample: one random tile from each of sampleSize
+//                    equal runs of tiles, so every part of the image is represented
+//   batchSize        mini-batch k-means: each iteration assigns only batchSize tiles (taken
+//                    from a shuffled order) and moves their codewords towards the batch mean
+//                    by batch count / tiles seen so far, instead of a full Lloyd pass
+//   timeBudgetMillis, iterationBudget
+//                    stop refining when either runs out (checked between iterations, so a pass
+//                    in progress finishes); the codebook is still split to full size and is the
+//                    one after the last completed update (for Lloyd passes the lowest distortion
+//                    so far, since a pass never increases it)
+//   initialCodeBook  warm start from these codewords (e.g. the previous frame's) instead of
+//                    the mean; a matching codebook usually converges in one or two passes
+public class VQCodebookTrainer {
+
+    // Training settings
+    int maxIterations = 20;              // Lloyd iterations per codebook size
+    double convergenceThreshold = 0.001; // stop when distortion drops by less than this fraction
+    int splitOffset = 2;                 // +/- perturbation applied to each value when splitting a codeword
+    VQExecutor executor = VQExecutor.shared();
+    VQExecutor.Job job;
+    VQMetrics metrics;                   // receives the distortion of every iteration when set
+    int sampleSize;                      // tiles to train on; 0 = all
+    int batchSize;                       // tiles per mini-batch iteration; 0 = full Lloyd passes
+    long timeBudgetMillis;               // 0 = no limit
+    int iterationBudget;                 // iterations over all codebook sizes; 0 = no limit
+    byte[] initialCodeBook;              // leading codewords used as the starting codebook, or null
+    long seed = 1;                       // sampling and batch order, fixed so output is reproducible
+
+    private VQTileStore tiles;
+    private int dim;
+    private byte[] codeBook;     // [codeword * dim + j]
+    private VQSearch search;
+
+    // Per-worker accumulators, allocated once per training run and reused by every iteration
+    private long[][] sums;        // [worker][codeword * dim + j]
+    private int[][] counts;       // [worker][codeword]
+    private long[] distortion;    // [worker]
+    private long[] farthestDistance; // [worker] largest tile-to-codeword distance seen
+    private int[] farthestTile;     // [worker] index of that tile
+    private byte[][] scratch;       // [worker] tile copy for off-heap stores
+
+    // Mini-batch state: tile order, next position in it, exact codeword positions and the
+    // number of tiles each codeword has absorbed at the current size
+    private int[] order;
+    private int next;
+    private double[] centers;
+    private long[] seen;
+
+    // Budget state for one training run
+    private long deadline;
+    private int iterations;
+    private boolean outOfBudget;
+    private boolean exempt;          // set while computing the initial mean, which always runs
+
+    // Train a flat codebook of codeBookSize vectors over the tiles in the store
+    public byte[] train(VQTileStore tiles, int codeBookSize) {
+        this.dim = tiles.dim;
+        if (initialCodeBook != null && initialCodeBook.length % dim != 0) {
+            throw new IllegalArgumentException("Initial codebook does not hold whole " + dim + "-byte codewords");
+        }
+        codeBook = new byte[codeBookSize * dim];
+        if (tiles.count == 0) {
+            return codeBook;
+        }
+        step(0, codeBookSize);
+        if (sampleSize > 0 && sampleSize < tiles.count) {
+            tiles = sample(tiles, sampleSize, seed, executor, job);
+        }
+        this.tiles = tiles;
+
+        int w = Math.max(1, Math.min(executor.parallelism(), tiles.count));
+        sums = new long[w][codeBookSize * dim];
+        counts = new int[w][codeBookSize];
+        distortion = new long[w];
+        farthestDistance = new long[w];
+        farthestTile = new int[w];
+        scratch = new byte[w][dim];
+        search = new VQSearch(codeBook, dim, VQSearch.Mode.SORTED);
+        if (batchSize > 0) {
+            order = new int[tiles.count];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            shuffle(order, new Random(seed));
+            next = 0;
+            centers = new double[codeBookSize * dim];
+            seen = new long[codeBookSize];
+        }
+        deadline = timeBudgetMillis > 0 ? System.nanoTime() + timeBudgetMillis * 1_000_000 : Long.MAX_VALUE;
+        iterations = 0;
+        outOfBudget = false;
+
+        int size;
+        if (initialCodeBook != null && initialCodeBook.length > 0) {
+            // Warm start: refine the given codewords at their own size, then grow as usual
+            size = Math.min(codeBookSize, initialCodeBook.length / dim);
+            System.arraycopy(initialCodeBook, 0, codeBook, 0, size * dim);
+            runIterations(size, size < codeBookSize ? intermediateIterations() : maxIterations);
+            step(size, codeBookSize);
+        } else {
+            // Size 1: the single codeword is the mean of all tiles (always computed)
+            size = 1;
+            exempt = true;
+            runIterations(size, 1);
+            exempt = false;
+        }
+        while (size < codeBookSize) {
+            int newSize = Math.min(size * 2, codeBookSize);
+            splitCodewords(size, newSize);
+            size = newSize;
+            runIterations(size, size < codeBookSize ? intermediateIterations() : maxIterations);
+            step(size, codeBookSize);
+        }
+        if (outOfBudget) {
+            VQLog.progress("Training budget reached after " + iterations + " iterations.");
+        }
+        VQLog.progress("Codebook trained with " + size + " vectors (distortion " + totalDistortion() + ").");
+        this.tiles = null;
+        order = null;
+        centers = null;
+        seen = null;
+        return codeBook;
+    }
+
+    // Progress by codebook size, which roughly tracks time as each pass costs about the size
+    private void step(int size, int codeBookSize) {
+        if (job != null) {
+            job.step(size, codeBookSize);
+        }
+    }
+
+    // One tile from each of count equal runs of the store, at a random position in the run
+    static VQTileStore sample(VQTileStore all, int count, long seed, VQExecutor executor, VQExecutor.Job job) {
+        Random random = new Random(seed);
+        int[] picks = new int[count];
+        for (int s = 0; s < count; s++) {
+            long from = (long) s * all.count / count;
+            long to = (long) (s + 1) * all.count / count;
+            picks[s] = (int) (from + random.nextInt((int) (to - from)));
+        }
+        VQTileStore sample = new VQTileStore(count, all.dim, VQTileStore.Backing.HEAP);
+        executor.parallelFor(count, 0, (from, to) -> {
+            byte[] tile = new byte[all.dim];
+            for (int s = from; s < to; s++) {
+                all.copyTile(picks[s], tile, 0);
+                sample.putTile(s, tile, 0);
+            }
+        }, job);
+        VQLog.progress("Training on " + count + " of " + all.count + " tiles.");
+        return sample;
+    }
+
+    private static void shuffle(int[] a, Random random) {
+        for (int i = a.length - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            int t = a[i]; a[i] = a[j]; a[j] = t;
+        }
+    }
+
+    // Under a budget, Lloyd passes at the sizes before the last are limited to two, so most of
+    // the budget goes to the final codebook instead of refining ones that are split anyway
+    private int intermediateIterations() {
+        boolean budgeted = timeBudgetMillis > 0 || iterationBudget > 0;
+        return budgeted && batchSize == 0 ? Math.min(2, maxIterations) : maxIterations;
+    }
+
+    // Count an iteration against the budgets; false once either is used up
+    private boolean startIteration() {
+        if (outOfBudget || (!exempt && ((iterationBudget > 0 && iterations >= iterationBudget)
+                || System.nanoTime() >= deadline))) {
+            outOfBudget = true;
+            return false;
+        }
+        iterations++;
+        return true;
+    }
+
+    // Split codeword i into (i + offset, i - offset) for i in [0, newSize - size)
+    private void splitCodewords(int size, int newSize) {
+        for (int i = size; i < newSize; i++) {
+            int src = (i - size) * dim;
+            int dst = i * dim;
+            for (int j = 0; j < dim; j++) {
+                int v = codeBook[src + j] & 0xFF;
+                codeBook[dst + j] = (byte) Math.min(255, v + splitOffset);
+                codeBook[src + j] = (byte) Math.max(0, v - splitOffset);
+            }
+        }
+    }
+
+    // Lloyd refinement at a fixed codebook size until converged or out of iterations
+    private void runIterations(int size, int iterations) {
+        if (batchSize > 0) {
+            runBatches(size, iterations);
+            return;
+        }
+        long previous = Long.MAX_VALUE;
+        for (int it = 0; it < iterations && startIteration(); it++) {
+            assignAndAccumulate(size);
+            long current = totalDistortion();
+            if (metrics != null) {
+                metrics.trainingIteration(size, it, current / ((double) tiles.count * dim));
+            }
+            updateCentroids(size);
+            if (previous != Long.MAX_VALUE && previous - current <= convergenceThreshold * previous) {
+                break;
+            }
+            previous = current;
+        }
+    }
+
+    // Mini-batch k-means at a fixed codebook size. The batch distortion is noisy, so it is
+    // smoothed, and the size is done when the smoothed value has not improved for 3 batches.
+    private void runBatches(int size, int batches) {
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < dim; j++) centers[i * dim + j] = codeBook[i * dim + j] & 0xFF;
+        }
+        Arrays.fill(seen, 0, size, 0L);
+        int batch = Math.min(batchSize, tiles.count);
+        double smoothed = -1;
+        double best = Double.MAX_VALUE;
+        int stale = 0;
+        int it = 0;
+        for (; it < batches && startIteration(); it++) {
+            if (next + batch > order.length) {
+                next = 0;
+            }
+            int start = next;
+            next += batch;
+            assignAndAccumulate(size, start, batch);
+            double current = totalDistortion() / ((double) batch * dim);
+            if (metrics != null) {
+                metrics.trainingIteration(size, it, current);
+            }
+            updateCentersFromBatch(size);
+            smoothed = smoothed < 0 ? current : 0.7 * smoothed + 0.3 * current;
+            if (smoothed < best * (1 - convergenceThreshold)) {
+                best = smoothed;
+                stale = 0;
+            } else if (++stale >= 3) {
+                it++;
+                break;
+            }
+        }
+        // Codewords that no batch reached take over badly represented tiles, as in a Lloyd pass
+        for (int i = 0; i < size && it > 0; i++) {
+            if (seen[i] == 0) {
+                repairEmptyCluster(i, size);
+            }
+        }
+    }
+
+    // Move each codeword that received tiles towards their mean by count / seen (per-codeword
+    // learning rate of mini-batch k-means)
+    private void updateCentersFromBatch(int size) {
+        long[] sum = sums[0];
+        int[] count = counts[0];
+        for (int t = 1; t < sums.length; t++) {
+            for (int k = 0; k < size * dim; k++) sum[k] += sums[t][k];
+            for (int k = 0; k < size; k++) count[k] += counts[t][k];
+        }
+        for (int i = 0; i < size; i++) {
+            int n = count[i];
+            if (n == 0) {
+                continue;
+            }
+            seen[i] += n;
+            int base = i * dim;
+            for (int j = 0; j < dim; j++) {
+                double c = centers[base + j] + (sum[base + j] - n * centers[base + j]) / seen[i];
+                centers[base + j] = c;
+                codeBook[base + j] = (byte) Math.round(c);
+            }
+        }
+    }
+
+    // Parallel pass: each worker assigns a contiguous range of tiles and accumulates into its own arrays
+    private void assignAndAccumulate(int size) {
+        assignAndAccumulate(size, 0, tiles.count);
+    }
+
+    // Same over positions [start, start + length) of the mini-batch order (or of the store when there is none)
+    private void assignAndAccumulate(int size, int start, int length) {
+        search.update(codeBook, size);
+        int w = sums.length;
+        int chunk = (length + w - 1) / w;
+        executor.parallelFor(w, 1, (first, last) -> {
+            for (int worker = first; worker < last; worker++) {
+                int from = Math.min(length, worker * chunk);
+                accumulateRange(worker, start + from, start + Math.min(length, from + chunk), size);
+            }
+        }, job);
+    }
+
+    private void accumulateRange(int worker, int from, int to, int size) {
+        long[] sum = sums[worker];
+        int[] count = counts[worker];
+        Arrays.fill(sum, 0, size * dim, 0L);
+        Arrays.fill(count, 0, size, 0);
+        long dist = 0;
+        long farDist = -1;
+        int farTile = -1;
+        for (int p = from; p < to; p++) {
+            int n = order != null ? order[p] : p;
+            byte[] tile = tiles.view(n, scratch[worker]);
+            int off = tiles.viewOffset(n);
+            int best = search.findClosest(tile, off);
+            int base = best * dim;
+            long bestDistance = 0;
+            for (int j = 0; j < dim; j++) {
+                int v = tile[off + j] & 0xFF;
+                int diff = v - (codeBook[base + j] & 0xFF);
+                bestDistance += diff * diff;
+                sum[base + j] += v;
+            }
+            count[best]++;
+            dist += bestDistance;
+            if (bestDistance > farDist) {
+                farDist = bestDistance;
+                farTile = n;
+            }
+        }
+        distortion[worker] = dist;
+        farthestDistance[worker] = farDist;
+        farthestTile[worker] = farTile;
+    }
+
+    // Merge the per-worker accumulators into worker 0 and move each codeword to its centroid
+    private void updateCentroids(int size) {
+        long[] sum = sums[0];
+        int[] count = counts[0];
+        for (int t = 1; t < sums.length; t++) {
+            long[] s = sums[t];
+            int[] c = counts[t];
+            for (int k = 0; k < size * dim; k++) sum[k] += s[k];
+            for (int k = 0; k < size; k++) count[k] += c[k];
+        }
+        for (int i = 0; i < size; i++) {
+            int n = count[i];
+            if (n == 0) {
+                repairEmptyCluster(i, size);
+                continue;
+            }
+            int base = i * dim;
+            for (int j = 0; j < dim; j++) {
+                codeBook[base + j] = (byte) ((sum[base + j] + n / 2) / n);
+            }
+        }
+    }
+
+    // An empty codeword is moved onto the worst-represented tile; once those run out it
+    // becomes a perturbed copy of the most populated codeword so the next pass splits that cluster
+    private void repairEmptyCluster(int empty, int size) {
+        int worker = -1;
+        for (int t = 0; t < farthestDistance.length; t++) {
+            if (farthestDistance[t] > 0 && (worker < 0 || farthestDistance[t] > farthestDistance[worker])) {
+                worker = t;
+            }
+        }
+        if (worker >= 0) {
+            tiles.copyTile(farthestTile[worker], codeBook, empty * dim);
+            farthestDistance[worker] = -1;
+            return;
+        }
+        int[] count = counts[0];
+        int largest = 0;
+        for (int i = 1; i < size; i++) {
+            if (count[i] > count[largest]) largest = i;
+        }
+        for (int j = 0; j < dim; j++) {
+            codeBook[empty * dim + j] = (byte) Math.min(255, (codeBook[largest * dim + j] & 0xFF) + splitOffset);
+        }
+    }
+
+    private long totalDistortion() {
+        long total = 0;
+        for (long d : distortion) total += d;
+        return total;
+    }
+}
@@ -0,0 +1,150 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import javax.imageio.ImageIO;
+
+// Library entry point: encode images to VQ containers and decode them back, over streams or
+// byte buffers, without touching fixed files. A codec holds only immutable settings, so one
+// instance can serve many threads.
+public class VQCodec {
+
+    // Progressive preview during quantization, called from worker threads after each tile row
+    // with the partly reconstructed image (shared and still being written) and the tiles done
+    public interface PreviewListener {
+        void preview(BufferedImage image, int completed, int total);
+    }
+
+    private final VQOptions options;
+    private final VQExecutor executor;
+    private final VQCodebookLibrary library;
+
+    public VQCodec(VQOptions options) {
+        this(options, VQExecutor.shared());
+    }
+
+    public VQCodec(VQOptions options, VQExecutor executor) {
+        this(options, executor, VQCodebookLibrary.defaultLibrary());
+    }
+
+    // library resolves shared codebooks referenced by the containers being decoded
+    public VQCodec(VQOptions options, VQExecutor executor, VQCodebookLibrary library) {
+        this.options = options;
+        this.executor = executor;
+        this.library = library;
+    }
+
+    public VQOptions options() {
+        return options;
+    }
+
+    public ByteBuffer encode(BufferedImage image) throws IOException {
+        return encode(image, (VQExecutor.Job) null);
+    }
+
+    // job (may be null) receives progress and can cancel the training and quantization passes
+    public ByteBuffer encode(BufferedImage image, VQExecutor.Job job) throws IOException {
+        return encode(image, job, null);
+    }
+
+    // metrics (may be null) collects stage timings, training distortion, sizes and PSNR/SSIM
+    public ByteBuffer encode(BufferedImage image, VQExecutor.Job job, VQMetrics metrics) throws IOException {
+        return encode(image, job, metrics, null);
+    }
+
+    // preview (may be null) receives the image as its tiles are quantized
+    public ByteBuffer encode(BufferedImage image, VQExecutor.Job job, VQMetrics metrics, PreviewListener preview)
+            throws IOException {
+        vectorQuantizationCompress compressor = new vectorQuantizationCompress();
+        compressor.tileSize = options.tileSize();
+        compressor.codeBookSize = options.codeBookSize();
+        compressor.indexCoding = options.indexCoding();
+        compressor.searchMode = options.searchMode();
+        compressor.sharedCodebook = options.sharedCodebook();
+        compressor.restartRows = options.restartRows();
+        compressor.stages = options.stages();
+        compressor.treeStructured = options.treeStructured();
+        compressor.colorSpace = options.colorSpace();
+        compressor.chromaCodeBookSize = options.chromaCodeBookSize();
+        compressor.minTileSize = options.minTileSize();
+        compressor.targetPsnr = options.targetPsnr();
+        compressor.targetBitsPerPixel = options.targetBitsPerPixel();
+        compressor.trainingSample = options.trainingSample();
+        compressor.trainingBatch = options.trainingBatch();
+        compressor.trainingMillis = options.trainingMillis();
+        compressor.trainingIterations = options.trainingIterations();
+        compressor.warmStart = options.warmStart();
+        compressor.executor = executor;
+        compressor.job = job;
+        compressor.metrics = metrics;
+        compressor.preview = preview;
+        stage(job, "Loading");
+        compressor.loadImage(image);
+        stage(job, "Training");
+        compressor.initializeCodebook();
+        stage(job, "Quantizing");
+        compressor.quantizeImage();
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        ByteBuffer encoded = compressor.toContainer().toByteBuffer();
+        if (metrics != null) {
+            metrics.stage("writeContainer", wall, cpu, (long) compressor.tilesPerRow * compressor.tilesPerColumn);
+            metrics.sizes(-1, encoded.remaining());
+        }
+        return encoded;
+    }
+
+    public void encode(BufferedImage image, OutputStream out) throws IOException {
+        Channels.newChannel(out).write(encode(image));
+    }
+
+    // Decode any ImageIO-readable image from in and write its container to out
+    public void encode(InputStream in, OutputStream out) throws IOException {
+        encode(readImage(in), out);
+    }
+
+    public BufferedImage decode(ByteBuffer container) throws IOException {
+        return decode(container, (VQExecutor.Job) null);
+    }
+
+    public BufferedImage decode(ByteBuffer container, VQExecutor.Job job) throws IOException {
+        return decode(container, job, null);
+    }
+
+    public BufferedImage decode(ByteBuffer container, VQExecutor.Job job, VQMetrics metrics) throws IOException {
+        vectorQuantizationDecompress decompressor = new vectorQuantizationDecompress();
+        decompressor.executor = executor;
+        decompressor.job = job;
+        decompressor.metrics = metrics;
+        stage(job, "Decoding");
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        int size = container.remaining();
+        VQContainer parsed = VQContainer.read(container, library);
+        if (metrics != null) {
+            metrics.stage("readContainer", wall, cpu, (long) parsed.tilesPerRow() * parsed.tilesPerColumn());
+            metrics.sizes(-1, size);
+        }
+        return decompressor.decode(parsed);
+    }
+
+    public BufferedImage decode(InputStream in) throws IOException {
+        return decode(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    private static void stage(VQExecutor.Job job, String name) {
+        if (job != null) {
+            job.stage(name);
+        }
+    }
+
+    static BufferedImage readImage(InputStream in) throws IOException {
+        BufferedImage image = ImageIO.read(in);
+        if (image == null) {
+            throw new IOException("Unsupported image format");
+        }
+        return image;
+    }
+}
@@ -0,0 +1,120 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+
+// YCbCr 4:2:0 tiling for VQContainer.COLOR_YCBCR_420. Uses the full-range BT.601 transform
+// (as in JPEG) in 16-bit fixed point.
+//
+// Tiles are split into two stores:
+//   luma    one tile per image tile, tileSize*tileSize Y values ([i * tileSize + j])
+//   chroma  one tile per 2x2 image tiles, i.e. 2*tileSize pixels square, holding the
+//           Cb/Cr mean of every 2x2 pixel block interleaved ([(i * tileSize + j) * 2 + {0 Cb, 1 Cr}])
+// When the tile grid has an odd number of rows or columns, the last chroma tiles repeat the
+// edge pixels. The decoder upsamples chroma by pixel replication.
+final class VQColor {
+
+    private static final int SHIFT = 16;
+    private static final int HALF = 1 << (SHIFT - 1);
+
+    private VQColor() {
+    }
+
+    static int luma(int r, int g, int b) {
+        return (19595 * r + 38470 * g + 7471 * b + HALF) >> SHIFT;
+    }
+
+    static int cb(int r, int g, int b) {
+        return clamp(((-11059 * r - 21709 * g + 32768 * b + HALF) >> SHIFT) + 128);
+    }
+
+    static int cr(int r, int g, int b) {
+        return clamp(((32768 * r - 27439 * g - 5329 * b + HALF) >> SHIFT) + 128);
+    }
+
+    // Packed 0xRRGGBB of a Y/Cb/Cr triple
+    static int rgb(int y, int cb, int cr) {
+        cb -= 128;
+        cr -= 128;
+        int r = clamp(y + ((91881 * cr + HALF) >> SHIFT));
+        int g = clamp(y - ((22554 * cb + 46802 * cr + HALF) >> SHIFT));
+        int b = clamp(y + ((116130 * cb + HALF) >> SHIFT));
+        return (r << 16) | (g << 8) | b;
+    }
+
+    private static int clamp(int v) {
+        return v < 0 ? 0 : Math.min(255, v);
+    }
+
+    static int chromaRows(int tilesPerRow) {
+        return (tilesPerRow + 1) / 2;
+    }
+
+    static int chromaColumns(int tilesPerColumn) {
+        return (tilesPerColumn + 1) / 2;
+    }
+
+    // Fill luma (tileRows x tilesAcross tiles) and chroma (half as many each way, rounded up)
+    // from the top-left of image, one chroma tile row (two luma tile rows) per task
+    static void readTiles(BufferedImage image, int tileSize, int tilesAcross, int tileRows,
+                          VQTileStore luma, VQTileStore chroma, VQExecutor executor, VQExecutor.Job job) {
+        int width = tilesAcross * tileSize;
+        int height = tileRows * tileSize;
+        int chromaAcross = chromaColumns(tilesAcross);
+        int area = tileSize * tileSize;
+        executor.parallelFor(chromaRows(tileRows), 1, (fromRow, toRow) -> {
+            byte[][] rgb = new byte[2 * tileSize][width * 3];
+            int[] argb = new int[width];
+            byte[] lumaTile = new byte[area];
+            byte[] chromaTile = new byte[2 * area];
+            for (int chromaRow = fromRow; chromaRow < toRow; chromaRow++) {
+                int y0 = chromaRow * 2 * tileSize;
+                for (int i = 0; i < 2 * tileSize; i++) {
+                    VQTileStore.readRgbRow(image, Math.min(height - 1, y0 + i), width, rgb[i], argb);
+                }
+                for (int half = 0; half < 2 && 2 * chromaRow + half < tileRows; half++) {
+                    int row = 2 * chromaRow + half;
+                    for (int col = 0; col < tilesAcross; col++) {
+                        for (int i = 0; i < tileSize; i++) {
+                            byte[] line = rgb[half * tileSize + i];
+                            for (int j = 0, o = col * tileSize * 3; j < tileSize; j++, o += 3) {
+                                lumaTile[i * tileSize + j] = (byte) luma(line[o] & 0xFF, line[o + 1] & 0xFF, line[o + 2] & 0xFF);
+                            }
+                        }
+                        luma.putTile(row * tilesAcross + col, lumaTile, 0);
+                    }
+                }
+                for (int cc = 0; cc < chromaAcross; cc++) {
+                    for (int i = 0; i < tileSize; i++) {
+                        byte[] top = rgb[2 * i];
+                        byte[] bottom = rgb[2 * i + 1];
+                        for (int j = 0; j < tileSize; j++) {
+                            int x0 = Math.min(width - 1, (cc * tileSize + j) * 2) * 3;
+                            int x1 = Math.min(width - 1, (cc * tileSize + j) * 2 + 1) * 3;
+                            int r = (top[x0] & 0xFF) + (top[x1] & 0xFF) + (bottom[x0] & 0xFF) + (bottom[x1] & 0xFF);
+                            int g = (top[x0 + 1] & 0xFF) + (top[x1 + 1] & 0xFF) + (bottom[x0 + 1] & 0xFF) + (bottom[x1 + 1] & 0xFF);
+                            int b = (top[x0 + 2] & 0xFF) + (top[x1 + 2] & 0xFF) + (bottom[x0 + 2] & 0xFF) + (bottom[x1 + 2] & 0xFF);
+                            int o = (i * tileSize + j) * 2;
+                            chromaTile[o] = (byte) cb((r + 2) >> 2, (g + 2) >> 2, (b + 2) >> 2);
+                            chromaTile[o + 1] = (byte) cr((r + 2) >> 2, (g + 2) >> 2, (b + 2) >> 2);
+                        }
+                    }
+                    chroma.putTile(chromaRow * chromaAcross + cc, chromaTile, 0);
+                }
+            }
+        }, job);
+    }
+
+    // Pixel (x, y) of the tiled area as 0xRRGGBB. codeBook holds the luma codebook
+    // (tileSize*tileSize bytes per codeword) followed by the chroma codebook at chromaOffset.
+    static int pixel(byte[] codeBook, int chromaOffset, int tileSize, int[][] lumaIndices, int[][] chromaIndices,
+                     int x, int y) {
+        int area = tileSize * tileSize;
+        int yv = codeBook[lumaIndices[y / tileSize][x / tileSize] * area
+                + (y % tileSize) * tileSize + x % tileSize] & 0xFF;
+        int cx = x >> 1;
+        int cy = y >> 1;
+        int c = chromaOffset + chromaIndices[cy / tileSize][cx / tileSize] * 2 * area
+                + ((cy % tileSize) * tileSize + cx % tileSize) * 2;
+        return rgb(yv, codeBook[c] & 0xFF, codeBook[c + 1] & 0xFF);
+    }
+}
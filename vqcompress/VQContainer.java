@@ -0,0 +1,681 @@
+package vqcompress;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Binary container for compressed images.
+//
+// Layout (big-endian):
+//   magic "VQCF" | version u8 | indexCoding u8 | flags u16
+//   imageWidth i32 | imageHeight i32 | tileSize i32 | codeBookSize i32 | channels i32
+//   stages u8, only with FLAG_RESIDUAL
+//   chromaCodeBookSize i32, only with FLAG_YCBCR_420
+//   levels u8, only with FLAG_QUADTREE
+//   codebook: stages * codeBookSize * tileSize * tileSize * channels bytes, or with
+//             FLAG_SHARED_CODEBOOK a reference into a VQCodebookLibrary: idLength u8 | id (UTF-8) | hash i64
+//   indices:  per stage, tilesPerRow * tilesPerColumn values, row-major, coded by the VQEntropyCoder
+//             selected by indexCoding (fixed-width bit packing, Huffman, or context Huffman)
+//
+// With FLAG_YCBCR_420 tiles are coded in YCbCr with subsampled chroma (see VQColor): the
+// codebook is codeBookSize luma codewords of tileSize * tileSize bytes followed by
+// chromaCodeBookSize Cb/Cr codewords of 2 * tileSize * tileSize bytes, and the luma indices
+// are followed by a second index area of ceil(tilesPerRow / 2) * ceil(tilesPerColumn / 2)
+// chroma indices. It cannot be combined with FLAG_RESIDUAL or FLAG_SHARED_CODEBOOK.
+//
+// With FLAG_QUADTREE (see VQQuadtree) tileSize is the block size and tiles of levels sizes
+// tileSize, tileSize / 2, ... are used. The image is padded to whole blocks rather than
+// cropped. The codebook holds one codebook per level, largest tiles first: codeBookSize
+// codewords for the smallest tiles and a quarter as many for each larger size (at least one).
+// The index data is:
+//   splitBits i32 | split flags, MSB first, depth first per block in raster order
+//   per level: leaves i32 | leaf indices coded as one row (omitted when leaves is 0)
+// It cannot be combined with any other flag.
+//
+// With FLAG_RESIDUAL (residual VQ) stage 1 is an ordinary codebook and every later stage
+// codes the error left by the stages before it: its codeword values are residuals offset by
+// 128, and a pixel is the clamped sum. Stages are stored in order, so a reader can stop
+// after any stage for a coarser image.
+//
+// With FLAG_ROW_INDEX the indices are split into groups of restartRows tile rows that decode
+// independently, so a reader can seek straight to the rows a region needs (VQRegionDecoder):
+//   restartRows i32 | groups i32 | modelLength i32 | model (shared code tables)
+//   offsets: (groups + 1) i32, segment start relative to the first segment, last = total size
+//   segments: one byte-aligned entropy-coded segment per group
+//
+// Versions: version 1 readers did not look at the flags field, so a container with any flag
+// set is written as version 2 and one without flags stays version 1. Readers reject flags
+// they do not know, so a new flag needs no new version; a change to existing fields does.
+public class VQContainer {
+
+    static final byte[] MAGIC = {'V', 'Q', 'C', 'F'};
+    static final int VERSION = 2;
+    static final int FIRST_VERSION = 1; // no flags
+    static final int HEADER_SIZE = 28;
+
+    // Largest image width or height, and largest tile edge
+    static final int MAX_DIMENSION = 65535;
+    static final int MAX_TILE_SIZE = 256;
+
+    // Index stream codings
+    public static final int CODING_PACKED = 0;
+    public static final int CODING_HUFFMAN = 1;
+    public static final int CODING_HUFFMAN_CONTEXT = 2;
+
+    // Header flags
+    static final int FLAG_SHARED_CODEBOOK = 1;
+    static final int FLAG_ROW_INDEX = 2;
+    static final int FLAG_RESIDUAL = 4;
+    static final int FLAG_YCBCR_420 = 8;
+    static final int FLAG_QUADTREE = 16;
+    static final int KNOWN_FLAGS = 31;
+
+    // Colour spaces
+    public static final int COLOR_RGB = 0;
+    public static final int COLOR_YCBCR_420 = 1;
+
+    // Offset added to residual codeword values so they fit unsigned bytes
+    static final int RESIDUAL_OFFSET = 128;
+
+    // Tile rows per independently decodable group when not set explicitly, about 64 pixels
+    static int defaultRestartRows(int tileSize) {
+        return Math.max(1, 64 / tileSize);
+    }
+
+    int imageWidth, imageHeight;
+    int tileSize;
+    int codeBookSize;
+    int channels = 3;
+    int indexCoding = CODING_HUFFMAN_CONTEXT;
+    byte[] codeBook;     // [(stage * codeBookSize + codeword) * tileSize*tileSize*channels + j], unsigned values
+    int[][] indices;     // [tilesPerRow][tilesPerColumn]
+    int stages = 1;      // residual VQ stages, each with its own codebook and index grid
+    int[][][] residualIndices; // [stage - 1][tilesPerRow][tilesPerColumn] for stages 2..stages
+    String codebookId;   // set when the codebook lives in a VQCodebookLibrary instead of the file
+    long codebookHash;
+    int restartRows;     // tile rows per group of the row index; 0 writes a single index stream
+    int colorSpace = COLOR_RGB;
+    int chromaCodeBookSize;    // COLOR_YCBCR_420: chroma codewords, stored after the luma codebook
+    int[][] chromaIndices;     // COLOR_YCBCR_420: [chromaRows][chromaColumns]
+    int levels = 1;            // quadtree tile sizes, tileSize >> level; 1 = fixed tiles
+    byte[] splitFlags;         // quadtree: depth-first split bits
+    int splitBits;
+    int[][] levelIndices;      // quadtree: [level][leaf] codewords in depth-first order
+
+    int tilesPerRow() {
+        return imageHeight / tileSize;
+    }
+
+    int tilesPerColumn() {
+        return imageWidth / tileSize;
+    }
+
+    int chromaRows() {
+        return VQColor.chromaRows(tilesPerRow());
+    }
+
+    int chromaColumns() {
+        return VQColor.chromaColumns(tilesPerColumn());
+    }
+
+    // Offset of the chroma codebook in codeBook (COLOR_YCBCR_420)
+    int chromaOffset() {
+        return codeBookSize * tileSize * tileSize;
+    }
+
+    // Codewords of a quadtree level: codeBookSize for the smallest tiles and a quarter as many
+    // per level up, so every level's codebook takes about the same number of bytes
+    static int levelCodeBookSize(int codeBookSize, int levels, int level) {
+        return Math.max(1, codeBookSize >> Math.min(30, 2 * (levels - 1 - level)));
+    }
+
+    int levelCodeBookSize(int level) {
+        return levelCodeBookSize(codeBookSize, levels, level);
+    }
+
+    // Offset of a quadtree level's codebook in codeBook (levelOffset(levels) is the total size)
+    int levelOffset(int level) {
+        return (int) quadtreeCodeBookBytes(tileSize, codeBookSize, channels, levels, level);
+    }
+
+    // Bytes of the codebooks of quadtree levels [0, level)
+    static long quadtreeCodeBookBytes(int tileSize, int codeBookSize, int channels, int levels, int level) {
+        long bytes = 0;
+        for (int l = 0; l < level; l++) {
+            bytes += (long) levelCodeBookSize(codeBookSize, levels, l) * (tileSize >> l) * (tileSize >> l) * channels;
+        }
+        return bytes;
+    }
+
+    private int codeBookBytes() {
+        if (levels > 1) {
+            return levelOffset(levels);
+        }
+        if (colorSpace == COLOR_YCBCR_420) {
+            return chromaOffset() + chromaCodeBookSize * 2 * tileSize * tileSize;
+        }
+        return stages * codeBookSize * tileSize * tileSize * channels;
+    }
+
+    // True if the file starts with the binary container magic
+    public static boolean isContainer(String path) {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            ByteBuffer head = ByteBuffer.allocate(MAGIC.length);
+            while (head.hasRemaining() && ch.read(head) >= 0) { }
+            if (head.hasRemaining()) return false;
+            for (int i = 0; i < MAGIC.length; i++) {
+                if (head.get(i) != MAGIC[i]) return false;
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void write(String path) throws IOException {
+        try (FileChannel ch = openForWrite(path)) {
+            write(ch);
+        }
+    }
+
+    public void write(WritableByteChannel ch) throws IOException {
+        writeFully(ch, toByteBuffer());
+    }
+
+    // The whole container, ready to read from position 0
+    public ByteBuffer toByteBuffer() throws IOException {
+        if (stages > 1 && codebookId != null) {
+            throw new IOException("Residual stages cannot use a shared codebook");
+        }
+        boolean ycbcr = colorSpace == COLOR_YCBCR_420;
+        if (ycbcr && (stages > 1 || codebookId != null || channels != 3)) {
+            throw new IOException("YCbCr 4:2:0 needs a single-stage RGB image with its own codebook");
+        }
+        VQEntropyCoder coder = VQEntropyCoder.forCoding(indexCoding);
+        if (levels > 1) {
+            if (stages > 1 || ycbcr || codebookId != null || restartRows > 0) {
+                throw new IOException("Quadtree containers cannot use other container options");
+            }
+            byte[] area = encodeQuadtree(coder);
+            ByteBuffer buf = ByteBuffer.allocate(headerAndCodebookSize() + area.length);
+            writeHeaderAndCodebook(buf);
+            buf.put(area);
+            buf.flip();
+            return buf;
+        }
+        byte[][] areas = new byte[stages + (ycbcr ? 1 : 0)][];
+        long size = headerAndCodebookSize();
+        for (int s = 0; s < stages; s++) {
+            areas[s] = encodeIndexArea(coder, s == 0 ? indices : residualIndices[s - 1], codeBookSize);
+            size += areas[s].length;
+        }
+        if (ycbcr) {
+            areas[stages] = encodeIndexArea(coder, chromaIndices, chromaCodeBookSize);
+            size += areas[stages].length;
+        }
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("VQ container too large: " + size + " bytes");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) size);
+        writeHeaderAndCodebook(buf);
+        for (byte[] area : areas) {
+            buf.put(area);
+        }
+        buf.flip();
+        return buf;
+    }
+
+    // One grid's index data: a single stream, or the row index and its segments
+    private byte[] encodeIndexArea(VQEntropyCoder coder, int[][] grid, int size) throws IOException {
+        if (restartRows <= 0) {
+            return coder.encode(grid, size);
+        }
+        byte[] model = coder.encodeModel(grid, restartRows, size);
+        int groups = groups(grid.length);
+        byte[][] segments = new byte[groups][];
+        long total = 0;
+        for (int g = 0; g < groups; g++) {
+            int from = g * restartRows;
+            segments[g] = coder.encodeRows(grid, from, Math.min(grid.length, from + restartRows), size);
+            total += segments[g].length;
+        }
+        long bytes = rowIndexSize(model.length, grid.length) + total;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IOException("VQ index stream too large: " + bytes + " bytes");
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) bytes);
+        buf.putInt(restartRows).putInt(groups).putInt(model.length).put(model);
+        int offset = 0;
+        for (byte[] segment : segments) {
+            buf.putInt(offset);
+            offset += segment.length;
+        }
+        buf.putInt(offset);
+        for (byte[] segment : segments) {
+            buf.put(segment);
+        }
+        return buf.array();
+    }
+
+    private byte[] encodeQuadtree(VQEntropyCoder coder) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer count = ByteBuffer.allocate(4);
+        out.write(count.putInt(0, splitBits).array(), 0, 4);
+        out.write(splitFlags, 0, (splitBits + 7) / 8);
+        for (int level = 0; level < levels; level++) {
+            int[] leaves = levelIndices[level];
+            out.write(count.putInt(0, leaves.length).array(), 0, 4);
+            if (leaves.length > 0) {
+                out.write(coder.encode(new int[][] {leaves}, levelCodeBookSize(level)));
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private int groups(int rows) {
+        return (rows + restartRows - 1) / restartRows;
+    }
+
+    // Row index fields before the first segment
+    private int rowIndexSize(int modelLength, int rows) {
+        return 12 + modelLength + 4 * (groups(rows) + 1);
+    }
+
+    private int headerAndCodebookSize() {
+        int size = HEADER_SIZE + (stages > 1 ? 1 : 0) + (colorSpace == COLOR_YCBCR_420 ? 4 : 0)
+                + (levels > 1 ? 1 : 0);
+        if (codebookId != null) {
+            return size + 1 + codebookId.getBytes(StandardCharsets.UTF_8).length + 8;
+        }
+        return size + codeBookBytes();
+    }
+
+    private void writeHeaderAndCodebook(ByteBuffer buf) {
+        int flags = (codebookId != null ? FLAG_SHARED_CODEBOOK : 0) | (restartRows > 0 ? FLAG_ROW_INDEX : 0)
+                | (stages > 1 ? FLAG_RESIDUAL : 0) | (colorSpace == COLOR_YCBCR_420 ? FLAG_YCBCR_420 : 0)
+                | (levels > 1 ? FLAG_QUADTREE : 0);
+        buf.put(MAGIC).put((byte) (flags == 0 ? FIRST_VERSION : VERSION)).put((byte) indexCoding)
+                .putShort((short) flags);
+        buf.putInt(imageWidth).putInt(imageHeight).putInt(tileSize).putInt(codeBookSize).putInt(channels);
+        if (stages > 1) {
+            buf.put((byte) stages);
+        }
+        if (colorSpace == COLOR_YCBCR_420) {
+            buf.putInt(chromaCodeBookSize);
+        }
+        if (levels > 1) {
+            buf.put((byte) levels);
+        }
+        if (codebookId != null) {
+            byte[] id = codebookId.getBytes(StandardCharsets.UTF_8);
+            buf.put((byte) id.length).put(id).putLong(codebookHash);
+        } else {
+            buf.put(codeBook, 0, codeBookBytes());
+        }
+    }
+
+    private static FileChannel openForWrite(String path) throws IOException {
+        return FileChannel.open(Paths.get(path), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void writeFully(WritableByteChannel ch, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            ch.write(buf);
+        }
+    }
+
+    // Incremental writer: the header and codebook go out on open, then index rows are appended
+    // one at a time as CODING_PACKED, so the full index grid never has to be in memory. Packed
+    // segment sizes are known up front, so a row index (header.restartRows > 0) is written too.
+    static class StreamWriter implements AutoCloseable {
+        private final FileChannel ch;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        private final int bits;
+        private final int restartRows;
+        private int rows;
+        private long acc;
+        private int pending;
+
+        // header supplies the metadata and codebook; its indices are not used
+        StreamWriter(String path, VQContainer header) throws IOException {
+            header.indexCoding = CODING_PACKED;
+            bits = VQPackedCoder.indexBits(header.codeBookSize);
+            restartRows = header.restartRows;
+            ch = openForWrite(path);
+            int indexSize = restartRows > 0 ? header.rowIndexSize(0, header.tilesPerRow()) : 0;
+            ByteBuffer head = ByteBuffer.allocate(header.headerAndCodebookSize() + indexSize);
+            header.writeHeaderAndCodebook(head);
+            if (restartRows > 0) {
+                int groups = header.groups(header.tilesPerRow());
+                head.putInt(restartRows).putInt(groups).putInt(0);
+                long offset = 0;
+                for (int g = 0; g < groups; g++) {
+                    head.putInt((int) offset);
+                    int groupRows = Math.min(restartRows, header.tilesPerRow() - g * restartRows);
+                    offset += VQPackedCoder.segmentSize(groupRows, header.tilesPerColumn(), header.codeBookSize);
+                }
+                if (offset > Integer.MAX_VALUE) {
+                    throw new IOException("VQ index stream too large for a row index");
+                }
+                head.putInt((int) offset);
+            }
+            head.flip();
+            writeFully(ch, head);
+        }
+
+        void writeRow(int[] row) throws IOException {
+            for (int v : row) {
+                acc = (acc << bits) | v;
+                pending += bits;
+                while (pending >= 8) {
+                    pending -= 8;
+                    if (!buf.hasRemaining()) flush();
+                    buf.put((byte) (acc >>> pending));
+                }
+            }
+            if (restartRows > 0 && ++rows % restartRows == 0) {
+                padToByte();
+            }
+        }
+
+        // Segments start on a byte boundary
+        private void padToByte() throws IOException {
+            if (pending > 0) {
+                if (!buf.hasRemaining()) flush();
+                buf.put((byte) (acc << (8 - pending)));
+                pending = 0;
+            }
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            writeFully(ch, buf);
+            buf.clear();
+        }
+
+        public void close() throws IOException {
+            try {
+                padToByte();
+                flush();
+            } finally {
+                ch.close();
+            }
+        }
+    }
+
+    // Memory-map the file and decode it
+    public static VQContainer read(String path) throws IOException {
+        Path p = Paths.get(path);
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return read(buf);
+        }
+    }
+
+    public static VQContainer read(ByteBuffer buf) throws IOException {
+        return read(buf, null);
+    }
+
+    // library resolves shared codebook references; null means VQCodebookLibrary.defaultLibrary()
+    public static VQContainer read(ByteBuffer buf, VQCodebookLibrary library) throws IOException {
+        VQContainer c = readHeader(buf, library);
+        if (c.levels > 1) {
+            readQuadtree(buf, c);
+            return c;
+        }
+        c.indices = readIndexArea(buf, c);
+        if (c.stages > 1) {
+            c.residualIndices = new int[c.stages - 1][][];
+            for (int s = 1; s < c.stages; s++) {
+                c.residualIndices[s - 1] = readIndexArea(buf, c);
+            }
+        }
+        if (c.colorSpace == COLOR_YCBCR_420) {
+            c.chromaIndices = readIndexArea(buf, c, c.chromaRows(), c.chromaColumns(), c.chromaCodeBookSize);
+        }
+        return c;
+    }
+
+    // Split flags and leaf indices of a quadtree container, from buf's position
+    static void readQuadtree(ByteBuffer buf, VQContainer c) throws IOException {
+        c.splitBits = buf.getInt();
+        if (c.splitBits < 0 || (c.splitBits + 7) / 8 > buf.remaining()) {
+            throw new IOException("Corrupt VQ quadtree");
+        }
+        // Every block has at least one flag and every leaf hangs off one
+        long blocks = (long) ((c.imageWidth + c.tileSize - 1) / c.tileSize) * ((c.imageHeight + c.tileSize - 1) / c.tileSize);
+        if (c.imageWidth <= 0 || c.imageHeight <= 0 || blocks > c.splitBits) {
+            throw new IOException("Corrupt VQ quadtree");
+        }
+        c.splitFlags = new byte[(c.splitBits + 7) / 8];
+        buf.get(c.splitFlags);
+        VQEntropyCoder coder = VQEntropyCoder.forCoding(c.indexCoding);
+        c.levelIndices = new int[c.levels][];
+        for (int level = 0; level < c.levels; level++) {
+            int leaves = buf.getInt();
+            if (leaves < 0 || leaves > Math.min(blocks << (2 * level), 4L * c.splitBits)) {
+                throw new IOException("Corrupt VQ quadtree");
+            }
+            int[][] row = new int[1][leaves];
+            if (leaves > 0) {
+                coder.decode(buf, row, c.levelCodeBookSize(level));
+            }
+            c.levelIndices[level] = row[0];
+        }
+        new VQQuadtree.Layout(c); // checks the flags against the leaf counts
+    }
+
+    // One stage's index grid, from buf's position
+    static int[][] readIndexArea(ByteBuffer buf, VQContainer c) throws IOException {
+        return readIndexArea(buf, c, c.tilesPerRow(), c.tilesPerColumn(), c.codeBookSize);
+    }
+
+    // A rows x columns grid of indices into a codebook of size codewords
+    static int[][] readIndexArea(ByteBuffer buf, VQContainer c, int rows, int columns, int size) throws IOException {
+        int[][] grid = new int[rows][columns];
+        if (c.restartRows != 0) {
+            RowIndex index = RowIndex.read(buf, c, rows, size);
+            for (int g = 0; g < index.groups; g++) {
+                index.decodeGroup(g, grid);
+            }
+        } else {
+            VQEntropyCoder.forCoding(c.indexCoding).decode(buf, grid, size);
+        }
+        return grid;
+    }
+
+    // Grid of all stages: stage 0 is indices, later stages are the residual grids
+    int[][] stageIndices(int stage) {
+        return stage == 0 ? indices : residualIndices[stage - 1];
+    }
+
+    // Header and codebook only; buf is left at the start of the index data
+    static VQContainer readHeader(ByteBuffer buf, VQCodebookLibrary library) throws IOException {
+        if (buf.remaining() < HEADER_SIZE) {
+            throw new IOException("Truncated VQ container header");
+        }
+        for (byte m : MAGIC) {
+            if (buf.get() != m) throw new IOException("Not a VQ container");
+        }
+        int version = buf.get() & 0xFF;
+        if (version < FIRST_VERSION || version > VERSION) {
+            throw new IOException("Unsupported VQ container version " + version);
+        }
+        VQContainer c = new VQContainer();
+        c.indexCoding = buf.get() & 0xFF;
+        int flags = buf.getShort() & 0xFFFF;
+        if ((flags & ~KNOWN_FLAGS) != 0) {
+            throw new IOException("Unsupported VQ container flags " + flags);
+        }
+        c.imageWidth = buf.getInt();
+        c.imageHeight = buf.getInt();
+        c.tileSize = buf.getInt();
+        c.codeBookSize = buf.getInt();
+        c.channels = buf.getInt();
+        // Images smaller than one tile are valid: they have no tiles
+        if ((version == FIRST_VERSION && flags != 0) || c.imageWidth <= 0 || c.imageHeight <= 0
+                || c.imageWidth > MAX_DIMENSION || c.imageHeight > MAX_DIMENSION
+                || c.tileSize <= 0 || c.tileSize > MAX_TILE_SIZE || c.codeBookSize <= 0
+                || c.channels <= 0 || c.channels > 4) {
+            throw new IOException("Corrupt VQ container header");
+        }
+        int dim = c.tileSize * c.tileSize * c.channels;
+        if ((flags & FLAG_RESIDUAL) != 0) {
+            requireHeader(buf, 1);
+            c.stages = buf.get() & 0xFF;
+            if (c.stages < 1 || (flags & FLAG_SHARED_CODEBOOK) != 0) {
+                throw new IOException("Corrupt VQ container header");
+            }
+        }
+        if ((flags & FLAG_YCBCR_420) != 0) {
+            c.colorSpace = COLOR_YCBCR_420;
+            requireHeader(buf, 4);
+            c.chromaCodeBookSize = buf.getInt();
+            if (c.chromaCodeBookSize <= 0 || c.channels != 3
+                    || (flags & (FLAG_RESIDUAL | FLAG_SHARED_CODEBOOK)) != 0) {
+                throw new IOException("Corrupt VQ container header");
+            }
+        }
+        if ((flags & FLAG_QUADTREE) != 0) {
+            requireHeader(buf, 1);
+            c.levels = buf.get() & 0xFF;
+            if (c.levels < 2 || c.levels > 31 || (c.tileSize >> (c.levels - 1)) << (c.levels - 1) != c.tileSize
+                    || flags != FLAG_QUADTREE) {
+                throw new IOException("Corrupt VQ container header");
+            }
+        }
+        if ((flags & FLAG_SHARED_CODEBOOK) != 0) {
+            requireHeader(buf, 1);
+            byte[] id = new byte[buf.get() & 0xFF];
+            requireHeader(buf, id.length + 8);
+            buf.get(id);
+            c.codebookId = new String(id, StandardCharsets.UTF_8);
+            c.codebookHash = buf.getLong();
+            if (!VQCodebookLibrary.isValidId(c.codebookId)) {
+                throw new IOException("Corrupt VQ container header");
+            }
+            VQCodebookLibrary.Codebook shared = (library != null ? library : VQCodebookLibrary.defaultLibrary())
+                    .get(c.codebookId, c.codebookHash);
+            if (shared.tileSize != c.tileSize || shared.codeBookSize != c.codeBookSize || shared.channels != c.channels) {
+                throw new IOException("Codebook " + c.codebookId + " does not match the container geometry");
+            }
+            c.codeBook = shared.codeBook;
+        } else {
+            long bytes = c.colorSpace == COLOR_YCBCR_420
+                    ? (long) c.tileSize * c.tileSize * (c.codeBookSize + 2L * c.chromaCodeBookSize)
+                    : c.levels > 1 ? quadtreeCodeBookBytes(c.tileSize, c.codeBookSize, c.channels, c.levels, c.levels)
+                    : (long) c.stages * c.codeBookSize * dim;
+            if (bytes > buf.remaining()) {
+                throw new IOException("Truncated VQ codebook");
+            }
+            c.codeBook = new byte[(int) bytes];
+            buf.get(c.codeBook);
+        }
+        if ((flags & FLAG_ROW_INDEX) != 0) {
+            requireHeader(buf, 4);
+            c.restartRows = buf.getInt(buf.position()); // validated by RowIndex.read
+        }
+        return c;
+    }
+
+    private static void requireHeader(ByteBuffer buf, int bytes) throws IOException {
+        if (buf.remaining() < bytes) {
+            throw new IOException("Truncated VQ container header");
+        }
+    }
+
+    // Encoders check images up front so they never write a container readers refuse
+    static void checkImageSize(int width, int height) {
+        if (width <= 0 || height <= 0 || width > MAX_DIMENSION || height > MAX_DIMENSION) {
+            throw new IllegalArgumentException("Image is " + width + "x" + height + ", at most "
+                    + MAX_DIMENSION + " pixels wide and high are supported");
+        }
+    }
+
+    // Parsed row index of a FLAG_ROW_INDEX container. Segments are decoded with absolute
+    // positions into the (possibly memory-mapped) buffer, so groups can be decoded in any
+    // order and from several threads.
+    static class RowIndex {
+        final int restartRows;
+        final int groups;
+        private final int tilesPerRow;
+        private final int codeBookSize;
+        private final VQEntropyCoder coder;
+        private final ByteBuffer segments; // starts at the first segment
+        private final int[] offsets;
+
+        private RowIndex(int restartRows, int groups, int tilesPerRow, int codeBookSize,
+                         VQEntropyCoder coder, ByteBuffer segments, int[] offsets) {
+            this.restartRows = restartRows;
+            this.groups = groups;
+            this.tilesPerRow = tilesPerRow;
+            this.codeBookSize = codeBookSize;
+            this.coder = coder;
+            this.segments = segments;
+            this.offsets = offsets;
+        }
+
+        // Parse the index at buf's position (just after readHeader) and move buf past the segments
+        static RowIndex read(ByteBuffer buf, VQContainer c) throws IOException {
+            return read(buf, c, c.tilesPerRow(), c.codeBookSize);
+        }
+
+        // Index of a grid with the given rows of indices into a codebook of size codewords
+        static RowIndex read(ByteBuffer buf, VQContainer c, int rows, int size) throws IOException {
+            int restartRows = buf.getInt();
+            int groups = buf.getInt();
+            int modelLength = buf.getInt();
+            if (restartRows <= 0 || groups != (rows + restartRows - 1) / restartRows
+                    || modelLength < 0 || modelLength > buf.remaining()) {
+                throw new IOException("Corrupt VQ row index");
+            }
+            c.restartRows = restartRows;
+            VQEntropyCoder coder = VQEntropyCoder.forCoding(c.indexCoding);
+            int modelEnd = buf.position() + modelLength;
+            coder.readModel(buf, size);
+            if (buf.position() != modelEnd) {
+                throw new IOException("Corrupt VQ row index model");
+            }
+            if ((long) 4 * (groups + 1) > buf.remaining()) {
+                throw new IOException("Truncated VQ row index");
+            }
+            int[] offsets = new int[groups + 1];
+            for (int g = 0; g <= groups; g++) {
+                offsets[g] = buf.getInt();
+                if (offsets[g] < (g > 0 ? offsets[g - 1] : 0)) {
+                    throw new IOException("Corrupt VQ row index offsets");
+                }
+            }
+            if (offsets[groups] > buf.remaining()) {
+                throw new IOException("Truncated VQ index stream");
+            }
+            ByteBuffer segments = buf.slice();
+            segments.limit(offsets[groups]);
+            buf.position(buf.position() + offsets[groups]);
+            return new RowIndex(restartRows, groups, rows, size, coder, segments, offsets);
+        }
+
+        int firstRow(int group) {
+            return group * restartRows;
+        }
+
+        int endRow(int group) {
+            return Math.min(tilesPerRow, (group + 1) * restartRows);
+        }
+
+        // Decode the rows of one group into indices[firstRow(group), endRow(group)), which must be allocated
+        void decodeGroup(int group, int[][] indices) throws IOException {
+            ByteBuffer segment = segments.duplicate();
+            segment.limit(offsets[group + 1]).position(offsets[group]);
+            coder.decodeRows(segment, indices, firstRow(group), endRow(group), codeBookSize);
+        }
+    }
+}
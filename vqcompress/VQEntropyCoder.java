@@ -0,0 +1,42 @@
+package vqcompress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Entropy stage applied to the tile index stream before it is written to the container.
+// The container header records coding() so the decoder can pick the matching implementation.
+public interface VQEntropyCoder {
+
+    int coding();
+
+    // Encode a full [tilesPerRow][tilesPerColumn] index grid
+    byte[] encode(int[][] indices, int codeBookSize);
+
+    // Decode into a preallocated grid, reading from the current position of in
+    void decode(ByteBuffer in, int[][] indices, int codeBookSize) throws IOException;
+
+    // Row-group coding for containers with a row index (VQContainer.FLAG_ROW_INDEX): one model
+    // (code tables, possibly empty) for the whole grid, then each group of rowsPerGroup tile
+    // rows as a byte-aligned segment that decodes on its own. Context never crosses a group.
+
+    // Build the model from every group of the grid and return its serialised form
+    byte[] encodeModel(int[][] indices, int rowsPerGroup, int codeBookSize);
+
+    // Segment for rows [from, to), which must be one of the groups seen by encodeModel
+    byte[] encodeRows(int[][] indices, int from, int to, int codeBookSize);
+
+    // Read a model written by encodeModel; afterwards decodeRows may be called from any thread
+    void readModel(ByteBuffer in, int codeBookSize) throws IOException;
+
+    // Decode the segment between segment's position and limit into indices[from, to)
+    void decodeRows(ByteBuffer segment, int[][] indices, int from, int to, int codeBookSize) throws IOException;
+
+    static VQEntropyCoder forCoding(int coding) throws IOException {
+        switch (coding) {
+            case VQContainer.CODING_PACKED: return new VQPackedCoder();
+            case VQContainer.CODING_HUFFMAN: return new VQHuffmanCoder(false);
+            case VQContainer.CODING_HUFFMAN_CONTEXT: return new VQHuffmanCoder(true);
+            default: throw new IOException("Unsupported index coding " + coding);
+        }
+    }
+}
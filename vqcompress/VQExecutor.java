@@ -0,0 +1,155 @@
+package vqcompress;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Shared execution layer for the compressor and decompressor: a work-stealing pool sized to
+// the cores that runs index ranges split into chunks, with progress reporting and cancellation.
+public class VQExecutor {
+
+    // Work on the half-open range [from, to)
+    public interface RangeTask {
+        void run(int from, int to);
+    }
+
+    // Called from worker threads after each finished chunk. The codec names the stage it is in
+    // ("Loading", "Training", "Quantizing", "Decoding"), and progress restarts for each stage.
+    public interface ProgressListener {
+        void progress(int completed, int total);
+
+        default void stage(String name) {
+        }
+    }
+
+    // Handle for one submitted operation; cancel() stops it at the next chunk boundary
+    public static class Job {
+        private volatile boolean cancelled;
+        private volatile boolean stepped;
+        private final ProgressListener listener;
+
+        public Job() {
+            this(null);
+        }
+
+        public Job(ProgressListener listener) {
+            this.listener = listener;
+        }
+
+        public void cancel() {
+            cancelled = true;
+        }
+
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        public void stage(String name) {
+            stepped = false;
+            if (listener != null) {
+                listener.stage(name);
+            }
+        }
+
+        // Progress of a stage that is not one parallel loop, such as training a codebook size at
+        // a time; chunk progress is not reported for the rest of the stage
+        public void step(int completed, int total) {
+            stepped = true;
+            if (listener != null) {
+                listener.progress(completed, total);
+            }
+        }
+    }
+
+    // Parallelism of the shared pool; override with -Dvq.parallelism=N
+    private static final int DEFAULT_PARALLELISM =
+            Integer.getInteger("vq.parallelism", Runtime.getRuntime().availableProcessors());
+    // Chunks created per worker when no grain is given, so stealing can even out the load
+    private static final int CHUNKS_PER_WORKER = 8;
+
+    private static VQExecutor shared;
+
+    private final ForkJoinPool pool;
+
+    public VQExecutor(int parallelism) {
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+    }
+
+    public static synchronized VQExecutor shared() {
+        if (shared == null) {
+            shared = new VQExecutor(DEFAULT_PARALLELISM);
+        }
+        return shared;
+    }
+
+    public int parallelism() {
+        return pool.getParallelism();
+    }
+
+    // Run task over [0, count) in chunks of at most grain items (grain <= 0 picks one)
+    public void parallelFor(int count, int grain, RangeTask task, Job job) {
+        if (count <= 0) {
+            return;
+        }
+        if (grain <= 0) {
+            grain = Math.max(1, count / (parallelism() * CHUNKS_PER_WORKER));
+        }
+        RangeAction root = new RangeAction(0, count, grain, task, job, new AtomicInteger(), count);
+        if (ForkJoinTask.getPool() == pool) {
+            root.invoke();
+        } else {
+            pool.invoke(root);
+        }
+        if (job != null && job.isCancelled()) {
+            throw new CancellationException("Operation cancelled");
+        }
+    }
+
+    public void parallelFor(int count, RangeTask task) {
+        parallelFor(count, 0, task, null);
+    }
+
+    public void shutdown() {
+        pool.shutdown();
+    }
+
+    private static class RangeAction extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to, grain;
+        private final RangeTask task;
+        private final Job job;
+        private final AtomicInteger completed;
+        private final int total;
+
+        RangeAction(int from, int to, int grain, RangeTask task, Job job, AtomicInteger completed, int total) {
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+            this.task = task;
+            this.job = job;
+            this.completed = completed;
+            this.total = total;
+        }
+
+        @Override
+        protected void compute() {
+            if (job != null && job.isCancelled()) {
+                return;
+            }
+            if (to - from <= grain) {
+                task.run(from, to);
+                int done = completed.addAndGet(to - from);
+                if (job != null && job.listener != null && !job.stepped) {
+                    job.listener.progress(done, total);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new RangeAction(from, mid, grain, task, job, completed, total),
+                      new RangeAction(mid, to, grain, task, job, completed, total));
+        }
+    }
+}
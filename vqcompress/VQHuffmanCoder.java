@@ -0,0 +1,338 @@
+package vqcompress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+// Static canonical Huffman coding of the index stream.
+//
+// With context modelling on, two extra symbols mean "same as the left tile" and "same as the
+// tile above", and a separate table is used when the left and upper neighbours agree, which
+// captures the long runs and repeated patterns typical of VQ index maps.
+//
+// Stream layout: per table, one 4-bit code length per symbol (0 = unused), then the payload
+// length as an int and the MSB-first payload. Decoding is a single table lookup per index.
+// In row-group mode the tables form the model and each group is its own payload segment.
+public class VQHuffmanCoder implements VQEntropyCoder {
+
+    static final int MAX_CODE_LENGTH = 15;
+    // 15-bit codes cover at most 2^15 symbols, two of which are the context symbols
+    static final int MAX_CODEBOOK_SIZE = (1 << MAX_CODE_LENGTH) - 2;
+
+    private final boolean useContext;
+
+    // Decode tables kept between calls: entry = symbol << 4 | code length
+    private int[][] decodeTables = new int[2][];
+    private final int[] tableBits = new int[2];
+
+    // Code tables built by encodeModel and used by encodeRows: [context][symbol]
+    private int[][] encodeLengths;
+    private int[][] encodeCodes;
+
+    public VQHuffmanCoder(boolean useContext) {
+        this.useContext = useContext;
+    }
+
+    public int coding() {
+        return useContext ? VQContainer.CODING_HUFFMAN_CONTEXT : VQContainer.CODING_HUFFMAN;
+    }
+
+    private int contexts() {
+        return useContext ? 2 : 1;
+    }
+
+    private int alphabetSize(int codeBookSize) {
+        return useContext ? codeBookSize + 2 : codeBookSize;
+    }
+
+    // Context 0: left and upper neighbours exist and are equal; context 1: everything else
+    private static int context(int left, int up) {
+        return left >= 0 && left == up ? 0 : 1;
+    }
+
+    public byte[] encode(int[][] indices, int codeBookSize) {
+        byte[] tables = encodeModel(indices, Math.max(1, indices.length), codeBookSize);
+        byte[] body = encodeRows(indices, 0, indices.length, codeBookSize);
+        ByteBuffer out = ByteBuffer.allocate(tables.length + 4 + body.length);
+        out.put(tables);
+        out.putInt(body.length);
+        out.put(body);
+        return out.array();
+    }
+
+    // Pass 1: symbol statistics per context over every group, turned into code tables
+    public byte[] encodeModel(int[][] indices, int rowsPerGroup, int codeBookSize) {
+        int contexts = contexts();
+        int alphabet = alphabetSize(codeBookSize);
+        long[][] freq = new long[contexts][alphabet];
+        for (int from = 0; from < indices.length; from += rowsPerGroup) {
+            forEachSymbol(indices, from, Math.min(indices.length, from + rowsPerGroup), codeBookSize,
+                    (ctx, sym) -> freq[ctx][sym]++);
+        }
+
+        encodeLengths = new int[contexts][];
+        encodeCodes = new int[contexts][];
+        for (int ctx = 0; ctx < contexts; ctx++) {
+            encodeLengths[ctx] = codeLengths(freq[ctx], MAX_CODE_LENGTH);
+            encodeCodes[ctx] = canonicalCodes(encodeLengths[ctx]);
+        }
+
+        int tableBytes = (alphabet + 1) / 2;
+        ByteBuffer out = ByteBuffer.allocate(contexts * tableBytes);
+        for (int ctx = 0; ctx < contexts; ctx++) {
+            int[] len = encodeLengths[ctx];
+            for (int s = 0; s < alphabet; s += 2) {
+                int hi = len[s];
+                int lo = s + 1 < alphabet ? len[s + 1] : 0;
+                out.put((byte) (hi << 4 | lo));
+            }
+        }
+        return out.array();
+    }
+
+    // Pass 2: emit codes
+    public byte[] encodeRows(int[][] indices, int from, int to, int codeBookSize) {
+        int[][] lengths = encodeLengths;
+        int[][] codes = encodeCodes;
+        BitWriter payload = new BitWriter();
+        forEachSymbol(indices, from, to, codeBookSize, (ctx, sym) -> payload.write(codes[ctx][sym], lengths[ctx][sym]));
+        return payload.finish();
+    }
+
+    private interface SymbolSink {
+        void accept(int ctx, int sym);
+    }
+
+    // Map every index of rows [from, to) to its (context, symbol) pair in raster order; row
+    // from is treated as the first row (no upper neighbours)
+    private void forEachSymbol(int[][] indices, int from, int to, int codeBookSize, SymbolSink sink) {
+        for (int r = from; r < to; r++) {
+            int[] row = indices[r];
+            int[] above = r > from ? indices[r - 1] : null;
+            for (int col = 0; col < row.length; col++) {
+                int v = row[col];
+                if (!useContext) {
+                    sink.accept(0, v);
+                    continue;
+                }
+                int left = col > 0 ? row[col - 1] : -1;
+                int up = above != null ? above[col] : -1;
+                int sym = v == left ? codeBookSize : v == up ? codeBookSize + 1 : v;
+                sink.accept(context(left, up), sym);
+            }
+        }
+    }
+
+    public void decode(ByteBuffer in, int[][] indices, int codeBookSize) throws IOException {
+        readModel(in, codeBookSize);
+        if (in.remaining() < 4) {
+            throw new IOException("Truncated VQ index stream");
+        }
+        int payloadLength = in.getInt();
+        if (payloadLength < 0 || payloadLength > in.remaining()) {
+            throw new IOException("Truncated VQ index stream");
+        }
+        int end = in.position() + payloadLength;
+        decodeSymbols(in, in.position(), end, indices, 0, indices.length, codeBookSize);
+        in.position(end);
+    }
+
+    public void readModel(ByteBuffer in, int codeBookSize) throws IOException {
+        int contexts = contexts();
+        int alphabet = alphabetSize(codeBookSize);
+        if (alphabet > 1 << MAX_CODE_LENGTH) {
+            throw new IOException("VQ codebook of " + codeBookSize + " codewords is too large for Huffman coding");
+        }
+        if (in.remaining() < contexts * ((alphabet + 1) / 2)) {
+            throw new IOException("Truncated VQ index stream");
+        }
+        int[] lengths = new int[alphabet + 1];
+        for (int ctx = 0; ctx < contexts; ctx++) {
+            for (int s = 0; s < alphabet; s += 2) {
+                int b = in.get() & 0xFF;
+                lengths[s] = b >>> 4;
+                lengths[s + 1] = b & 15;
+            }
+            buildDecodeTable(ctx, lengths, alphabet);
+        }
+    }
+
+    public void decodeRows(ByteBuffer segment, int[][] indices, int from, int to, int codeBookSize)
+            throws IOException {
+        decodeSymbols(segment, segment.position(), segment.limit(), indices, from, to, codeBookSize);
+    }
+
+    // Decode rows [from, to) from the payload in [start, end) using absolute reads only, so
+    // concurrent calls on one coder (with its tables already read) are safe
+    private void decodeSymbols(ByteBuffer in, int start, int end, int[][] indices, int from, int to,
+                               int codeBookSize) throws IOException {
+        int contexts = contexts();
+        int pos = start;
+        long bitBuf = 0;
+        int bitCount = 0;
+        int[] table0 = decodeTables[0];
+        int[] table1 = contexts > 1 ? decodeTables[1] : table0;
+        int bits0 = tableBits[0];
+        int bits1 = contexts > 1 ? tableBits[1] : bits0;
+        for (int r = from; r < to; r++) {
+            int[] row = indices[r];
+            int[] above = r > from ? indices[r - 1] : null;
+            int left = -1;
+            for (int col = 0; col < row.length; col++) {
+                while (bitCount <= 56) {
+                    bitBuf = (bitBuf << 8) | (pos < end ? in.get(pos) & 0xFF : 0);
+                    pos++;
+                    bitCount += 8;
+                }
+                int up = above != null ? above[col] : -1;
+                boolean ctx0 = useContext && left >= 0 && left == up;
+                int[] table = ctx0 ? table0 : table1;
+                int tb = ctx0 ? bits0 : bits1;
+                int entry = table[(int) (bitBuf >>> (bitCount - tb)) & ((1 << tb) - 1)];
+                int len = entry & 15;
+                if (len == 0) {
+                    throw new IOException("Invalid Huffman code in index stream");
+                }
+                bitCount -= len;
+                int sym = entry >>> 4;
+                int v = sym < codeBookSize ? sym : sym == codeBookSize ? left : up;
+                if (v < 0) {
+                    // "same as left/above" with no left or above neighbour
+                    throw new IOException("Invalid context symbol in index stream");
+                }
+                row[col] = v;
+                left = v;
+            }
+        }
+        // Bytes still buffered are not consumed; anything read past the payload must be padding
+        int consumed = pos - start - bitCount / 8;
+        if (consumed > end - start) {
+            throw new IOException("Truncated VQ index stream");
+        }
+    }
+
+    private void buildDecodeTable(int ctx, int[] lengths, int alphabet) throws IOException {
+        int maxLen = 1;
+        for (int s = 0; s < alphabet; s++) maxLen = Math.max(maxLen, lengths[s]);
+        int size = 1 << maxLen;
+        int[] table = decodeTables[ctx];
+        if (table == null || table.length < size) {
+            table = decodeTables[ctx] = new int[size];
+        }
+        Arrays.fill(table, 0, size, 0);
+        int[] codes = canonicalCodes(Arrays.copyOf(lengths, alphabet));
+        for (int s = 0; s < alphabet; s++) {
+            int len = lengths[s];
+            if (len == 0) continue;
+            int first = codes[s] << (maxLen - len);
+            int last = first + (1 << (maxLen - len));
+            if (last > size) {
+                throw new IOException("Invalid Huffman code lengths");
+            }
+            for (int i = first; i < last; i++) {
+                table[i] = s << 4 | len;
+            }
+        }
+        tableBits[ctx] = maxLen;
+    }
+
+    // Huffman code lengths, limited to maxLen by repeatedly flattening the frequencies
+    static int[] codeLengths(long[] freq, int maxLen) {
+        long used = Arrays.stream(freq).filter(v -> v > 0).count();
+        if (used > 1L << maxLen) {
+            // Flattening never drops a symbol, so the lengths could never fit
+            throw new IllegalArgumentException(used + " symbols do not fit in " + maxLen + "-bit codes");
+        }
+        long[] f = freq.clone();
+        while (true) {
+            int[] lengths = huffmanLengths(f);
+            int longest = 0;
+            for (int l : lengths) longest = Math.max(longest, l);
+            if (longest <= maxLen) {
+                return lengths;
+            }
+            for (int i = 0; i < f.length; i++) {
+                if (f[i] > 0) f[i] = (f[i] + 1) >> 1;
+            }
+        }
+    }
+
+    private static int[] huffmanLengths(long[] f) {
+        int n = f.length;
+        int[] lengths = new int[n];
+        int used = 0;
+        for (long v : f) if (v > 0) used++;
+        if (used == 0) return lengths;
+        if (used == 1) {
+            for (int i = 0; i < n; i++) if (f[i] > 0) lengths[i] = 1;
+            return lengths;
+        }
+        // Nodes 0..n-1 are leaves, internal nodes are appended after them
+        long[] weight = new long[2 * n];
+        int[] parent = new int[2 * n];
+        System.arraycopy(f, 0, weight, 0, n);
+        PriorityQueue<Integer> queue = new PriorityQueue<>(used,
+                (a, b) -> weight[a] != weight[b] ? Long.compare(weight[a], weight[b]) : Integer.compare(a, b));
+        for (int i = 0; i < n; i++) if (f[i] > 0) queue.add(i);
+        int next = n;
+        while (queue.size() > 1) {
+            int a = queue.poll();
+            int b = queue.poll();
+            weight[next] = weight[a] + weight[b];
+            parent[a] = next;
+            parent[b] = next;
+            queue.add(next++);
+        }
+        // Parents always have larger node numbers, so depths resolve walking downwards
+        int[] depth = new int[next];
+        for (int i = next - 2; i >= 0; i--) {
+            if (i < n && f[i] == 0) continue;
+            depth[i] = depth[parent[i]] + 1;
+        }
+        for (int i = 0; i < n; i++) lengths[i] = depth[i];
+        return lengths;
+    }
+
+    // Canonical code assignment: shorter codes first, ties broken by symbol value
+    static int[] canonicalCodes(int[] lengths) {
+        int[] count = new int[MAX_CODE_LENGTH + 1];
+        for (int l : lengths) if (l > 0) count[l]++;
+        int[] nextCode = new int[MAX_CODE_LENGTH + 1];
+        int code = 0;
+        for (int len = 1; len <= MAX_CODE_LENGTH; len++) {
+            code = (code + count[len - 1]) << 1;
+            nextCode[len] = code;
+        }
+        int[] codes = new int[lengths.length];
+        for (int s = 0; s < lengths.length; s++) {
+            if (lengths[s] > 0) codes[s] = nextCode[lengths[s]]++;
+        }
+        return codes;
+    }
+
+    // MSB-first bit writer over a growable byte array
+    private static class BitWriter {
+        private byte[] buf = new byte[1024];
+        private int pos;
+        private long acc;
+        private int pending;
+
+        void write(int code, int len) {
+            acc = (acc << len) | code;
+            pending += len;
+            while (pending >= 8) {
+                pending -= 8;
+                if (pos == buf.length) buf = Arrays.copyOf(buf, buf.length * 2);
+                buf[pos++] = (byte) (acc >>> pending);
+            }
+        }
+
+        byte[] finish() {
+            if (pending > 0) {
+                write(0, 8 - pending);
+            }
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+}
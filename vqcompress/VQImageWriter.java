@@ -0,0 +1,311 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.function.Supplier;
+import java.util.zip.Adler32;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import javax.imageio.ImageIO;
+
+// Output sinks for decoded images, so decode-to-disk does not have to go through a single
+// threaded, lossy JPEG writer:
+//   PNG          lossless RGB with a configurable deflate level
+//   INDEXED_PNG  palette image whose palette is the codebook itself (tileSize 1, K <= 256)
+//   PPM          binary P6, written through memory-mapped strips
+//   RAW          headerless interleaved R,G,B bytes, written the same way
+//   JPEG         the old ImageIO path, kept for compatibility
+//
+// PNG output is built in strips of stripRows rows on the executor. Rows are stored unfiltered
+// (filter type 0): a decoded image repeats its codewords exactly, and the Sub/Up/Paeth filters
+// hide those repeats from deflate (plant.jpg at 4x4 tiles: 87 KB unfiltered, 137-186 KB with
+// any single filter or the per-row minimum-sum choice). Every strip is deflated on its own,
+// primed with the last 32 KB of the strip above as the dictionary, and ends on a sync flush,
+// so the strips join into one zlib stream. Each strip becomes one IDAT chunk; the Adler-32 of
+// the whole stream is combined from the strips' and written last.
+public class VQImageWriter {
+
+    public enum Format { PNG, INDEXED_PNG, PPM, RAW, JPEG }
+
+    static final int DEFAULT_PNG_LEVEL = 6;
+
+    private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1A, '\n'};
+    private static final int COLOR_TYPE_RGB = 2;
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+    private static final int ADLER_BASE = 65521;
+
+    // Deflate level for PNG output (0 = stored, 1 = fastest ... 9 = smallest)
+    int pngLevel = DEFAULT_PNG_LEVEL;
+    // Image rows per strip for the parallel PNG and mapped PPM/RAW writers
+    int stripRows = 64;
+    VQExecutor executor = VQExecutor.shared();
+    VQExecutor.Job job;
+
+    // Raw scanline y without the filter byte
+    private interface RowSource {
+        void row(int y, byte[] out);
+    }
+
+    // Checked when parsing options and before any PNG work, not first inside a pool task
+    static int checkPngLevel(int level) {
+        if (level < 0 || level > 9) {
+            throw new IllegalArgumentException("PNG deflate level must be 0..9: " + level);
+        }
+        return level;
+    }
+
+    // Format from a file name extension; anything unknown is written as PNG
+    public static Format formatFor(String path) {
+        String name = path.toLowerCase(Locale.ROOT);
+        if (name.endsWith(".ppm") || name.endsWith(".pnm")) {
+            return Format.PPM;
+        }
+        if (name.endsWith(".rgb") || name.endsWith(".raw")) {
+            return Format.RAW;
+        }
+        if (name.endsWith(".jpg") || name.endsWith(".jpeg")) {
+            return Format.JPEG;
+        }
+        return Format.PNG;
+    }
+
+    public static Format parseFormat(String name) {
+        switch (name.toLowerCase(Locale.ROOT)) {
+            case "png": return Format.PNG;
+            case "indexed": return Format.INDEXED_PNG;
+            case "ppm": return Format.PPM;
+            case "raw": case "rgb": return Format.RAW;
+            case "jpg": case "jpeg": return Format.JPEG;
+            default: throw new IllegalArgumentException("Unknown output format: " + name);
+        }
+    }
+
+    public void write(BufferedImage image, Path path) throws IOException {
+        write(image, formatFor(path.toString()), path);
+    }
+
+    public void write(BufferedImage image, Format format, Path path) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        switch (format) {
+            case PNG:
+                writePng(path, width, height, COLOR_TYPE_RGB, 8, null, () -> {
+                    int[] argb = new int[width];
+                    return (y, out) -> VQTileStore.readRgbRow(image, y, width, out, argb);
+                });
+                break;
+            case PPM:
+            case RAW:
+                byte[] header = format == Format.PPM
+                        ? ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII)
+                        : new byte[0];
+                writeMapped(image, header, path);
+                break;
+            case JPEG:
+                if (!ImageIO.write(image, "jpg", path.toFile())) {
+                    throw new IOException("No JPEG writer available");
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Indexed output is written from the container, see writeIndexed");
+        }
+    }
+
+    // One palette entry per codeword and one index per pixel. Needs a plain single-stage RGB
+    // container with 1x1 tiles and at most 256 codewords; the bit depth shrinks for small codebooks.
+    public void writeIndexed(VQContainer container, Path path) throws IOException {
+        if (container.tileSize != 1 || container.stages > 1 || container.levels > 1
+                || container.colorSpace != VQContainer.COLOR_RGB || container.codeBookSize > 256) {
+            throw new IllegalArgumentException("Indexed output needs 1x1 tiles, one stage and at most 256 codewords");
+        }
+        int size = container.codeBookSize;
+        int channels = container.channels;
+        byte[] palette = new byte[size * 3];
+        for (int k = 0; k < size; k++) {
+            for (int c = 0; c < 3; c++) {
+                palette[k * 3 + c] = container.codeBook[k * channels + Math.min(c, channels - 1)];
+            }
+        }
+        int bits = size <= 2 ? 1 : size <= 4 ? 2 : size <= 16 ? 4 : 8;
+        int perByte = 8 / bits;
+        int[][] indices = container.indices;
+        int width = container.imageWidth;
+        writePng(path, width, container.imageHeight, COLOR_TYPE_INDEXED, bits, palette, () -> (y, out) -> {
+            int[] row = indices[y];
+            if (bits == 8) {
+                for (int x = 0; x < width; x++) out[x] = (byte) row[x];
+                return;
+            }
+            Arrays.fill(out, (byte) 0);
+            for (int x = 0; x < width; x++) {
+                out[x / perByte] |= (byte) (row[x] << (8 - bits * (x % perByte + 1)));
+            }
+        });
+    }
+
+    private void writePng(Path path, int width, int height, int colorType, int bitDepth, byte[] palette,
+                          Supplier<RowSource> sources) throws IOException {
+        // sources gives each worker its own row reader (with its own scratch buffers)
+        checkPngLevel(pngLevel);
+        int bitsPerPixel = bitDepth * (colorType == COLOR_TYPE_RGB ? 3 : 1);
+        int rowBytes = (int) (((long) width * bitsPerPixel + 7) / 8);
+        int strips = Math.max(1, (height + stripRows - 1) / stripRows);
+
+        // Pass 1: lay out every strip's scanlines and checksum them
+        byte[][] filtered = new byte[strips][];
+        long[] adlers = new long[strips];
+        executor.parallelFor(strips, 1, (from, to) -> {
+            RowSource source = sources.get();
+            byte[] row = new byte[rowBytes];
+            for (int s = from; s < to; s++) {
+                int y0 = s * stripRows;
+                int y1 = Math.min(height, y0 + stripRows);
+                byte[] data = new byte[(y1 - y0) * (rowBytes + 1)];
+                for (int y = y0, o = 0; y < y1; y++, o += rowBytes + 1) {
+                    source.row(y, row);
+                    System.arraycopy(row, 0, data, o + 1, rowBytes);
+                }
+                Adler32 adler = new Adler32();
+                adler.update(data);
+                adlers[s] = adler.getValue();
+                filtered[s] = data;
+            }
+        }, job);
+
+        // Pass 2: deflate every strip into its own IDAT chunk
+        byte[][] chunks = new byte[strips][];
+        executor.parallelFor(strips, 1, (from, to) -> {
+            byte[] buffer = new byte[64 * 1024];
+            for (int s = from; s < to; s++) {
+                Deflater deflater = new Deflater(pngLevel, true);
+                ByteArrayOutputStream out = new ByteArrayOutputStream(filtered[s].length / 2 + 64);
+                if (s == 0) {
+                    out.write(0x78);
+                    out.write(zlibFlags(pngLevel));
+                } else if (pngLevel != 0) {
+                    byte[] above = filtered[s - 1];
+                    int n = Math.min(DICTIONARY_SIZE, above.length);
+                    deflater.setDictionary(above, above.length - n, n);
+                }
+                deflater.setInput(filtered[s]);
+                if (s == strips - 1) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        out.write(buffer, 0, deflater.deflate(buffer));
+                    }
+                } else {
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        out.write(buffer, 0, n);
+                    } while (n == buffer.length || !deflater.needsInput());
+                }
+                deflater.end();
+                chunks[s] = chunk("IDAT", out.toByteArray());
+            }
+        }, job);
+
+        long adler = adlers[0];
+        for (int s = 1; s < strips; s++) {
+            adler = adler32Combine(adler, adlers[s], filtered[s].length);
+        }
+        ByteBuffer header = ByteBuffer.allocate(13);
+        header.putInt(width).putInt(height).put((byte) bitDepth).put((byte) colorType)
+                .put((byte) 0).put((byte) 0).put((byte) 0);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(ch, ByteBuffer.wrap(PNG_SIGNATURE));
+            writeFully(ch, ByteBuffer.wrap(chunk("IHDR", header.array())));
+            if (palette != null) {
+                writeFully(ch, ByteBuffer.wrap(chunk("PLTE", palette)));
+            }
+            for (byte[] c : chunks) {
+                writeFully(ch, ByteBuffer.wrap(c));
+            }
+            writeFully(ch, ByteBuffer.wrap(chunk("IDAT", ByteBuffer.allocate(4).putInt((int) adler).array())));
+            writeFully(ch, ByteBuffer.wrap(chunk("IEND", new byte[0])));
+        }
+    }
+
+    // Second zlib header byte: compression level hint, with FCHECK making the header a multiple of 31
+    private static int zlibFlags(int level) {
+        int hint = level <= 1 ? 0 : level <= 5 ? 1 : level == 6 || level < 0 ? 2 : 3;
+        int flags = hint << 6;
+        return flags + (31 - (0x78 * 256 + flags) % 31) % 31;
+    }
+
+    // Adler-32 of two concatenated blocks from their checksums (as zlib's adler32_combine)
+    static long adler32Combine(long adler1, long adler2, long length2) {
+        long rem = length2 % ADLER_BASE;
+        long sum1 = adler1 & 0xFFFF;
+        long sum2 = (rem * sum1) % ADLER_BASE;
+        sum1 += (adler2 & 0xFFFF) + ADLER_BASE - 1;
+        sum2 += ((adler1 >> 16) & 0xFFFF) + ((adler2 >> 16) & 0xFFFF) + ADLER_BASE - rem;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum1 >= ADLER_BASE) sum1 -= ADLER_BASE;
+        if (sum2 >= 2L * ADLER_BASE) sum2 -= 2L * ADLER_BASE;
+        if (sum2 >= ADLER_BASE) sum2 -= ADLER_BASE;
+        return sum1 | (sum2 << 16);
+    }
+
+    // length, type, data, CRC-32 of type and data
+    private static byte[] chunk(String type, byte[] data) {
+        ByteBuffer chunk = ByteBuffer.allocate(12 + data.length);
+        chunk.putInt(data.length);
+        chunk.put(type.getBytes(StandardCharsets.US_ASCII));
+        chunk.put(data);
+        CRC32 crc = new CRC32();
+        crc.update(chunk.array(), 4, 4 + data.length);
+        chunk.putInt((int) crc.getValue());
+        return chunk.array();
+    }
+
+    // header followed by the interleaved RGB pixels; each strip maps and fills its own region
+    private void writeMapped(BufferedImage image, byte[] header, Path path) throws IOException {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        long rowBytes = 3L * width;
+        int strips = Math.max(1, (height + stripRows - 1) / stripRows);
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeFully(ch, ByteBuffer.wrap(header));
+            executor.parallelFor(strips, 1, (from, to) -> {
+                byte[] rgb = new byte[(int) rowBytes];
+                int[] argb = new int[width];
+                for (int s = from; s < to; s++) {
+                    int y0 = s * stripRows;
+                    int y1 = Math.min(height, y0 + stripRows);
+                    try {
+                        MappedByteBuffer region = ch.map(FileChannel.MapMode.READ_WRITE,
+                                header.length + rowBytes * y0, rowBytes * (y1 - y0));
+                        for (int y = y0; y < y1; y++) {
+                            VQTileStore.readRgbRow(image, y, width, rgb, argb);
+                            region.put(rgb);
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }
+            }, job);
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static void writeFully(FileChannel ch, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            ch.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package vqcompress;
+
+import java.io.PrintStream;
+import java.util.logging.Formatter;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+// Progress messages of the codec classes ("Codebook trained with ...", "Image reconstructed
+// ..."). They are logged at FINE on the "vqcompress" java.util.logging logger, so code using
+// the library stays silent unless it turns that logger up. The command line tools call
+// console() to print them on stdout.
+final class VQLog {
+
+    private static final Logger LOGGER = Logger.getLogger("vqcompress");
+    private static boolean console;
+
+    private VQLog() {
+    }
+
+    static void progress(String message) {
+        LOGGER.fine(message);
+    }
+
+    // Fallbacks the caller may want to know about, such as an output format that is not possible
+    static void warning(String message) {
+        LOGGER.warning(message);
+    }
+
+    // Print progress on stdout, one plain line per message
+    static synchronized void console() {
+        if (console) {
+            return;
+        }
+        console = true;
+        PrintStream out = System.out;
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                if (isLoggable(record)) {
+                    out.println(getFormatter().formatMessage(record));
+                }
+            }
+
+            @Override
+            public void flush() {
+                out.flush();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        handler.setFormatter(new Formatter() {
+            @Override
+            public String format(LogRecord record) {
+                return formatMessage(record);
+            }
+        });
+        handler.setLevel(Level.FINE);
+        LOGGER.addHandler(handler);
+        LOGGER.setUseParentHandlers(false);
+        LOGGER.setLevel(Level.FINE);
+    }
+}
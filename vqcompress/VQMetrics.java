@@ -0,0 +1,233 @@
+package vqcompress;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+// Measurements of one compress or decompress run: per-stage wall and CPU time with item
+// counts, raw (pixel) and compressed byte counts, the distortion of every training
+// iteration and the PSNR/SSIM of the reconstruction. Events are also forwarded to listeners
+// as they happen.
+//
+// Stages are reported once per pipeline step, never per tile, so a run costs a few clock
+// reads and small array appends. CPU time is process-wide (it includes the pool workers), so
+// it over-counts when several runs overlap, e.g. VQBatch with more than one worker.
+public class VQMetrics {
+
+    // Receives events from the run a VQMetrics is attached to; called on the thread that
+    // finished the stage, so implementations must be thread-safe when shared between runs.
+    public interface Listener {
+        default void stageCompleted(String stage, long wallNanos, long cpuNanos, long items) {
+        }
+
+        default void trainingIteration(int codeBookSize, int iteration, double distortion) {
+        }
+
+        default void sizes(long rawBytes, long compressedBytes) {
+        }
+
+        default void quality(double psnr, double ssim) {
+        }
+    }
+
+    private static final com.sun.management.OperatingSystemMXBean OS = processBean();
+
+    private final List<Listener> listeners = new ArrayList<>();
+
+    // Stages in completion order
+    private String[] stageNames = new String[8];
+    private long[] stageWall = new long[8];
+    private long[] stageCpu = new long[8];
+    private long[] stageItems = new long[8];
+    private int stages;
+
+    // Training history: codebook size, iteration within that size, mean squared error per value
+    private int[] trainingSize = new int[32];
+    private int[] trainingIteration = new int[32];
+    private double[] trainingDistortion = new double[32];
+    private int trainingSteps;
+
+    private long rawBytes = -1;
+    private long compressedBytes = -1;
+    private double psnr = Double.NaN;
+    private double ssim = Double.NaN;
+
+    public VQMetrics(Listener... listeners) {
+        this.listeners.addAll(Arrays.asList(listeners));
+    }
+
+    public synchronized VQMetrics addListener(Listener listener) {
+        listeners.add(listener);
+        return this;
+    }
+
+    // Process CPU time in nanoseconds, or -1 when the JVM does not expose it
+    public static long cpuTime() {
+        return OS != null ? OS.getProcessCpuTime() : -1;
+    }
+
+    private static com.sun.management.OperatingSystemMXBean processBean() {
+        OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+        return os instanceof com.sun.management.OperatingSystemMXBean
+                ? (com.sun.management.OperatingSystemMXBean) os : null;
+    }
+
+    // Record a finished stage that started at System.nanoTime() == startWall, cpuTime() == startCpu
+    public void stage(String name, long startWall, long startCpu, long items) {
+        long wall = System.nanoTime() - startWall;
+        long cpu = startCpu >= 0 ? cpuTime() - startCpu : -1;
+        synchronized (this) {
+            if (stages == stageNames.length) {
+                int n = stages * 2;
+                stageNames = Arrays.copyOf(stageNames, n);
+                stageWall = Arrays.copyOf(stageWall, n);
+                stageCpu = Arrays.copyOf(stageCpu, n);
+                stageItems = Arrays.copyOf(stageItems, n);
+            }
+            stageNames[stages] = name;
+            stageWall[stages] = wall;
+            stageCpu[stages] = cpu;
+            stageItems[stages] = items;
+            stages++;
+        }
+        for (Listener l : listeners()) {
+            l.stageCompleted(name, wall, cpu, items);
+        }
+    }
+
+    public void trainingIteration(int codeBookSize, int iteration, double distortion) {
+        synchronized (this) {
+            if (trainingSteps == trainingSize.length) {
+                int n = trainingSteps * 2;
+                trainingSize = Arrays.copyOf(trainingSize, n);
+                trainingIteration = Arrays.copyOf(trainingIteration, n);
+                trainingDistortion = Arrays.copyOf(trainingDistortion, n);
+            }
+            trainingSize[trainingSteps] = codeBookSize;
+            trainingIteration[trainingSteps] = iteration;
+            trainingDistortion[trainingSteps] = distortion;
+            trainingSteps++;
+        }
+        for (Listener l : listeners()) {
+            l.trainingIteration(codeBookSize, iteration, distortion);
+        }
+    }
+
+    // Pixel bytes (width * height * 3) and container bytes; -1 for a side the stage did not see.
+    // An encode reads the raw side and writes the compressed one, a decode the reverse.
+    public void sizes(long raw, long compressed) {
+        synchronized (this) {
+            if (raw >= 0) rawBytes = raw;
+            if (compressed >= 0) compressedBytes = compressed;
+        }
+        for (Listener l : listeners()) {
+            l.sizes(raw, compressed);
+        }
+    }
+
+    public void quality(double psnr, double ssim) {
+        synchronized (this) {
+            this.psnr = psnr;
+            this.ssim = ssim;
+        }
+        for (Listener l : listeners()) {
+            l.quality(psnr, ssim);
+        }
+    }
+
+    private synchronized Listener[] listeners() {
+        return listeners.toArray(new Listener[0]);
+    }
+
+    public synchronized long wallNanos(String stage) {
+        int i = indexOf(stage);
+        return i < 0 ? -1 : stageWall[i];
+    }
+
+    public synchronized long cpuNanos(String stage) {
+        int i = indexOf(stage);
+        return i < 0 ? -1 : stageCpu[i];
+    }
+
+    // Items (tiles) per second for a stage, or NaN when it did not run
+    public synchronized double itemsPerSecond(String stage) {
+        int i = indexOf(stage);
+        return i < 0 || stageWall[i] == 0 ? Double.NaN : stageItems[i] * 1e9 / stageWall[i];
+    }
+
+    private int indexOf(String stage) {
+        for (int i = stages - 1; i >= 0; i--) {
+            if (stageNames[i].equals(stage)) return i;
+        }
+        return -1;
+    }
+
+    public synchronized long rawBytes() {
+        return rawBytes;
+    }
+
+    public synchronized long compressedBytes() {
+        return compressedBytes;
+    }
+
+    // Raw size over compressed size, or NaN when either is unknown
+    public synchronized double compressionRatio() {
+        return rawBytes > 0 && compressedBytes > 0 ? (double) rawBytes / compressedBytes : Double.NaN;
+    }
+
+    public synchronized double psnr() {
+        return psnr;
+    }
+
+    public synchronized double ssim() {
+        return ssim;
+    }
+
+    public synchronized int trainingIterations() {
+        return trainingSteps;
+    }
+
+    // One JSON object with everything recorded so far
+    public synchronized String toJson() {
+        StringBuilder sb = new StringBuilder(256 + 96 * stages + 64 * trainingSteps);
+        sb.append("{\"stages\":[");
+        for (int i = 0; i < stages; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"name\":\"").append(stageNames[i]).append('"')
+              .append(",\"wallNanos\":").append(stageWall[i])
+              .append(",\"cpuNanos\":").append(stageCpu[i])
+              .append(",\"items\":").append(stageItems[i])
+              .append(",\"itemsPerSecond\":").append(number(stageWall[i] == 0
+                      ? Double.NaN : stageItems[i] * 1e9 / stageWall[i]))
+              .append('}');
+        }
+        sb.append("],\"training\":[");
+        for (int i = 0; i < trainingSteps; i++) {
+            if (i > 0) sb.append(',');
+            sb.append("{\"codeBookSize\":").append(trainingSize[i])
+              .append(",\"iteration\":").append(trainingIteration[i])
+              .append(",\"distortion\":").append(number(trainingDistortion[i]))
+              .append('}');
+        }
+        sb.append("],\"rawBytes\":").append(rawBytes)
+          .append(",\"compressedBytes\":").append(compressedBytes)
+          .append(",\"compressionRatio\":").append(number(compressionRatio()))
+          .append(",\"psnr\":").append(number(psnr))
+          .append(",\"ssim\":").append(number(ssim))
+          .append('}');
+        return sb.toString();
+    }
+
+    // JSON has no NaN/Infinity
+    private static String number(double v) {
+        return Double.isNaN(v) || Double.isInfinite(v) ? "null" : String.format(Locale.ROOT, "%.4f", v);
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
@@ -0,0 +1,128 @@
+package vqcompress;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Listener that aggregates every run it is attached to and publishes the totals as an MXBean
+// (vqcompress:type=VQMetrics,name=...), for JConsole or a JMX exporter to scrape.
+public class VQMetricsJmx implements VQMetrics.Listener, VQMetricsMXBean {
+
+    // [wall, cpu, items] totals per stage name
+    private final Map<String, LongAdder[]> stages = new ConcurrentHashMap<>();
+    private final LongAdder rawBytes = new LongAdder();
+    private final LongAdder compressedBytes = new LongAdder();
+    private final LongAdder trainingIterations = new LongAdder();
+    // Doubles stored as raw long bits so updates stay lock-free
+    private final AtomicLong lastPsnr = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+    private final AtomicLong lastSsim = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+    private final AtomicLong lastDistortion = new AtomicLong(Double.doubleToRawLongBits(Double.NaN));
+
+    // Create a listener and register it with the platform MBean server
+    public static VQMetricsJmx register(String name) throws JMException {
+        VQMetricsJmx bean = new VQMetricsJmx();
+        ManagementFactory.getPlatformMBeanServer().registerMBean(bean,
+                new ObjectName("vqcompress:type=VQMetrics,name=" + ObjectName.quote(name)));
+        return bean;
+    }
+
+    @Override
+    public void stageCompleted(String stage, long wallNanos, long cpuNanos, long items) {
+        LongAdder[] totals = stages.computeIfAbsent(stage,
+                k -> new LongAdder[] {new LongAdder(), new LongAdder(), new LongAdder()});
+        totals[0].add(wallNanos);
+        if (cpuNanos >= 0) totals[1].add(cpuNanos);
+        totals[2].add(items);
+    }
+
+    @Override
+    public void trainingIteration(int codeBookSize, int iteration, double distortion) {
+        trainingIterations.increment();
+        lastDistortion.set(Double.doubleToRawLongBits(distortion));
+    }
+
+    @Override
+    public void sizes(long raw, long compressed) {
+        if (raw > 0) rawBytes.add(raw);
+        if (compressed > 0) compressedBytes.add(compressed);
+    }
+
+    @Override
+    public void quality(double psnr, double ssim) {
+        lastPsnr.set(Double.doubleToRawLongBits(psnr));
+        lastSsim.set(Double.doubleToRawLongBits(ssim));
+    }
+
+    private Map<String, Long> column(int c) {
+        Map<String, Long> result = new TreeMap<>();
+        stages.forEach((name, totals) -> result.put(name, totals[c].sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getStageWallNanos() {
+        return column(0);
+    }
+
+    @Override
+    public Map<String, Long> getStageCpuNanos() {
+        return column(1);
+    }
+
+    @Override
+    public Map<String, Long> getStageItems() {
+        return column(2);
+    }
+
+    @Override
+    public long getRawBytes() {
+        return rawBytes.sum();
+    }
+
+    @Override
+    public long getCompressedBytes() {
+        return compressedBytes.sum();
+    }
+
+    @Override
+    public double getCompressionRatio() {
+        long out = compressedBytes.sum();
+        return out > 0 ? (double) rawBytes.sum() / out : Double.NaN;
+    }
+
+    @Override
+    public double getLastPsnr() {
+        return Double.longBitsToDouble(lastPsnr.get());
+    }
+
+    @Override
+    public double getLastSsim() {
+        return Double.longBitsToDouble(lastSsim.get());
+    }
+
+    @Override
+    public double getLastTrainingDistortion() {
+        return Double.longBitsToDouble(lastDistortion.get());
+    }
+
+    @Override
+    public long getTrainingIterations() {
+        return trainingIterations.sum();
+    }
+
+    @Override
+    public void reset() {
+        stages.clear();
+        rawBytes.reset();
+        compressedBytes.reset();
+        trainingIterations.reset();
+        lastPsnr.set(Double.doubleToRawLongBits(Double.NaN));
+        lastSsim.set(Double.doubleToRawLongBits(Double.NaN));
+        lastDistortion.set(Double.doubleToRawLongBits(Double.NaN));
+    }
+}
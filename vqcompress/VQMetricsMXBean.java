@@ -0,0 +1,29 @@
+package vqcompress;
+
+import java.util.Map;
+
+// JMX view of VQMetricsJmx: totals over every run reported to it, plus the latest quality
+public interface VQMetricsMXBean {
+
+    Map<String, Long> getStageWallNanos();
+
+    Map<String, Long> getStageCpuNanos();
+
+    Map<String, Long> getStageItems();
+
+    long getRawBytes();
+
+    long getCompressedBytes();
+
+    double getCompressionRatio();
+
+    double getLastPsnr();
+
+    double getLastSsim();
+
+    double getLastTrainingDistortion();
+
+    long getTrainingIterations();
+
+    void reset();
+}
@@ -0,0 +1,326 @@
+package vqcompress;
+
+// Immutable compression settings. Start from DEFAULT (or forQuality) and derive variants
+// with the with* methods; instances can be shared freely between threads.
+public final class VQOptions {
+
+    public static final VQOptions DEFAULT =
+            new VQOptions(8, 128, VQContainer.CODING_HUFFMAN_CONTEXT, VQSearch.Mode.SORTED, null, -1, 1, false,
+                    VQContainer.COLOR_RGB, 0, 0, 32, 0, 0, 0, 0, 0, null);
+
+    private final int tileSize;
+    private final int codeBookSize;
+    private final int indexCoding;
+    private final VQSearch.Mode searchMode;
+    private final VQCodebookLibrary.Codebook sharedCodebook;
+    private final int restartRows;
+    private final int stages;
+    private final boolean treeStructured;
+    private final int colorSpace;
+    private final int chromaCodeBookSize;
+    private final int minTileSize;
+    private final double targetPsnr;
+    private final double targetBitsPerPixel;
+    private final int trainingSample;
+    private final int trainingBatch;
+    private final long trainingMillis;
+    private final int trainingIterations;
+    private final byte[] warmStart;
+
+    private VQOptions(int tileSize, int codeBookSize, int indexCoding, VQSearch.Mode searchMode,
+                      VQCodebookLibrary.Codebook sharedCodebook, int restartRows, int stages,
+                      boolean treeStructured, int colorSpace, int chromaCodeBookSize,
+                      int minTileSize, double targetPsnr, double targetBitsPerPixel,
+                      int trainingSample, int trainingBatch, long trainingMillis, int trainingIterations,
+                      byte[] warmStart) {
+        if (tileSize <= 0 || tileSize > VQContainer.MAX_TILE_SIZE) {
+            throw new IllegalArgumentException("tileSize must be 1.." + VQContainer.MAX_TILE_SIZE + ": " + tileSize);
+        }
+        if (codeBookSize <= 0 || codeBookSize > VQHuffmanCoder.MAX_CODEBOOK_SIZE) {
+            throw new IllegalArgumentException("codeBookSize must be 1.." + VQHuffmanCoder.MAX_CODEBOOK_SIZE
+                    + ": " + codeBookSize);
+        }
+        if (indexCoding < VQContainer.CODING_PACKED || indexCoding > VQContainer.CODING_HUFFMAN_CONTEXT) {
+            throw new IllegalArgumentException("Unknown index coding: " + indexCoding);
+        }
+        if (searchMode == null) {
+            throw new IllegalArgumentException("searchMode must not be null");
+        }
+        if (stages < 1 || stages > 255) {
+            throw new IllegalArgumentException("stages must be 1..255: " + stages);
+        }
+        if (colorSpace != VQContainer.COLOR_RGB && colorSpace != VQContainer.COLOR_YCBCR_420) {
+            throw new IllegalArgumentException("Unknown colour space: " + colorSpace);
+        }
+        if (chromaCodeBookSize < 0 || chromaCodeBookSize > VQHuffmanCoder.MAX_CODEBOOK_SIZE) {
+            throw new IllegalArgumentException("chromaCodeBookSize must be 0.." + VQHuffmanCoder.MAX_CODEBOOK_SIZE
+                    + ": " + chromaCodeBookSize);
+        }
+        if (minTileSize < 0 || targetBitsPerPixel < 0) {
+            throw new IllegalArgumentException("minTileSize and targetBitsPerPixel must not be negative");
+        }
+        if (minTileSize > 0 && minTileSize >= tileSize) {
+            // A single tile size is plain fixed-tile coding, which has no quadtree layout
+            throw new IllegalArgumentException("Quadtree minTileSize " + minTileSize
+                    + " must be smaller than tileSize " + tileSize);
+        }
+        if (trainingSample < 0 || trainingBatch < 0 || trainingMillis < 0 || trainingIterations < 0) {
+            throw new IllegalArgumentException("Training sample, batch and budgets must not be negative");
+        }
+        this.tileSize = tileSize;
+        this.codeBookSize = codeBookSize;
+        this.indexCoding = indexCoding;
+        this.searchMode = searchMode;
+        this.sharedCodebook = sharedCodebook;
+        this.restartRows = restartRows;
+        this.stages = stages;
+        this.treeStructured = treeStructured;
+        this.colorSpace = colorSpace;
+        this.chromaCodeBookSize = chromaCodeBookSize;
+        this.minTileSize = minTileSize;
+        this.targetPsnr = targetPsnr;
+        this.targetBitsPerPixel = targetBitsPerPixel;
+        this.trainingSample = trainingSample;
+        this.trainingBatch = trainingBatch;
+        this.trainingMillis = trainingMillis;
+        this.trainingIterations = trainingIterations;
+        this.warmStart = warmStart;
+    }
+
+    // The UI's quality presets: 1 = 256 codewords, 2 = 128, 3 = 16
+    public static VQOptions forQuality(int qualityOption, int tileSize) {
+        int size;
+        switch (qualityOption) {
+            case 1: size = 256; break;
+            case 3: size = 16; break;
+            default: size = 128; break;
+        }
+        return DEFAULT.withTileSize(tileSize).withCodeBookSize(size);
+    }
+
+    public int tileSize() {
+        return tileSize;
+    }
+
+    public int codeBookSize() {
+        return codeBookSize;
+    }
+
+    public int indexCoding() {
+        return indexCoding;
+    }
+
+    public VQSearch.Mode searchMode() {
+        return searchMode;
+    }
+
+    // Pretrained codebook used instead of training per image, or null
+    public VQCodebookLibrary.Codebook sharedCodebook() {
+        return sharedCodebook;
+    }
+
+    public VQOptions withTileSize(int tileSize) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    public VQOptions withCodeBookSize(int codeBookSize) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    public VQOptions withIndexCoding(int indexCoding) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    public VQOptions withSearchMode(VQSearch.Mode searchMode) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // Tile rows per independently decodable group of the container's row index, which lets
+    // VQRegionDecoder decode regions without reading the whole file; -1 picks about 64 pixels,
+    // 0 writes a single index stream without an index
+    public int restartRows() {
+        return restartRows;
+    }
+
+    public VQOptions withRestartRows(int restartRows) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // Residual VQ stages, each adding a codebook that codes what the earlier stages left over
+    public int stages() {
+        return stages;
+    }
+
+    public VQOptions withStages(int stages) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // Tree-structured codebooks: log-time encoder search for a little extra distortion
+    public boolean treeStructured() {
+        return treeStructured;
+    }
+
+    public VQOptions withTreeStructured(boolean treeStructured) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // VQContainer.COLOR_RGB, or COLOR_YCBCR_420 for luma tiles plus 4:2:0 chroma tiles with
+    // separate codebooks
+    public int colorSpace() {
+        return colorSpace;
+    }
+
+    public VQOptions withColorSpace(int colorSpace) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // Chroma codewords in COLOR_YCBCR_420 (0 = same as codeBookSize)
+    public int chromaCodeBookSize() {
+        return chromaCodeBookSize;
+    }
+
+    public VQOptions withChromaCodeBookSize(int chromaCodeBookSize) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // Quadtree mode: with minTileSize > 0, tileSize is the largest tile and tiles split down to
+    // minTileSize (a power-of-two fraction of it) until they reach targetPsnr dB, or, with
+    // targetBitsPerPixel > 0, by error until the index budget is spent. Edge tiles are padded.
+    public int minTileSize() {
+        return minTileSize;
+    }
+
+    public double targetPsnr() {
+        return targetPsnr;
+    }
+
+    public double targetBitsPerPixel() {
+        return targetBitsPerPixel;
+    }
+
+    public VQOptions withQuadtree(int minTileSize, double targetPsnr) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, 0,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    public VQOptions withTargetBitsPerPixel(double targetBitsPerPixel) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // Training cost controls (0 = off): train on a stratified sample of trainingSample tiles,
+    // use mini-batch k-means with trainingBatch tiles per iteration, and stop refining after
+    // trainingMillis per image or trainingIterations per codebook, keeping the codebook so far
+    public int trainingSample() {
+        return trainingSample;
+    }
+
+    public int trainingBatch() {
+        return trainingBatch;
+    }
+
+    public long trainingMillis() {
+        return trainingMillis;
+    }
+
+    public int trainingIterations() {
+        return trainingIterations;
+    }
+
+    public VQOptions withTrainingSample(int trainingSample) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    public VQOptions withTrainingBatch(int trainingBatch) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    public VQOptions withTrainingBudget(long trainingMillis, int trainingIterations) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // Codewords to start training from instead of the image mean, e.g. the codebook of the
+    // previous frame (VQContainer.codeBook); the leading whole codewords are used. In quadtree
+    // mode it must be the codebook of a quadtree container with the same tile sizes and codebook
+    // size. The array is not copied, so do not modify it afterwards. null trains from scratch.
+    public byte[] warmStart() {
+        return warmStart;
+    }
+
+    public VQOptions withWarmStart(byte[] warmStart) {
+        return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                sharedCodebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    // Also adopts the codebook's tile and codebook sizes; pass null to train per image again
+    public VQOptions withSharedCodebook(VQCodebookLibrary.Codebook codebook) {
+        if (codebook == null) {
+            return new VQOptions(tileSize, codeBookSize, indexCoding, searchMode,
+                null, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+        }
+        return new VQOptions(codebook.tileSize, codebook.codeBookSize, indexCoding, searchMode,
+                codebook, restartRows, stages, treeStructured,
+                colorSpace, chromaCodeBookSize, minTileSize, targetPsnr, targetBitsPerPixel,
+                trainingSample, trainingBatch, trainingMillis, trainingIterations, warmStart);
+    }
+
+    @Override
+    public String toString() {
+        return "VQOptions[tileSize=" + tileSize + ", codeBookSize=" + codeBookSize
+                + ", indexCoding=" + indexCoding + ", searchMode=" + searchMode + ", restartRows=" + restartRows
+                + ", stages=" + stages + (treeStructured ? ", treeStructured" : "")
+                + (colorSpace == VQContainer.COLOR_YCBCR_420 ? ", YCbCr 4:2:0, chromaCodeBookSize=" + chromaCodeBookSize : "")
+                + (minTileSize > 0 ? ", quadtree down to " + minTileSize + (targetBitsPerPixel > 0
+                        ? " at " + targetBitsPerPixel + " bpp" : " at " + targetPsnr + " dB") : "")
+                + (trainingSample > 0 ? ", trainingSample=" + trainingSample : "")
+                + (trainingBatch > 0 ? ", trainingBatch=" + trainingBatch : "")
+                + (trainingMillis > 0 ? ", trainingMillis=" + trainingMillis : "")
+                + (trainingIterations > 0 ? ", trainingIterations=" + trainingIterations : "")
+                + (warmStart != null ? ", warmStart" : "")
+                + (sharedCodebook != null ? ", sharedCodebook=" + sharedCodebook.id : "") + "]";
+    }
+}
@@ -0,0 +1,89 @@
+package vqcompress;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Fixed-width coding: every index takes ceil(log2(codeBookSize)) bits, MSB-first
+public class VQPackedCoder implements VQEntropyCoder {
+
+    public int coding() {
+        return VQContainer.CODING_PACKED;
+    }
+
+    // Number of bits needed to store one index
+    static int indexBits(int codeBookSize) {
+        return codeBookSize <= 1 ? 0 : 32 - Integer.numberOfLeadingZeros(codeBookSize - 1);
+    }
+
+    public byte[] encode(int[][] indices, int codeBookSize) {
+        return encodeRows(indices, 0, indices.length, codeBookSize);
+    }
+
+    // Packed indices need no model
+    public byte[] encodeModel(int[][] indices, int rowsPerGroup, int codeBookSize) {
+        return new byte[0];
+    }
+
+    public void readModel(ByteBuffer in, int codeBookSize) {
+    }
+
+    // Bytes taken by rows tile rows of columns indices each
+    static long segmentSize(int rows, int columns, int codeBookSize) {
+        return ((long) rows * columns * indexBits(codeBookSize) + 7) / 8;
+    }
+
+    public byte[] encodeRows(int[][] indices, int from, int to, int codeBookSize) {
+        int bits = indexBits(codeBookSize);
+        long count = 0;
+        for (int r = from; r < to; r++) count += indices[r].length;
+        byte[] out = new byte[(int) ((count * bits + 7) / 8)];
+        int pos = 0;
+        long acc = 0;
+        int pending = 0;
+        for (int r = from; r < to; r++) {
+            for (int v : indices[r]) {
+                acc = (acc << bits) | v;
+                pending += bits;
+                while (pending >= 8) {
+                    pending -= 8;
+                    out[pos++] = (byte) (acc >>> pending);
+                }
+            }
+        }
+        if (pending > 0) {
+            out[pos] = (byte) (acc << (8 - pending));
+        }
+        return out;
+    }
+
+    public void decode(ByteBuffer in, int[][] indices, int codeBookSize) throws IOException {
+        decodeRows(in, indices, 0, indices.length, codeBookSize);
+    }
+
+    public void decodeRows(ByteBuffer in, int[][] indices, int from, int to, int codeBookSize) throws IOException {
+        int bits = indexBits(codeBookSize);
+        long count = 0;
+        for (int r = from; r < to; r++) count += indices[r].length;
+        if (count * bits > (long) in.remaining() * 8) {
+            throw new IOException("Truncated VQ index stream");
+        }
+        int mask = (1 << bits) - 1;
+        long acc = 0;
+        int available = 0;
+        for (int r = from; r < to; r++) {
+            int[] row = indices[r];
+            for (int col = 0; col < row.length; col++) {
+                while (available < bits) {
+                    acc = (acc << 8) | (in.get() & 0xFF);
+                    available += 8;
+                }
+                available -= bits;
+                int v = (int) (acc >>> available) & mask;
+                if (v >= codeBookSize) {
+                    throw new IOException("Codebook index out of range: " + v);
+                }
+                row[col] = v;
+            }
+        }
+    }
+}
@@ -0,0 +1,412 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.Supplier;
+
+// Quadtree VQ with variable tile sizes. The image is padded to whole blocks of blockSize pixels
+// (edges repeated, so nothing is cropped). Every block is coded as one tile or split into four
+// quadrants, recursively down to minTileSize. Each tile size (level) has its own codebook:
+// codeBookSize vectors for the smallest tiles and a quarter as many per level up (see
+// VQContainer.levelCodeBookSize), so large tiles only pay off where few patterns cover them.
+//
+// Encoding runs top down, one level at a time: train the level's codebook on the tiles that
+// reached it, code them, then split the tiles that are still too far off. Without a bit budget
+// a tile splits while its MSE exceeds the MSE of targetPsnr. With targetBitsPerPixel > 0 the
+// budget left after the codebooks buys leaves at about log2(codeBookSize) bits each, and the
+// tiles with the largest squared error split first. Coding and split decisions run in parallel
+// over each level's tiles, which are kept in block order.
+//
+// Decoding (Layout) walks each block's split flags depth first: one bit per tile larger than
+// minTileSize (1 = split into top-left, top-right, bottom-left, bottom-right), and one index in
+// the level's list per leaf.
+public class VQQuadtree {
+
+    int blockSize = 16;
+    int minTileSize = 2;
+    int codeBookSize = 128;
+    double targetPsnr = 32;
+    double targetBitsPerPixel;
+    VQSearch.Mode searchMode = VQSearch.Mode.SORTED;
+    VQTileStore.Backing tileBacking = VQTileStore.Backing.HEAP;
+    VQExecutor executor = VQExecutor.shared();
+    VQExecutor.Job job;
+    VQMetrics metrics;
+    Supplier<VQCodebookTrainer> trainers; // configured trainer per level; null = defaults
+    byte[] warmStart;                     // every level's starting codewords, laid out as in the container
+
+    private int width, height;
+    private int paddedWidth;
+    private int blocksAcross, blocksDown;
+    private int levels;
+    private byte[] rgb;              // padded image, interleaved RGB rows of paddedWidth pixels
+
+    // Per level, in block order: tile positions, first child at the next level (-1 = leaf),
+    // codeword, and the level's codebook
+    private int[][] tileX;
+    private int[][] tileY;
+    private int[][] firstChild;
+    private int[][] codes;
+    private byte[][] codeBooks;
+
+    // Number of tile sizes from blockSize down to minTileSize (at least two)
+    static int levels(int blockSize, int minTileSize) {
+        if (minTileSize >= blockSize) {
+            throw new IllegalArgumentException("Quadtree minTileSize " + minTileSize
+                    + " must be smaller than the block size " + blockSize);
+        }
+        if (minTileSize <= 0 || blockSize % minTileSize != 0 || Integer.bitCount(blockSize / minTileSize) != 1) {
+            throw new IllegalArgumentException("Tile size " + blockSize + " must be a power-of-two multiple of "
+                    + minTileSize);
+        }
+        return Integer.numberOfTrailingZeros(blockSize / minTileSize) + 1;
+    }
+
+    public void load(BufferedImage image) {
+        levels = levels(blockSize, minTileSize);
+        width = image.getWidth();
+        height = image.getHeight();
+        blocksAcross = (width + blockSize - 1) / blockSize;
+        blocksDown = (height + blockSize - 1) / blockSize;
+        paddedWidth = blocksAcross * blockSize;
+        int paddedHeight = blocksDown * blockSize;
+        rgb = new byte[paddedWidth * paddedHeight * 3];
+        executor.parallelFor(paddedHeight, 0, (from, to) -> {
+            byte[] row = new byte[width * 3];
+            int[] scratch = new int[width];
+            for (int y = from; y < to; y++) {
+                int base = y * paddedWidth * 3;
+                if (y < height) {
+                    VQTileStore.readRgbRow(image, y, width, row, scratch);
+                    System.arraycopy(row, 0, rgb, base, width * 3);
+                    for (int x = width; x < paddedWidth; x++) {
+                        System.arraycopy(rgb, base + (width - 1) * 3, rgb, base + x * 3, 3);
+                    }
+                } else {
+                    System.arraycopy(rgb, (height - 1) * paddedWidth * 3, rgb, base, paddedWidth * 3);
+                }
+            }
+        }, job);
+    }
+
+    public int width() {
+        return width;
+    }
+
+    public int height() {
+        return height;
+    }
+
+    // Train every level's codebook and decide the splits (this also quantizes every tile)
+    public void build() {
+        tileX = new int[levels][];
+        tileY = new int[levels][];
+        firstChild = new int[levels][];
+        codes = new int[levels][];
+        codeBooks = new byte[levels][];
+        int blocks = blocksAcross * blocksDown;
+        tileX[0] = new int[blocks];
+        tileY[0] = new int[blocks];
+        for (int b = 0; b < blocks; b++) {
+            tileX[0][b] = (b % blocksAcross) * blockSize;
+            tileY[0][b] = (b / blocksAcross) * blockSize;
+        }
+        double targetMse = 255.0 * 255.0 / Math.pow(10, targetPsnr / 10);
+        long codeBookBits = 8 * VQContainer.quadtreeCodeBookBytes(blockSize, codeBookSize, 3, levels, levels);
+        long leafBudget = targetBitsPerPixel > 0
+                ? Math.max(blocks, (long) ((targetBitsPerPixel * width * height - codeBookBits)
+                        / Math.max(1, 32 - Integer.numberOfLeadingZeros(codeBookSize - 1))))
+                : Long.MAX_VALUE;
+        long leaves = blocks;
+        if (warmStart != null && warmStart.length != VQContainer.quadtreeCodeBookBytes(blockSize, codeBookSize, 3,
+                levels, levels)) {
+            throw new IllegalArgumentException("A quadtree warm start needs the codebooks of an image coded with the"
+                    + " same tile sizes and codebook size");
+        }
+        int warmOffset = 0;
+
+        for (int level = 0; level < levels; level++) {
+            int size = blockSize >> level;
+            int dim = size * size * 3;
+            int count = tileX[level].length;
+            VQTileStore tiles = new VQTileStore(count, dim, tileBacking);
+            int[] xs = tileX[level];
+            int[] ys = tileY[level];
+            executor.parallelFor(count, 0, (from, to) -> {
+                byte[] tile = new byte[dim];
+                for (int t = from; t < to; t++) {
+                    copyTile(xs[t], ys[t], size, tile);
+                    tiles.putTile(t, tile, 0);
+                }
+            }, job);
+
+            VQCodebookTrainer trainer;
+            if (trainers != null) {
+                trainer = trainers.get();
+            } else {
+                trainer = new VQCodebookTrainer();
+                trainer.executor = executor;
+                trainer.job = job;
+                trainer.metrics = metrics;
+            }
+            int levelSize = VQContainer.levelCodeBookSize(codeBookSize, levels, level);
+            if (warmStart != null) {
+                trainer.initialCodeBook = Arrays.copyOfRange(warmStart, warmOffset, warmOffset + levelSize * dim);
+                warmOffset += levelSize * dim;
+            }
+            byte[] codeBook = trainer.train(tiles, levelSize);
+            codeBooks[level] = codeBook;
+            VQSearch search = new VQSearch(codeBook, dim, searchMode);
+
+            int[] levelCodes = new int[count];
+            long[] error = new long[count];
+            executor.parallelFor(count, 0, (from, to) -> {
+                byte[] scratch = new byte[dim];
+                for (int t = from; t < to; t++) {
+                    byte[] tile = tiles.view(t, scratch);
+                    int off = tiles.viewOffset(t);
+                    int code = search.findClosest(tile, off);
+                    levelCodes[t] = code;
+                    error[t] = squaredError(tile, off, codeBook, code * dim, dim);
+                }
+            }, job);
+            codes[level] = levelCodes;
+            VQLog.progress("Quadtree level " + size + "x" + size + ": " + count + " tiles.");
+
+            firstChild[level] = new int[count];
+            Arrays.fill(firstChild[level], -1);
+            if (level == levels - 1) {
+                break;
+            }
+            boolean[] split = new boolean[count];
+            if (leafBudget == Long.MAX_VALUE) {
+                for (int t = 0; t < count; t++) {
+                    split[t] = error[t] > targetMse * dim;
+                }
+            } else {
+                // Largest errors first while the budget allows three more leaves per split
+                Integer[] order = new Integer[count];
+                for (int t = 0; t < count; t++) order[t] = t;
+                Arrays.sort(order, (a, b) -> Long.compare(error[b], error[a]));
+                for (int i = 0; i < count && leaves + 3 <= leafBudget && error[order[i]] > 0; i++) {
+                    split[order[i]] = true;
+                    leaves += 3;
+                }
+            }
+            int children = 0;
+            for (int t = 0; t < count; t++) {
+                if (split[t]) children += 4;
+            }
+            int half = size / 2;
+            int[] cx = new int[children];
+            int[] cy = new int[children];
+            int next = 0;
+            for (int t = 0; t < count; t++) {
+                if (!split[t]) continue;
+                firstChild[level][t] = next;
+                for (int q = 0; q < 4; q++, next++) {
+                    cx[next] = xs[t] + (q & 1) * half;
+                    cy[next] = ys[t] + (q >> 1) * half;
+                }
+            }
+            tileX[level + 1] = cx;
+            tileY[level + 1] = cy;
+        }
+    }
+
+    private void copyTile(int x, int y, int size, byte[] tile) {
+        for (int i = 0; i < size; i++) {
+            System.arraycopy(rgb, ((y + i) * paddedWidth + x) * 3, tile, i * size * 3, size * 3);
+        }
+    }
+
+    private static long squaredError(byte[] tile, int off, byte[] codeBook, int base, int dim) {
+        long e = 0;
+        for (int j = 0; j < dim; j++) {
+            int d = (tile[off + j] & 0xFF) - (codeBook[base + j] & 0xFF);
+            e += d * d;
+        }
+        return e;
+    }
+
+    // Source pixel as 0xRRGGBB (for quality measurement)
+    int sourcePixel(int x, int y) {
+        int p = (y * paddedWidth + x) * 3;
+        return (rgb[p] & 0xFF) << 16 | (rgb[p + 1] & 0xFF) << 8 | (rgb[p + 2] & 0xFF);
+    }
+
+    // Fill the quadtree fields of a container: codebooks of all levels back to back, split
+    // flags and per-level leaf indices in depth-first block order
+    void toContainer(VQContainer c) {
+        c.imageWidth = width;
+        c.imageHeight = height;
+        c.tileSize = blockSize;
+        c.codeBookSize = codeBookSize;
+        c.levels = levels;
+        int total = 0;
+        for (byte[] cb : codeBooks) total += cb.length;
+        c.codeBook = new byte[total];
+        for (int level = 0, off = 0; level < levels; level++) {
+            System.arraycopy(codeBooks[level], 0, c.codeBook, off, codeBooks[level].length);
+            off += codeBooks[level].length;
+        }
+        int flags = 0;
+        for (int level = 0; level < levels - 1; level++) flags += tileX[level].length;
+        byte[] bits = new byte[(flags + 7) / 8];
+        int[][] leaves = new int[levels][];
+        int[] leafCount = new int[levels];
+        for (int level = 0; level < levels; level++) {
+            int n = 0;
+            for (int child : firstChild[level]) if (child < 0) n++;
+            leaves[level] = new int[n];
+        }
+        int[] bit = {0};
+        for (int b = 0; b < tileX[0].length; b++) {
+            writeNode(0, b, bits, bit, leaves, leafCount);
+        }
+        c.splitBits = bit[0];
+        c.splitFlags = bits;
+        c.levelIndices = leaves;
+    }
+
+    private void writeNode(int level, int t, byte[] bits, int[] bit, int[][] leaves, int[] leafCount) {
+        int child = firstChild[level][t];
+        if (level < levels - 1) {
+            if (child >= 0) {
+                bits[bit[0] >> 3] |= (byte) (0x80 >>> (bit[0] & 7));
+            }
+            bit[0]++;
+        }
+        if (child < 0) {
+            leaves[level][leafCount[level]++] = codes[level][t];
+        } else {
+            for (int q = 0; q < 4; q++) {
+                writeNode(level + 1, child + q, bits, bit, leaves, leafCount);
+            }
+        }
+    }
+
+    // Decoder side view of a quadtree container: packed codewords per level and where every
+    // block's flags and leaves start, so blocks can be rendered independently
+    static final class Layout {
+        final VQContainer c;
+        final int blocksAcross, blocksDown;
+        private final int[][] pixels;        // [level] codewords as packed 0xRRGGBB
+        private final int[] flagStart;       // [block]
+        private final int[][] leafStart;     // [block][level]
+
+        Layout(VQContainer c) throws IOException {
+            this.c = c;
+            blocksAcross = (c.imageWidth + c.tileSize - 1) / c.tileSize;
+            blocksDown = (c.imageHeight + c.tileSize - 1) / c.tileSize;
+            pixels = new int[c.levels][];
+            for (int level = 0; level < c.levels; level++) {
+                int size = c.tileSize >> level;
+                pixels[level] = vectorQuantizationDecompress.packCodebook(Arrays.copyOfRange(c.codeBook,
+                        c.levelOffset(level), c.levelOffset(level + 1)), size, c.channels);
+            }
+            int blocks = blocksAcross * blocksDown;
+            flagStart = new int[blocks];
+            leafStart = new int[blocks][];
+            int[] bit = {0};
+            int[] leaf = new int[c.levels];
+            for (int b = 0; b < blocks; b++) {
+                flagStart[b] = bit[0];
+                leafStart[b] = leaf.clone();
+                count(0, bit, leaf);
+            }
+            for (int level = 0; level < c.levels; level++) {
+                if (leaf[level] != c.levelIndices[level].length) {
+                    throw new IOException("Corrupt VQ quadtree");
+                }
+            }
+        }
+
+        private void count(int level, int[] bit, int[] leaf) throws IOException {
+            if (level < c.levels - 1) {
+                if (bit[0] >= c.splitBits) {
+                    throw new IOException("Corrupt VQ quadtree");
+                }
+                if (flag(bit[0]++)) {
+                    for (int q = 0; q < 4; q++) count(level + 1, bit, leaf);
+                    return;
+                }
+            }
+            leaf[level]++;
+        }
+
+        private boolean flag(int i) {
+            return (c.splitFlags[i >> 3] & (0x80 >>> (i & 7))) != 0;
+        }
+
+        // Draw image pixels [x0, x1) x [y0, y1) into out (row stride outWidth, origin at x0, y0),
+        // one block row per task
+        void render(int[] out, int outWidth, int x0, int y0, int x1, int y1, VQExecutor executor, VQExecutor.Job job) {
+            int bs = c.tileSize;
+            int firstRow = y0 / bs;
+            int lastRow = (y1 - 1) / bs;
+            executor.parallelFor(lastRow - firstRow + 1, 1, (from, to) -> {
+                int[] bit = new int[1];
+                int[] leaf = new int[c.levels];
+                for (int row = firstRow + from; row < firstRow + to; row++) {
+                    for (int col = x0 / bs; col <= (x1 - 1) / bs; col++) {
+                        int b = row * blocksAcross + col;
+                        bit[0] = flagStart[b];
+                        System.arraycopy(leafStart[b], 0, leaf, 0, c.levels);
+                        draw(0, col * bs, row * bs, bit, leaf, out, outWidth, x0, y0, x1, y1);
+                    }
+                }
+            }, job);
+        }
+
+        private void draw(int level, int x, int y, int[] bit, int[] leaf, int[] out, int outWidth,
+                          int x0, int y0, int x1, int y1) {
+            int size = c.tileSize >> level;
+            if (level < c.levels - 1 && flag(bit[0]++)) {
+                int half = size / 2;
+                for (int q = 0; q < 4; q++) {
+                    draw(level + 1, x + (q & 1) * half, y + (q >> 1) * half, bit, leaf, out, outWidth, x0, y0, x1, y1);
+                }
+                return;
+            }
+            int code = c.levelIndices[level][leaf[level]++];
+            int xs = Math.max(x, x0), xe = Math.min(x + size, x1);
+            int ys = Math.max(y, y0), ye = Math.min(y + size, y1);
+            if (xs >= xe || ys >= ye) {
+                return;
+            }
+            int[] tile = pixels[level];
+            int base = code * size * size;
+            for (int py = ys; py < ye; py++) {
+                System.arraycopy(tile, base + (py - y) * size + (xs - x), out, (py - y0) * outWidth + (xs - x0), xe - xs);
+            }
+        }
+
+        // Mean colour of a block from its leaves' codeword means, weighted by area
+        int blockAverage(int block) {
+            int[] bit = {flagStart[block]};
+            int[] leaf = leafStart[block].clone();
+            long[] sum = new long[3];
+            average(0, bit, leaf, sum);
+            long area = (long) c.tileSize * c.tileSize;
+            return (int) ((sum[0] + area / 2) / area) << 16 | (int) ((sum[1] + area / 2) / area) << 8
+                    | (int) ((sum[2] + area / 2) / area);
+        }
+
+        private void average(int level, int[] bit, int[] leaf, long[] sum) {
+            int size = c.tileSize >> level;
+            if (level < c.levels - 1 && flag(bit[0]++)) {
+                for (int q = 0; q < 4; q++) average(level + 1, bit, leaf, sum);
+                return;
+            }
+            int[] tile = pixels[level];
+            int base = c.levelIndices[level][leaf[level]++] * size * size;
+            for (int p = base; p < base + size * size; p++) {
+                sum[0] += (tile[p] >> 16) & 0xFF;
+                sum[1] += (tile[p] >> 8) & 0xFF;
+                sum[2] += tile[p] & 0xFF;
+            }
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+
+// Reconstruction quality of a quantized image, computed from the source tiles and the chosen
+// codewords directly, so no reconstructed image is built. PSNR is over all RGB samples; SSIM
+// is the mean over 8x8 luma windows (the last row/column of windows may be smaller).
+// Residual stages are summed as the decoder does (see vectorQuantizationDecompress); YCbCr
+// output is compared against the source image instead, since no RGB tiles are kept.
+final class VQQuality {
+
+    private static final int WINDOW = 8;
+    private static final double C1 = (0.01 * 255) * (0.01 * 255);
+    private static final double C2 = (0.03 * 255) * (0.03 * 255);
+
+    private VQQuality() {
+    }
+
+    // 0xRRGGBB pixel at (x, y)
+    interface Pixels {
+        int rgb(int x, int y);
+    }
+
+    // Returns {psnr, ssim}; psnr is +Infinity for an exact reconstruction. codeBook holds the
+    // codebooks of all stages back to back and grids[stage] the indices of each stage.
+    static double[] measure(VQTileStore tiles, byte[] codeBook, int[][][] grids, int codeBookSize, int tileSize,
+                            int tilesPerRow, int tilesPerColumn, VQExecutor executor, VQExecutor.Job job) {
+        int dim = tiles.dim;
+        int stageSize = codeBookSize * dim;
+        Pixels source = (x, y) -> {
+            int tile = (y / tileSize) * tilesPerColumn + x / tileSize;
+            int j = ((y % tileSize) * tileSize + x % tileSize) * 3;
+            return tiles.get(tile, j) << 16 | tiles.get(tile, j + 1) << 8 | tiles.get(tile, j + 2);
+        };
+        Pixels quantized = (x, y) -> {
+            int row = y / tileSize;
+            int col = x / tileSize;
+            int j = ((y % tileSize) * tileSize + x % tileSize) * 3;
+            int cb = grids[0][row][col] * dim + j;
+            int r = codeBook[cb] & 0xFF, g = codeBook[cb + 1] & 0xFF, b = codeBook[cb + 2] & 0xFF;
+            if (grids.length > 1) {
+                for (int s = 1; s < grids.length; s++) {
+                    int rb = s * stageSize + grids[s][row][col] * dim + j;
+                    r += (codeBook[rb] & 0xFF) - VQContainer.RESIDUAL_OFFSET;
+                    g += (codeBook[rb + 1] & 0xFF) - VQContainer.RESIDUAL_OFFSET;
+                    b += (codeBook[rb + 2] & 0xFF) - VQContainer.RESIDUAL_OFFSET;
+                }
+                r = Math.max(0, Math.min(255, r));
+                g = Math.max(0, Math.min(255, g));
+                b = Math.max(0, Math.min(255, b));
+            }
+            return r << 16 | g << 8 | b;
+        };
+        return measure(tilesPerColumn * tileSize, tilesPerRow * tileSize, source, quantized, executor, job);
+    }
+
+    // YCbCr 4:2:0 coding (see VQColor) against the source image
+    static double[] measure(BufferedImage image, byte[] codeBook, int chromaOffset, int[][] lumaIndices,
+                            int[][] chromaIndices, int tileSize, int tilesPerRow, int tilesPerColumn,
+                            VQExecutor executor, VQExecutor.Job job) {
+        return measure(tilesPerColumn * tileSize, tilesPerRow * tileSize,
+                (x, y) -> image.getRGB(x, y) & 0xFFFFFF,
+                (x, y) -> VQColor.pixel(codeBook, chromaOffset, tileSize, lumaIndices, chromaIndices, x, y),
+                executor, job);
+    }
+
+    static double[] measure(int width, int height, Pixels source, Pixels quantized,
+                            VQExecutor executor, VQExecutor.Job job) {
+        int windowRows = (height + WINDOW - 1) / WINDOW;
+        int windowCols = (width + WINDOW - 1) / WINDOW;
+        if (windowRows == 0 || windowCols == 0) {
+            return new double[] {Double.NaN, Double.NaN};
+        }
+        // Per window row results, summed after the parallel pass
+        long[] squaredError = new long[windowRows];
+        double[] ssimSum = new double[windowRows];
+
+        executor.parallelFor(windowRows, 1, (from, to) -> {
+            double[] a = new double[WINDOW * WINDOW];
+            double[] b = new double[WINDOW * WINDOW];
+            for (int wr = from; wr < to; wr++) {
+                int y0 = wr * WINDOW;
+                int y1 = Math.min(height, y0 + WINDOW);
+                long se = 0;
+                double ssim = 0;
+                for (int wc = 0; wc < windowCols; wc++) {
+                    int x0 = wc * WINDOW;
+                    int x1 = Math.min(width, x0 + WINDOW);
+                    int n = 0;
+                    for (int y = y0; y < y1; y++) {
+                        for (int x = x0; x < x1; x++) {
+                            int p = source.rgb(x, y);
+                            int q = quantized.rgb(x, y);
+                            int r = p >> 16 & 0xFF, g = p >> 8 & 0xFF, bl = p & 0xFF;
+                            int qr = q >> 16 & 0xFF, qg = q >> 8 & 0xFF, qb = q & 0xFF;
+                            se += (r - qr) * (r - qr) + (g - qg) * (g - qg) + (bl - qb) * (bl - qb);
+                            a[n] = 0.299 * r + 0.587 * g + 0.114 * bl;
+                            b[n] = 0.299 * qr + 0.587 * qg + 0.114 * qb;
+                            n++;
+                        }
+                    }
+                    ssim += ssim(a, b, n);
+                }
+                squaredError[wr] = se;
+                ssimSum[wr] = ssim;
+            }
+        }, job);
+
+        long se = 0;
+        double ssim = 0;
+        for (int i = 0; i < windowRows; i++) {
+            se += squaredError[i];
+            ssim += ssimSum[i];
+        }
+        double mse = se / (3.0 * width * height);
+        double psnr = mse == 0 ? Double.POSITIVE_INFINITY : 10 * Math.log10(255.0 * 255.0 / mse);
+        return new double[] {psnr, ssim / ((double) windowRows * windowCols)};
+    }
+
+    private static double ssim(double[] a, double[] b, int n) {
+        double ma = 0, mb = 0;
+        for (int i = 0; i < n; i++) {
+            ma += a[i];
+            mb += b[i];
+        }
+        ma /= n;
+        mb /= n;
+        double va = 0, vb = 0, cov = 0;
+        for (int i = 0; i < n; i++) {
+            double da = a[i] - ma, db = b[i] - mb;
+            va += da * da;
+            vb += db * db;
+            cov += da * db;
+        }
+        va /= n;
+        vb /= n;
+        cov /= n;
+        return ((2 * ma * mb + C1) * (2 * cov + C2)) / ((ma * ma + mb * mb + C1) * (va + vb + C2));
+    }
+}
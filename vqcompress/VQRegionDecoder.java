@@ -0,0 +1,364 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+// Random-access reader for viewers and tile servers. The container is memory-mapped and only
+// its header, codebook and row index are parsed up front; decodeRegion() then decodes just the
+// row groups under the requested rectangle and writes just its pixels, and preview() renders
+// one pixel per tile from the codeword averages. Containers written without a row index
+// still work, but their index grid is decoded in full on first use. Residual containers can
+// be decoded with fewer stages than they hold for a quicker, coarser result. YCbCr 4:2:0
+// containers decode the chroma row groups under the region along with the luma ones.
+// Quadtree containers have no row index; their (small) index data is parsed up front and
+// only the blocks under the region are drawn.
+//
+// Instances are safe to share between threads.
+public class VQRegionDecoder {
+
+    private final VQContainer header;             // geometry and codebook; indices unused
+    private final VQContainer.RowIndex[] index;   // [area], null for single-stream containers
+    private final ByteBuffer indexData;           // single-stream index data, decoded lazily
+    private final int chroma;                     // area of the chroma grid in YCbCr containers, else -1
+    private final VQQuadtree.Layout quadtree;     // quadtree containers only
+    private int[][][] allIndices;                 // [area][row][col]
+    private int[] tilePixels;                     // packed 0xRRGGBB codewords, built lazily
+    private int[] averages;                       // mean colour (mean Y in YCbCr) per codeword, built lazily
+    private int[] chromaAverages;                 // mean Cb << 8 | Cr per chroma codeword, built lazily
+
+    public VQRegionDecoder(ByteBuffer container, VQCodebookLibrary library) throws IOException {
+        header = VQContainer.readHeader(container, library);
+        chroma = header.colorSpace == VQContainer.COLOR_YCBCR_420 ? header.stages : -1;
+        if (header.levels > 1) {
+            VQContainer.readQuadtree(container, header);
+            quadtree = new VQQuadtree.Layout(header);
+            index = null;
+            indexData = null;
+            return;
+        }
+        quadtree = null;
+        if (header.restartRows != 0) {
+            index = new VQContainer.RowIndex[areas()];
+            for (int a = 0; a < index.length; a++) {
+                index[a] = VQContainer.RowIndex.read(container, header, rows(a), codeBookSize(a));
+            }
+            indexData = null;
+        } else {
+            index = null;
+            indexData = container.slice();
+        }
+    }
+
+    // Map the file; the mapping stays valid after the channel is closed
+    public static VQRegionDecoder open(String path) throws IOException {
+        return open(path, null);
+    }
+
+    public static VQRegionDecoder open(String path, VQCodebookLibrary library) throws IOException {
+        try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, ch.size());
+            return new VQRegionDecoder(buf, library);
+        }
+    }
+
+    public int width() {
+        return header.imageWidth;
+    }
+
+    public int height() {
+        return header.imageHeight;
+    }
+
+    public int tileSize() {
+        return header.tileSize;
+    }
+
+    // Residual stages in the container (1 for plain VQ)
+    public int stages() {
+        return header.stages;
+    }
+
+    // True when regions are decoded from their own row groups rather than the full grid
+    public boolean hasRowIndex() {
+        return index != null;
+    }
+
+    // Pixels [x, x + w) x [y, y + h) of the decompressed image; pixels outside the tiled area
+    // are black, as in a full decode
+    public BufferedImage decodeRegion(int x, int y, int w, int h) throws IOException {
+        return decodeRegion(x, y, w, h, header.stages);
+    }
+
+    // As above using only the first `stages` residual stages
+    public BufferedImage decodeRegion(int x, int y, int w, int h, int stages) throws IOException {
+        checkRegion(x, y, w, h);
+        if (stages < 1 || stages > header.stages) {
+            throw new IllegalArgumentException("Stages must be 1.." + header.stages);
+        }
+        if (quadtree != null) {
+            BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+            int[] out = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            quadtree.render(out, w, x, y, x + w, y + h, VQExecutor.shared(), null);
+            return image;
+        }
+        int ts = header.tileSize;
+        int tiledWidth = header.tilesPerColumn() * ts;
+        int tiledHeight = header.tilesPerRow() * ts;
+        int row0 = y / ts;
+        int row1 = Math.min(header.tilesPerRow(), (y + h + ts - 1) / ts);
+
+        BufferedImage image = new BufferedImage(w, h, BufferedImage.TYPE_INT_RGB);
+        int[] out = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int xEnd = Math.min(x + w, tiledWidth);
+        int yEnd = Math.min(y + h, tiledHeight);
+        if (chroma >= 0) {
+            int[][] luma = indicesFor(0, row0, row1);
+            int[][] chromaIndices = indicesFor(chroma, row0 / 2, (row1 + 1) / 2);
+            int chromaOffset = header.chromaOffset();
+            for (int py = y; py < yEnd; py++) {
+                int outRow = (py - y) * w - x;
+                for (int px = x; px < xEnd; px++) {
+                    out[outRow + px] = VQColor.pixel(header.codeBook, chromaOffset, ts, luma, chromaIndices, px, py);
+                }
+            }
+            return image;
+        }
+        if (stages > 1) {
+            int[][][] grids = new int[stages][][];
+            for (int s = 0; s < stages; s++) {
+                grids[s] = indicesFor(s, row0, row1);
+            }
+            int dim = ts * ts * header.channels;
+            int stageSize = header.codeBookSize * dim;
+            int[] codes = new int[stages];
+            for (int py = y; py < yEnd; py++) {
+                int row = py / ts;
+                int outRow = (py - y) * w - x;
+                for (int px = x; px < xEnd; px++) {
+                    int col = px / ts;
+                    for (int s = 0; s < stages; s++) codes[s] = grids[s][row][col];
+                    out[outRow + px] = vectorQuantizationDecompress.residualPixel(header.codeBook, stageSize, dim,
+                            codes, stages, (py % ts) * ts + px % ts, header.channels);
+                }
+            }
+            return image;
+        }
+        int area = ts * ts;
+        int[] pixels = tilePixels();
+        int[][] indices = indicesFor(0, row0, row1);
+        for (int py = y; py < yEnd; py++) {
+            int[] rowIndices = indices[py / ts];
+            int i = py % ts;
+            int outRow = (py - y) * w - x;
+            for (int px = x; px < xEnd; ) {
+                int col = px / ts;
+                int j = px - col * ts;
+                int run = Math.min(ts - j, xEnd - px);
+                System.arraycopy(pixels, rowIndices[col] * area + i * ts + j, out, outRow + px, run);
+                px += run;
+            }
+        }
+        return image;
+    }
+
+    // Whole image at one pixel per tile
+    public BufferedImage preview() throws IOException {
+        if (quadtree != null) {
+            return preview(0, 0, header.imageWidth, header.imageHeight);
+        }
+        return preview(0, 0, header.tilesPerColumn() * header.tileSize, header.tilesPerRow() * header.tileSize);
+    }
+
+    // One pixel per tile overlapping [x, x + w) x [y, y + h): the average colour of its
+    // codeword, so only index data is decoded and no tile is expanded. Residual stages are
+    // left out. Quadtree containers give one pixel per block.
+    public BufferedImage preview(int x, int y, int w, int h) throws IOException {
+        checkRegion(x, y, w, h);
+        int ts = header.tileSize;
+        if (quadtree != null) {
+            int col0 = x / ts;
+            int row0 = y / ts;
+            int pw = (x + w + ts - 1) / ts - col0;
+            int ph = (y + h + ts - 1) / ts - row0;
+            BufferedImage image = new BufferedImage(pw, ph, BufferedImage.TYPE_INT_RGB);
+            int[] out = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            for (int r = 0; r < ph; r++) {
+                for (int c = 0; c < pw; c++) {
+                    out[r * pw + c] = quadtree.blockAverage((row0 + r) * quadtree.blocksAcross + col0 + c);
+                }
+            }
+            return image;
+        }
+        int col0 = x / ts;
+        int row0 = y / ts;
+        int col1 = Math.min(header.tilesPerColumn(), (x + w + ts - 1) / ts);
+        int row1 = Math.min(header.tilesPerRow(), (y + h + ts - 1) / ts);
+        if (col1 <= col0 || row1 <= row0) {
+            throw new IllegalArgumentException("Region contains no whole or partial tiles");
+        }
+        int[] colours = averages();
+        int[][] indices = indicesFor(0, row0, row1);
+        int pw = col1 - col0;
+        BufferedImage image = new BufferedImage(pw, row1 - row0, BufferedImage.TYPE_INT_RGB);
+        int[] out = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        if (chroma >= 0) {
+            // Each chroma codeword covers 2x2 tiles; its mean stands in for all four
+            int[] cbcr = chromaAverages();
+            int[][] chromaIndices = indicesFor(chroma, row0 / 2, (row1 + 1) / 2);
+            for (int r = row0; r < row1; r++) {
+                int o = (r - row0) * pw;
+                for (int c = col0; c < col1; c++) {
+                    int v = cbcr[chromaIndices[r / 2][c / 2]];
+                    out[o++] = VQColor.rgb(colours[indices[r][c]], v >> 8, v & 0xFF);
+                }
+            }
+            return image;
+        }
+        for (int r = row0; r < row1; r++) {
+            int[] rowIndices = indices[r];
+            int o = (r - row0) * pw;
+            for (int c = col0; c < col1; c++) {
+                out[o++] = colours[rowIndices[c]];
+            }
+        }
+        return image;
+    }
+
+    private void checkRegion(int x, int y, int w, int h) {
+        if (x < 0 || y < 0 || w <= 0 || h <= 0 || x + w > header.imageWidth || y + h > header.imageHeight) {
+            throw new IllegalArgumentException("Region " + w + "x" + h + "+" + x + "+" + y
+                    + " outside " + header.imageWidth + "x" + header.imageHeight + " image");
+        }
+    }
+
+    // Index grids in file order: one per residual stage, then chroma in YCbCr containers
+    private int areas() {
+        return header.stages + (chroma >= 0 ? 1 : 0);
+    }
+
+    private int rows(int area) {
+        return area == chroma ? header.chromaRows() : header.tilesPerRow();
+    }
+
+    private int columns(int area) {
+        return area == chroma ? header.chromaColumns() : header.tilesPerColumn();
+    }
+
+    private int codeBookSize(int area) {
+        return area == chroma ? header.chromaCodeBookSize : header.codeBookSize;
+    }
+
+    // Grid of an area with at least rows [from, to) filled in
+    private int[][] indicesFor(int area, int from, int to) throws IOException {
+        if (index == null) {
+            return allIndices()[area];
+        }
+        VQContainer.RowIndex index = this.index[area];
+        int[][] indices = new int[rows(area)][];
+        if (from >= to) {
+            return indices;
+        }
+        for (int g = from / index.restartRows; g <= (to - 1) / index.restartRows; g++) {
+            for (int r = index.firstRow(g); r < index.endRow(g); r++) {
+                indices[r] = new int[columns(area)];
+            }
+            index.decodeGroup(g, indices);
+        }
+        return indices;
+    }
+
+    private synchronized int[][][] allIndices() throws IOException {
+        if (allIndices == null) {
+            int[][][] indices = new int[areas()][][];
+            ByteBuffer data = indexData.duplicate();
+            for (int a = 0; a < indices.length; a++) {
+                indices[a] = VQContainer.readIndexArea(data, header, rows(a), columns(a), codeBookSize(a));
+            }
+            allIndices = indices;
+        }
+        return allIndices;
+    }
+
+    private synchronized int[] tilePixels() {
+        if (tilePixels == null) {
+            tilePixels = vectorQuantizationDecompress.packCodebook(header.codeBook, header.tileSize, header.channels);
+        }
+        return tilePixels;
+    }
+
+    private synchronized int[] averages() {
+        if (averages == null && chroma >= 0) {
+            int area = header.tileSize * header.tileSize;
+            int[] result = new int[header.codeBookSize];
+            for (int k = 0; k < result.length; k++) {
+                long sum = 0;
+                for (int p = k * area; p < (k + 1) * area; p++) {
+                    sum += header.codeBook[p] & 0xFF;
+                }
+                result[k] = (int) ((sum + area / 2) / area);
+            }
+            averages = result;
+        }
+        if (averages == null) {
+            int area = header.tileSize * header.tileSize;
+            int[] pixels = tilePixels();
+            int[] result = new int[header.codeBookSize];
+            for (int k = 0; k < result.length; k++) {
+                long r = 0, g = 0, b = 0;
+                for (int p = k * area; p < (k + 1) * area; p++) {
+                    r += (pixels[p] >> 16) & 0xFF;
+                    g += (pixels[p] >> 8) & 0xFF;
+                    b += pixels[p] & 0xFF;
+                }
+                result[k] = (int) ((r + area / 2) / area) << 16 | (int) ((g + area / 2) / area) << 8
+                        | (int) ((b + area / 2) / area);
+            }
+            averages = result;
+        }
+        return averages;
+    }
+
+    private synchronized int[] chromaAverages() {
+        if (chromaAverages == null) {
+            int area = header.tileSize * header.tileSize;
+            int[] result = new int[header.chromaCodeBookSize];
+            for (int k = 0; k < result.length; k++) {
+                long cb = 0, cr = 0;
+                for (int p = header.chromaOffset() + k * 2 * area, end = p + 2 * area; p < end; p += 2) {
+                    cb += header.codeBook[p] & 0xFF;
+                    cr += header.codeBook[p + 1] & 0xFF;
+                }
+                result[k] = (int) ((cb + area / 2) / area) << 8 | (int) ((cr + area / 2) / area);
+            }
+            chromaAverages = result;
+        }
+        return chromaAverages;
+    }
+
+    // Usage: java vqcompress.VQRegionDecoder <file.vqc> <out.png> [x y w h | --preview]
+    // (a .ppm, .rgb or .jpg output name selects that format, see VQImageWriter)
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2 && args.length != 3 && args.length != 6) {
+            System.out.println("Usage: java vqcompress.VQRegionDecoder <file.vqc> <out.png> [x y w h | --preview]");
+            return;
+        }
+        VQRegionDecoder decoder = open(args[0]);
+        BufferedImage image;
+        if (args.length == 6) {
+            image = decoder.decodeRegion(Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+                    Integer.parseInt(args[4]), Integer.parseInt(args[5]));
+        } else if (args.length == 3 && args[2].equals("--preview")) {
+            image = decoder.preview();
+        } else {
+            image = decoder.decodeRegion(0, 0, decoder.width(), decoder.height());
+        }
+        new VQImageWriter().write(image, Paths.get(args[1]));
+        System.out.println("Decoded " + image.getWidth() + "x" + image.getHeight() + " to " + args[1]);
+    }
+}
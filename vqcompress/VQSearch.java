@@ -0,0 +1,265 @@
+package vqcompress;
+
+import java.util.Arrays;
+
+// Nearest-codeword search over a flat byte codebook ([codeword * dim + j], unsigned values).
+//
+// Exact modes return the same index as a brute-force scan (lowest index wins ties):
+//   BRUTE_FORCE       full distance against every codeword
+//   PARTIAL_DISTANCE  abandons a codeword as soon as its partial distance exceeds the best so far
+//   SORTED            visits codewords ordered by component sum outwards from the tile's sum and
+//                     stops once (sum difference)^2 / dim exceeds the best distance; codewords whose
+//                     norm differs too much are skipped (triangle inequality), survivors use PDE
+// APPROXIMATE projects onto the codebook's first principal axis and only examines the
+// approximateCandidates codewords with the closest projections (meant for 4096+ entries).
+public class VQSearch {
+
+    public enum Mode { BRUTE_FORCE, PARTIAL_DISTANCE, SORTED, APPROXIMATE }
+
+    // Values summed between early-termination checks; keeps the inner loop a plain reduction
+    // that the JIT can vectorize
+    private static final int BLOCK = 24;
+
+    int approximateCandidates = 64;
+
+    private final Mode mode;
+    private final int dim;
+    private int size;
+    private byte[] flat;         // [size * dim], shared with the caller
+
+    // SORTED / APPROXIMATE: codewords in key order
+    private int[] order;
+    private long[] sortedKey;    // component sum (SORTED) or scaled projection (APPROXIMATE)
+    private double[] norms;      // per codeword, by original index
+    private double[] axis;       // APPROXIMATE: principal axis, unit length
+    private double[] mean;
+    private double[] projection;
+    private long[] scratch;
+
+    public VQSearch(byte[] codeBook, int dim, Mode mode) {
+        this.dim = dim;
+        this.mode = mode;
+        update(codeBook, codeBook.length / dim);
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    // Re-index the first size codewords after the codebook changed; reuses all arrays once
+    // they are large enough
+    public void update(byte[] codeBook, int size) {
+        this.size = size;
+        this.flat = codeBook;
+        if (order == null || order.length < size) {
+            order = new int[size];
+            sortedKey = new long[size];
+            norms = new double[size];
+            projection = new double[size];
+            scratch = new long[size];
+        }
+        if (mode == Mode.SORTED) {
+            for (int i = 0; i < size; i++) {
+                long sum = 0;
+                long sq = 0;
+                for (int j = 0; j < dim; j++) {
+                    int v = flat[i * dim + j] & 0xFF;
+                    sum += v;
+                    sq += (long) v * v;
+                }
+                sortedKey[i] = sum;
+                norms[i] = Math.sqrt(sq);
+            }
+            sortByKey();
+        } else if (mode == Mode.APPROXIMATE) {
+            computePrincipalAxis();
+            for (int i = 0; i < size; i++) {
+                projection[i] = project(flat, i * dim);
+            }
+            // Keys only decide the visiting order; distances are always computed exactly
+            for (int i = 0; i < size; i++) {
+                sortedKey[i] = Math.round(projection[i] * 1024);
+            }
+            sortByKey();
+        }
+    }
+
+    // Sort order[] by sortedKey[] (then by index) and leave sortedKey[] in sorted order. Keys
+    // are below 2^31 (sums up to 255 * dim, projections up to 1024 * 255 * sqrt(dim)), so the
+    // key goes in the upper half of a long and the index in the lower.
+    private void sortByKey() {
+        long[] packed = scratch;
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) min = Math.min(min, sortedKey[i]);
+        for (int i = 0; i < size; i++) {
+            packed[i] = ((sortedKey[i] - min) << 32) | i;
+        }
+        Arrays.sort(packed, 0, size);
+        for (int k = 0; k < size; k++) {
+            int i = (int) packed[k];
+            order[k] = i;
+            packed[k] = sortedKey[i];
+        }
+        System.arraycopy(packed, 0, sortedKey, 0, size);
+    }
+
+    // Index of the codeword closest to the tile stored at tile[off .. off + dim)
+    public int findClosest(byte[] tile, int off) {
+        switch (mode) {
+            case BRUTE_FORCE: return bruteForce(tile, off);
+            case PARTIAL_DISTANCE: return partialDistance(tile, off);
+            case SORTED: return sorted(tile, off);
+            default: return approximate(tile, off);
+        }
+    }
+
+    private int bruteForce(byte[] tile, int off) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            long d = distance(tile, off, i * dim, Long.MAX_VALUE);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private int partialDistance(byte[] tile, int off) {
+        int best = 0;
+        long bestDistance = Long.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            long d = distance(tile, off, i * dim, bestDistance);
+            if (d < bestDistance) {
+                bestDistance = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private int sorted(byte[] tile, int off) {
+        long sum = 0;
+        long sq = 0;
+        for (int j = 0; j < dim; j++) {
+            int v = tile[off + j] & 0xFF;
+            sum += v;
+            sq += (long) v * v;
+        }
+        double norm = Math.sqrt(sq);
+        int hi = lowerBound(sum);
+        int lo = hi - 1;
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        while (lo >= 0 || hi < size) {
+            // Visit whichever side has the closer key next
+            boolean down = hi >= size || (lo >= 0 && sum - sortedKey[lo] <= sortedKey[hi] - sum);
+            int k = down ? lo-- : hi++;
+            long diff = sum - sortedKey[k];
+            // ||x - c||^2 >= (sum(x) - sum(c))^2 / dim, and keys only get further from here on
+            if (best >= 0 && diff * diff > bestDistance * dim) {
+                if (down) lo = -1; else hi = size;
+                continue;
+            }
+            int i = order[k];
+            double nd = norm - norms[i];
+            if (nd * nd > bestDistance + 1e-6 * bestDistance + 1e-6) {
+                continue;
+            }
+            long d = distance(tile, off, i * dim, bestDistance);
+            if (d < bestDistance || (d == bestDistance && i < best)) {
+                bestDistance = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    private int approximate(byte[] tile, int off) {
+        double p = project(tile, off);
+        int hi = lowerBound(Math.round(p * 1024));
+        int lo = hi - 1;
+        int best = -1;
+        long bestDistance = Long.MAX_VALUE;
+        for (int visited = 0; visited < approximateCandidates && (lo >= 0 || hi < size); visited++) {
+            int i;
+            if (hi >= size || (lo >= 0 && p - projection[order[lo]] <= projection[order[hi]] - p)) {
+                i = order[lo--];
+            } else {
+                i = order[hi++];
+            }
+            long d = distance(tile, off, i * dim, bestDistance);
+            if (d < bestDistance || (d == bestDistance && i < best)) {
+                bestDistance = d;
+                best = i;
+            }
+        }
+        return best;
+    }
+
+    // First position k with sortedKey[k] >= key
+    private int lowerBound(long key) {
+        int lo = 0;
+        int hi = size;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sortedKey[mid] < key) lo = mid + 1; else hi = mid;
+        }
+        return lo;
+    }
+
+    // Squared distance to the codeword starting at base; returns early once it exceeds limit.
+    // A block sums in an int (at most BLOCK * 255^2); the total needs a long once dim passes
+    // about 33000 (tiles of 105 x 105 RGB pixels).
+    private long distance(byte[] tile, int off, int base, long limit) {
+        long d = 0;
+        for (int j = 0; j < dim; j += BLOCK) {
+            int end = Math.min(dim, j + BLOCK);
+            int block = 0;
+            for (int k = j; k < end; k++) {
+                int diff = (tile[off + k] & 0xFF) - (flat[base + k] & 0xFF);
+                block += diff * diff;
+            }
+            d += block;
+            if (d > limit) {
+                return d;
+            }
+        }
+        return d;
+    }
+
+    private double project(byte[] v, int base) {
+        double p = 0;
+        for (int j = 0; j < dim; j++) {
+            p += ((v[base + j] & 0xFF) - mean[j]) * axis[j];
+        }
+        return p;
+    }
+
+    // Power iteration on the codebook covariance for its dominant direction
+    private void computePrincipalAxis() {
+        mean = new double[dim];
+        axis = new double[dim];
+        for (int i = 0; i < size; i++) {
+            for (int j = 0; j < dim; j++) mean[j] += flat[i * dim + j] & 0xFF;
+        }
+        for (int j = 0; j < dim; j++) {
+            mean[j] /= Math.max(1, size);
+            axis[j] = 1.0 / Math.sqrt(dim);
+        }
+        double[] next = new double[dim];
+        for (int it = 0; it < 20; it++) {
+            Arrays.fill(next, 0);
+            for (int i = 0; i < size; i++) {
+                double p = project(flat, i * dim);
+                for (int j = 0; j < dim; j++) next[j] += p * ((flat[i * dim + j] & 0xFF) - mean[j]);
+            }
+            double len = 0;
+            for (double v : next) len += v * v;
+            len = Math.sqrt(len);
+            if (len == 0) break;
+            for (int j = 0; j < dim; j++) axis[j] = next[j] / len;
+        }
+    }
+}
@@ -0,0 +1,579 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+// Image sequence (video) coding for static-camera feeds, on top of vectorQuantizationCompress.
+// Frames keep using one codebook until the frame PSNR drifts driftDb below what the codebook
+// gave on the frame it was trained on; it is then retrained, warm-started from the old one.
+// Between key frames, a tile whose previous codeword is still within skipTolerance (MSE per
+// value) of its best codeword is coded as a skip, so static areas cost almost nothing and do
+// not flicker between near-equal codewords. All frames go into one appendable file.
+//
+// File layout (big-endian):
+//   "VQCS" | version u8 | indexCoding u8 | reserved u16
+//   imageWidth i32 | imageHeight i32 | tileSize i32 | codeBookSize i32 | channels i32
+//   frames, back to back:
+//     type u8 (FRAME_*)
+//     codebook, codeBookSize * tileSize * tileSize * channels bytes (FRAME_CODEBOOK only)
+//     tile indices, tilesPerRow * tilesPerColumn values coded by the VQEntropyCoder of
+//     indexCoding; in FRAME_DELTA the value codeBookSize means "same codeword as the previous frame"
+//   frame index: per frame offset i64 | length i32 | type u8
+//   trailer: frames i32 | indexOffset i64 | "VQSI"
+// Appending leaves the existing index in place and writes the new frames, then the extended
+// index, after it. A writer that dies before close() so loses only its own frames: the Reader
+// falls back to the newest complete index in the file. Frame n decodes from the last
+// FRAME_CODEBOOK at or before n (for the codebook) and the last frame that is not FRAME_DELTA
+// (for the indices), so keyInterval bounds the seek cost.
+public class VQSequence implements AutoCloseable {
+
+    public static final int FRAME_CODEBOOK = 0;  // new codebook and all indices
+    public static final int FRAME_KEY = 1;       // all indices against the current codebook
+    public static final int FRAME_DELTA = 2;     // indices or skips against the previous frame
+
+    static final byte[] MAGIC = {'V', 'Q', 'C', 'S'};
+    static final byte[] INDEX_MAGIC = {'V', 'Q', 'S', 'I'};
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 28;
+    static final int ENTRY_SIZE = 13;
+    static final int TRAILER_SIZE = 16;
+
+    // Sequence settings
+    int keyInterval = 30;          // frames from one key (or codebook) frame to the next at most
+    double driftDb = 1.0;          // retrain when a frame is this much worse than the codebook's first
+    double skipTolerance = 4;      // extra MSE per value a skipped tile may have over its best codeword
+    VQExecutor executor = VQExecutor.shared();
+    VQExecutor.Job job;
+
+    private final VQOptions options;
+    private final FileChannel ch;
+    private final int tileSize;
+    private final int codeBookSize;
+    private final int indexCoding;
+    private int width, height;     // 0 until the first frame of a new file
+    private final List<long[]> frames = new ArrayList<>();  // {offset, length, type}
+    private int indexed;           // frames covered by an index already in the file
+    private long end;              // where the next frame goes
+
+    // Coding state: current codebook, its PSNR on the frame it was trained on (NaN after
+    // reopening a file), the previous frame's codewords and frames since the last key frame
+    private byte[] codeBook;
+    private VQCodebookLibrary.Codebook reused;
+    private double codeBookPsnr = Double.NaN;
+    private int[][] previous;
+    private int sinceKey;
+
+    private VQSequence(VQOptions options, FileChannel ch, int tileSize, int codeBookSize, int indexCoding) {
+        this.options = options;
+        this.ch = ch;
+        this.tileSize = tileSize;
+        this.codeBookSize = codeBookSize;
+        this.indexCoding = indexCoding;
+    }
+
+    // Create the file, or reopen it to append frames (its tile size, codebook size and index
+    // coding then take precedence over the options and must match them)
+    public static VQSequence open(String path, VQOptions options) throws IOException {
+        if (options.stages() > 1 || options.colorSpace() != VQContainer.COLOR_RGB || options.minTileSize() > 0
+                || options.sharedCodebook() != null) {
+            throw new IllegalArgumentException("Sequence mode codes plain RGB tiles with one codebook per frame");
+        }
+        Path p = Paths.get(path);
+        if (Files.exists(p) && Files.size(p) > 0) {
+            try (Reader reader = Reader.open(path)) {
+                if (reader.tileSize != options.tileSize() || reader.codeBookSize != options.codeBookSize()
+                        || reader.indexCoding != options.indexCoding()) {
+                    throw new IOException(path + " was written with " + reader.tileSize + "x" + reader.tileSize
+                            + " tiles, " + reader.codeBookSize + " codewords and index coding " + reader.indexCoding);
+                }
+                VQSequence sequence = new VQSequence(options,
+                        FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE),
+                        reader.tileSize, reader.codeBookSize, reader.indexCoding);
+                sequence.width = reader.width;
+                sequence.height = reader.height;
+                for (int n = 0; n < reader.frames(); n++) {
+                    sequence.frames.add(new long[] {reader.offsets[n], reader.lengths[n], reader.types[n]});
+                }
+                sequence.indexed = reader.frames();
+                sequence.end = Files.size(p);
+                if (reader.frames() > 0) {
+                    sequence.codeBook = reader.codeBook(reader.frames() - 1);
+                }
+                return sequence;
+            }
+        }
+        FileChannel ch = FileChannel.open(p, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        VQSequence sequence = new VQSequence(options, ch, options.tileSize(), options.codeBookSize(), options.indexCoding());
+        sequence.end = HEADER_SIZE;
+        return sequence;
+    }
+
+    public int frames() {
+        return frames.size();
+    }
+
+    // Code one frame and append it; returns its FRAME_* type
+    public int append(BufferedImage image) throws IOException {
+        if (width == 0) {
+            if (image.getWidth() < tileSize || image.getHeight() < tileSize) {
+                throw new IllegalArgumentException("Frames must be at least one " + tileSize + "x" + tileSize + " tile");
+            }
+            width = image.getWidth();
+            height = image.getHeight();
+            writeHeader();
+        } else if (image.getWidth() != width || image.getHeight() != height) {
+            throw new IllegalArgumentException("Frame is " + image.getWidth() + "x" + image.getHeight()
+                    + ", the sequence is " + width + "x" + height);
+        }
+        vectorQuantizationCompress compressor = newCompressor();
+        compressor.loadImage(image);
+        boolean train = codeBook == null;
+        if (!train) {
+            if (reused == null) {
+                reused = new VQCodebookLibrary.Codebook("sequence", tileSize, codeBookSize, 3, codeBook);
+            }
+            compressor.sharedCodebook = reused;
+        }
+        compressor.initializeCodebook();
+        compressor.quantizeImage();
+
+        boolean key = train || previous == null || sinceKey + 1 >= keyInterval;
+        int rows = compressor.tilesPerRow;
+        int columns = compressor.tilesPerColumn;
+        int[][] codes = new int[rows][columns];
+        int[][] resolved = new int[rows][columns];
+        long[] result = code(compressor, key ? null : previous, codes, resolved);
+        double psnr = psnr(result[0], (long) rows * columns * compressor.tiles().dim);
+        if (!train && !Double.isNaN(codeBookPsnr) && psnr < codeBookPsnr - driftDb) {
+            // Drifted: retrain starting from the current codebook and send the new one
+            VQLog.progress("Frame " + frames.size() + ": " + String.format("%.2f", psnr)
+                    + " dB drifted from " + String.format("%.2f", codeBookPsnr) + " dB, retraining.");
+            compressor.sharedCodebook = null;
+            compressor.warmStart = codeBook;
+            compressor.initializeCodebook();
+            compressor.quantizeImage();
+            train = key = true;
+            result = code(compressor, null, codes, resolved);
+            psnr = psnr(result[0], (long) rows * columns * compressor.tiles().dim);
+        }
+        if (train) {
+            codeBook = compressor.codeBook();
+            reused = null;
+        }
+        if (train || Double.isNaN(codeBookPsnr)) {
+            codeBookPsnr = psnr;
+        }
+        int type = train ? FRAME_CODEBOOK : key ? FRAME_KEY : FRAME_DELTA;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(type);
+        if (type == FRAME_CODEBOOK) {
+            out.write(codeBook, 0, codeBookSize * tileSize * tileSize * 3);
+        }
+        out.write(VQEntropyCoder.forCoding(indexCoding).encode(codes,
+                type == FRAME_DELTA ? codeBookSize + 1 : codeBookSize));
+        ByteBuffer frame = ByteBuffer.wrap(out.toByteArray());
+        long offset = end;
+        while (frame.hasRemaining()) {
+            end += ch.write(frame, end);
+        }
+        frames.add(new long[] {offset, end - offset, type});
+        previous = resolved;
+        sinceKey = key ? 0 : sinceKey + 1;
+        VQLog.progress("Frame " + (frames.size() - 1) + ": " + (type == FRAME_CODEBOOK ? "codebook"
+                : type == FRAME_KEY ? "key" : "delta") + ", " + result[1] + " of " + (long) rows * columns
+                + " tiles skipped, " + String.format("%.2f", psnr) + " dB, " + (end - offset) + " bytes.");
+        return type;
+    }
+
+    private vectorQuantizationCompress newCompressor() {
+        vectorQuantizationCompress compressor = new vectorQuantizationCompress();
+        compressor.tileSize = tileSize;
+        compressor.codeBookSize = codeBookSize;
+        compressor.searchMode = options.searchMode();
+        compressor.treeStructured = options.treeStructured();
+        compressor.trainingSample = options.trainingSample();
+        compressor.trainingBatch = options.trainingBatch();
+        compressor.trainingMillis = options.trainingMillis();
+        compressor.trainingIterations = options.trainingIterations();
+        compressor.warmStart = options.warmStart();
+        compressor.executor = executor;
+        compressor.job = job;
+        return compressor;
+    }
+
+    // Fill codes (written, codeBookSize = skip) and resolved (codeword per tile) from the
+    // compressor's indices; with previous == null nothing is skipped. Returns {squared error, skipped tiles}.
+    private long[] code(vectorQuantizationCompress compressor, int[][] previous, int[][] codes, int[][] resolved) {
+        VQTileStore tiles = compressor.tiles();
+        int[][] indices = compressor.indices();
+        byte[] cb = compressor.codeBook();
+        int columns = compressor.tilesPerColumn;
+        int dim = tiles.dim;
+        long slack = (long) Math.ceil(skipTolerance * dim);
+        LongAdder error = new LongAdder();
+        LongAdder skipped = new LongAdder();
+        executor.parallelFor(compressor.tilesPerRow, 0, (fromRow, toRow) -> {
+            byte[] scratch = new byte[dim];
+            long rangeError = 0;
+            long rangeSkipped = 0;
+            for (int r = fromRow; r < toRow; r++) {
+                for (int c = 0; c < columns; c++) {
+                    int t = r * columns + c;
+                    byte[] tile = tiles.view(t, scratch);
+                    int off = tiles.viewOffset(t);
+                    int best = indices[r][c];
+                    long bestError = distance(tile, off, cb, best * dim, dim);
+                    if (previous != null) {
+                        int old = previous[r][c];
+                        long oldError = old == best ? bestError : distance(tile, off, cb, old * dim, dim);
+                        if (oldError <= bestError + slack) {
+                            codes[r][c] = codeBookSize;
+                            resolved[r][c] = old;
+                            rangeError += oldError;
+                            rangeSkipped++;
+                            continue;
+                        }
+                    }
+                    codes[r][c] = best;
+                    resolved[r][c] = best;
+                    rangeError += bestError;
+                }
+            }
+            error.add(rangeError);
+            skipped.add(rangeSkipped);
+        }, job);
+        return new long[] {error.sum(), skipped.sum()};
+    }
+
+    private static long distance(byte[] tile, int off, byte[] codeBook, int base, int dim) {
+        long d = 0;
+        for (int j = 0; j < dim; j++) {
+            int diff = (tile[off + j] & 0xFF) - (codeBook[base + j] & 0xFF);
+            d += diff * diff;
+        }
+        return d;
+    }
+
+    private static double psnr(long squaredError, long values) {
+        return squaredError == 0 ? 99 : 10 * Math.log10(255.0 * 255.0 * values / squaredError);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE);
+        head.put(MAGIC).put((byte) VERSION).put((byte) indexCoding).putShort((short) 0);
+        head.putInt(width).putInt(height).putInt(tileSize).putInt(codeBookSize).putInt(3).flip();
+        long position = 0;
+        while (head.hasRemaining()) {
+            position += ch.write(head, position);
+        }
+    }
+
+    // Write the frame index and trailer after the last frame
+    @Override
+    public void close() throws IOException {
+        try {
+            if (width == 0 || frames.size() == indexed) {
+                return; // no frames, or none since the file's index was written
+            }
+            ByteBuffer tail = ByteBuffer.allocate(frames.size() * ENTRY_SIZE + TRAILER_SIZE);
+            for (long[] f : frames) {
+                tail.putLong(f[0]).putInt((int) f[1]).put((byte) f[2]);
+            }
+            tail.putInt(frames.size()).putLong(end).put(INDEX_MAGIC).flip();
+            long position = end;
+            while (tail.hasRemaining()) {
+                position += ch.write(tail, position);
+            }
+        } finally {
+            ch.close();
+        }
+    }
+
+    // Random-access decoder. Frames are read from the file as needed; decoding frame n + 1
+    // right after n only applies the new frame, anything else restarts from n's key frame.
+    public static final class Reader implements AutoCloseable {
+        final int width, height, tileSize, codeBookSize, indexCoding;
+        final long[] offsets;
+        final int[] lengths;
+        final byte[] types;
+        final long indexOffset;
+        private final FileChannel ch;
+        private final int tilesPerRow, tilesPerColumn;
+
+        // Last decoded frame and the codebook it used
+        private int decoded = -1;
+        private int[][] indices;
+        private int codeBookFrame = -1;
+        private byte[] codeBook;
+
+        private Reader(FileChannel ch) throws IOException {
+            this.ch = ch;
+            long size = ch.size();
+            if (size < HEADER_SIZE + TRAILER_SIZE) {
+                throw new IOException("Truncated VQ sequence");
+            }
+            ByteBuffer head = read(0, HEADER_SIZE);
+            for (byte m : MAGIC) {
+                if (head.get() != m) throw new IOException("Not a VQ sequence");
+            }
+            int version = head.get() & 0xFF;
+            if (version != VERSION) {
+                throw new IOException("Unsupported VQ sequence version " + version);
+            }
+            indexCoding = head.get() & 0xFF;
+            head.getShort();
+            width = head.getInt();
+            height = head.getInt();
+            tileSize = head.getInt();
+            codeBookSize = head.getInt();
+            int channels = head.getInt();
+            if (tileSize <= 0 || codeBookSize <= 0 || channels != 3 || width < tileSize || height < tileSize) {
+                throw new IOException("Corrupt VQ sequence header");
+            }
+            tilesPerRow = height / tileSize;
+            tilesPerColumn = width / tileSize;
+
+            long trailerOffset = size - TRAILER_SIZE;
+            long[] trailer = trailer(read(trailerOffset, TRAILER_SIZE), 0, trailerOffset);
+            if (trailer == null) {
+                // Not closed: frames written after the last index. Use the newest earlier index.
+                trailerOffset = findTrailer(size - TRAILER_SIZE - 1);
+                if (trailerOffset < 0) {
+                    throw new IOException("VQ sequence has no frame index (not closed?)");
+                }
+                trailer = trailer(read(trailerOffset, TRAILER_SIZE), 0, trailerOffset);
+            }
+            int count = (int) trailer[0];
+            indexOffset = trailer[1];
+            ByteBuffer index = read(indexOffset, count * ENTRY_SIZE);
+            offsets = new long[count];
+            lengths = new int[count];
+            types = new byte[count];
+            for (int n = 0; n < count; n++) {
+                offsets[n] = index.getLong();
+                lengths[n] = index.getInt();
+                types[n] = index.get();
+                if (offsets[n] < HEADER_SIZE || lengths[n] < 1 || offsets[n] + lengths[n] > indexOffset
+                        || types[n] < FRAME_CODEBOOK || types[n] > FRAME_DELTA) {
+                    throw new IOException("Corrupt VQ sequence index");
+                }
+            }
+        }
+
+        // {frames, indexOffset} of the trailer at offset in the file, read from buf at pos; null
+        // unless the bytes there are a trailer directly after its own index
+        private static long[] trailer(ByteBuffer buf, int pos, long offset) {
+            int count = buf.getInt(pos);
+            long indexOffset = buf.getLong(pos + 4);
+            for (int i = 0; i < INDEX_MAGIC.length; i++) {
+                if (buf.get(pos + 12 + i) != INDEX_MAGIC[i]) return null;
+            }
+            if (count < 0 || indexOffset < HEADER_SIZE || indexOffset + (long) count * ENTRY_SIZE != offset) {
+                return null;
+            }
+            return new long[] {count, indexOffset};
+        }
+
+        // Offset of the last trailer starting at or before last, or -1; scans back in blocks
+        private long findTrailer(long last) throws IOException {
+            int block = 1 << 16;
+            for (long hi = last; hi >= HEADER_SIZE; hi -= block) {
+                long lo = Math.max(HEADER_SIZE, hi - block + 1);
+                ByteBuffer buf = read(lo, (int) (hi - lo) + TRAILER_SIZE);
+                for (long t = hi; t >= lo; t--) {
+                    if (trailer(buf, (int) (t - lo), t) != null) {
+                        return t;
+                    }
+                }
+            }
+            return -1;
+        }
+
+        public static Reader open(String path) throws IOException {
+            FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+            try {
+                return new Reader(ch);
+            } catch (IOException | RuntimeException e) {
+                ch.close();
+                throw e;
+            }
+        }
+
+        public int frames() {
+            return offsets.length;
+        }
+
+        public int width() {
+            return width;
+        }
+
+        public int height() {
+            return height;
+        }
+
+        public int frameType(int n) {
+            return types[n];
+        }
+
+        public synchronized BufferedImage frame(int n) throws IOException {
+            VQContainer c = new VQContainer();
+            c.imageWidth = width;
+            c.imageHeight = height;
+            c.tileSize = tileSize;
+            c.codeBookSize = codeBookSize;
+            c.indices = indices(n);
+            c.codeBook = codeBook;
+            return new vectorQuantizationDecompress().decode(c);
+        }
+
+        // Codewords of frame n; also loads the codebook it uses
+        synchronized int[][] indices(int n) throws IOException {
+            if (n < 0 || n >= frames()) {
+                throw new IndexOutOfBoundsException("Frame " + n + " of " + frames());
+            }
+            int key = n;
+            while (key >= 0 && types[key] == FRAME_DELTA) key--;
+            if (key < 0) {
+                throw new IOException("Corrupt VQ sequence: frame " + n + " has no key frame");
+            }
+            int start = decoded >= key && decoded < n ? decoded + 1 : key;
+            if (start == key) {
+                codeBook(key);
+            }
+            for (int f = start; f <= n; f++) {
+                ByteBuffer buf = read(offsets[f], lengths[f]);
+                int type = buf.get() & 0xFF;
+                if (type != types[f]) {
+                    throw new IOException("Corrupt VQ sequence frame " + f);
+                }
+                if (type == FRAME_CODEBOOK) {
+                    buf.position(buf.position() + codeBookBytes());
+                }
+                int[][] grid = new int[tilesPerRow][tilesPerColumn];
+                VQEntropyCoder.forCoding(indexCoding).decode(buf, grid,
+                        type == FRAME_DELTA ? codeBookSize + 1 : codeBookSize);
+                for (int r = 0; r < tilesPerRow; r++) {
+                    for (int c = 0; c < tilesPerColumn; c++) {
+                        int v = grid[r][c];
+                        if (v < 0 || v > codeBookSize || (v == codeBookSize && type != FRAME_DELTA)) {
+                            throw new IOException("Corrupt VQ sequence frame " + f);
+                        }
+                        if (v == codeBookSize) grid[r][c] = indices[r][c];
+                    }
+                }
+                indices = grid;
+                decoded = f;
+            }
+            return indices;
+        }
+
+        // Codebook in effect at frame n (from the last FRAME_CODEBOOK at or before it)
+        synchronized byte[] codeBook(int n) throws IOException {
+            int c = n;
+            while (c >= 0 && types[c] != FRAME_CODEBOOK) c--;
+            if (c < 0) {
+                throw new IOException("Corrupt VQ sequence: frame " + n + " has no codebook");
+            }
+            if (c != codeBookFrame) {
+                if (lengths[c] < 1 + codeBookBytes()) {
+                    throw new IOException("Truncated VQ sequence codebook");
+                }
+                ByteBuffer buf = read(offsets[c] + 1, codeBookBytes());
+                codeBook = new byte[codeBookBytes()];
+                buf.get(codeBook);
+                codeBookFrame = c;
+                decoded = -1;
+            }
+            return codeBook;
+        }
+
+        private int codeBookBytes() {
+            return codeBookSize * tileSize * tileSize * 3;
+        }
+
+        private ByteBuffer read(long position, int length) throws IOException {
+            ByteBuffer buf = ByteBuffer.allocate(length);
+            while (buf.hasRemaining()) {
+                if (ch.read(buf, position + buf.position()) < 0) {
+                    throw new IOException("Truncated VQ sequence");
+                }
+            }
+            buf.flip();
+            return buf;
+        }
+
+        @Override
+        public void close() throws IOException {
+            ch.close();
+        }
+    }
+
+    // Usage:
+    //   java vqcompress.VQSequence [--tile N] [--codebook N] [--coding N] [--key N] [--drift DB] [--skip MSE]
+    //        <file.vqs> <frame dir | @manifest>       append the frames in name (or manifest) order
+    //   java vqcompress.VQSequence --decode <file.vqs> <output dir> [first [last]]
+    public static void main(String[] args) throws IOException {
+        VQLog.console();
+        VQOptions options = VQOptions.DEFAULT;
+        List<String> positional = new ArrayList<>();
+        boolean decode = false;
+        int keyInterval = 30;
+        double driftDb = 1.0;
+        double skipTolerance = 4;
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--tile": options = options.withTileSize(Integer.parseInt(args[++i])); break;
+                case "--codebook": options = options.withCodeBookSize(Integer.parseInt(args[++i])); break;
+                case "--coding": options = options.withIndexCoding(Integer.parseInt(args[++i])); break;
+                case "--key": keyInterval = Integer.parseInt(args[++i]); break;
+                case "--drift": driftDb = Double.parseDouble(args[++i]); break;
+                case "--skip": skipTolerance = Double.parseDouble(args[++i]); break;
+                case "--decode": decode = true; break;
+                default: positional.add(args[i]); break;
+            }
+        }
+        if (positional.size() < 2 || positional.size() > (decode ? 4 : 2)) {
+            System.out.println("Usage: java vqcompress.VQSequence [--tile N] [--codebook N] [--coding N] [--key N]"
+                    + " [--drift DB] [--skip MSE] <file.vqs> <frame dir | @manifest>");
+            System.out.println("       java vqcompress.VQSequence --decode <file.vqs> <output dir> [first [last]]");
+            System.exit(2);
+        }
+        if (decode) {
+            try (Reader reader = Reader.open(positional.get(0))) {
+                Path dir = Files.createDirectories(Paths.get(positional.get(1)));
+                int first = positional.size() > 2 ? Integer.parseInt(positional.get(2)) : 0;
+                int last = positional.size() > 3 ? Integer.parseInt(positional.get(3)) : reader.frames() - 1;
+                VQImageWriter writer = new VQImageWriter();
+                for (int n = first; n <= last; n++) {
+                    writer.write(reader.frame(n), VQImageWriter.Format.PNG, dir.resolve(String.format("frame-%05d.png", n)));
+                }
+                System.out.println("Decoded frames " + first + " to " + last + " of " + reader.frames() + ".");
+            }
+            return;
+        }
+        try (VQSequence sequence = open(positional.get(0), options)) {
+            sequence.keyInterval = keyInterval;
+            sequence.driftDb = driftDb;
+            sequence.skipTolerance = skipTolerance;
+            for (Path p : VQBatch.listInputs(positional.get(1))) {
+                try (InputStream in = Files.newInputStream(p)) {
+                    sequence.append(VQCodec.readImage(in));
+                }
+            }
+            System.out.println(sequence.frames() + " frames in " + positional.get(0) + ".");
+        }
+    }
+}
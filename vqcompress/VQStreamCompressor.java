@@ -0,0 +1,173 @@
+package vqcompress;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Random;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+// Streaming compressor for images too large to hold in memory. The image is read in strips
+// through ImageReader source regions, twice:
+//   pass 1 reservoir-samples tiles and trains the codebook on the sample
+//   pass 2 quantizes each strip and appends its index rows to the output container
+// Peak memory is one decoded strip, its tiles, the sample and the codebook.
+public class VQStreamCompressor {
+
+    int tileSize = 8;
+    int codeBookSize = 128;
+    int sampleSize = 1 << 16;        // tiles kept in the training reservoir
+    int stripTileRows = 0;           // tile rows decoded per strip; 0 = about 256 pixel rows
+    long seed = 1;                   // reservoir sampling seed, fixed so output is reproducible
+    int trainingBatch;               // mini-batch k-means over the reservoir; 0 = full Lloyd passes
+    long trainingMillis;             // training time budget; 0 = none
+    int trainingIterations;          // training iteration budget; 0 = none
+    byte[] warmStart;                // starting codewords for training, or null
+    int restartRows = -1;            // tile rows per row index group; -1 = default, 0 = no index
+    VQSearch.Mode searchMode = VQSearch.Mode.SORTED;
+    VQTileStore.Backing tileBacking = VQTileStore.Backing.HEAP;
+    VQExecutor executor = VQExecutor.shared();
+    VQExecutor.Job job;
+
+    private ImageReader reader;
+    private int tilesPerRow;
+    private int tilesPerColumn;
+    private VQTileStore strip;
+
+    public VQStreamCompressor() {
+    }
+
+    // Settings from options. Index rows are written as soon as they are quantized, so the output
+    // is always one trained RGB codebook with bit-packed indices; options asking for anything
+    // else are rejected. A trainingSample sets the reservoir size.
+    public VQStreamCompressor(VQOptions options) {
+        if (options.indexCoding() != VQContainer.CODING_PACKED || options.stages() > 1 || options.treeStructured()
+                || options.colorSpace() != VQContainer.COLOR_RGB || options.minTileSize() > 0
+                || options.sharedCodebook() != null) {
+            throw new IllegalArgumentException("Streaming codes plain RGB tiles with one trained codebook"
+                    + " and bit-packed indices (CODING_PACKED)");
+        }
+        tileSize = options.tileSize();
+        codeBookSize = options.codeBookSize();
+        if (options.trainingSample() > 0) {
+            sampleSize = options.trainingSample();
+        }
+        trainingBatch = options.trainingBatch();
+        trainingMillis = options.trainingMillis();
+        trainingIterations = options.trainingIterations();
+        warmStart = options.warmStart();
+        restartRows = options.restartRows();
+        searchMode = options.searchMode();
+    }
+
+    public void compress(String imgPath, String outPath) throws IOException {
+        try (ImageInputStream in = ImageIO.createImageInputStream(new File(imgPath))) {
+            if (in == null) {
+                throw new IOException("Cannot open " + imgPath);
+            }
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+            if (!readers.hasNext()) {
+                throw new IOException("No image reader for " + imgPath);
+            }
+            reader = readers.next();
+            reader.setInput(in, false, true);
+            try {
+                compress(outPath);
+            } finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    private void compress(String outPath) throws IOException {
+        int imageWidth = reader.getWidth(0);
+        int imageHeight = reader.getHeight(0);
+        VQContainer.checkImageSize(imageWidth, imageHeight);
+        tilesPerRow = imageHeight / tileSize;
+        tilesPerColumn = imageWidth / tileSize;
+        int rowsPerStrip = stripTileRows > 0 ? stripTileRows : Math.max(1, 256 / tileSize);
+        int dim = tileSize * tileSize * 3;
+        strip = new VQTileStore(rowsPerStrip * tilesPerColumn, dim, tileBacking);
+
+        // Pass 1: reservoir sample (Algorithm R) over every tile in raster order
+        long totalTiles = (long) tilesPerRow * tilesPerColumn;
+        VQTileStore sample = new VQTileStore((int) Math.min(sampleSize, totalTiles), dim, tileBacking);
+        Random random = new Random(seed);
+        byte[] scratch = new byte[dim];
+        long seen = 0;
+        for (int row = 0; row < tilesPerRow; row += rowsPerStrip) {
+            int rows = readStrip(row, rowsPerStrip);
+            for (int t = 0; t < rows * tilesPerColumn; t++, seen++) {
+                long slot = seen < sample.count ? seen : (long) (random.nextDouble() * (seen + 1));
+                if (slot < sample.count) {
+                    strip.copyTile(t, scratch, 0);
+                    sample.putTile((int) slot, scratch, 0);
+                }
+            }
+        }
+        VQCodebookTrainer trainer = new VQCodebookTrainer();
+        trainer.executor = executor;
+        trainer.job = job;
+        trainer.batchSize = trainingBatch;
+        trainer.timeBudgetMillis = trainingMillis;
+        trainer.iterationBudget = trainingIterations;
+        trainer.initialCodeBook = warmStart;
+        trainer.seed = seed;
+        byte[] codeBook = trainer.train(sample, codeBookSize);
+        sample = null;
+
+        // Pass 2: quantize strip by strip and stream the index rows out
+        VQContainer header = new VQContainer();
+        header.imageWidth = imageWidth;
+        header.imageHeight = imageHeight;
+        header.tileSize = tileSize;
+        header.codeBookSize = codeBookSize;
+        header.codeBook = codeBook;
+        header.restartRows = restartRows < 0 ? VQContainer.defaultRestartRows(tileSize) : restartRows;
+        VQSearch search = new VQSearch(codeBook, dim, searchMode);
+        int[][] indices = new int[rowsPerStrip][tilesPerColumn];
+        try (VQContainer.StreamWriter out = new VQContainer.StreamWriter(outPath, header)) {
+            for (int row = 0; row < tilesPerRow; row += rowsPerStrip) {
+                int rows = readStrip(row, rowsPerStrip);
+                executor.parallelFor(rows * tilesPerColumn, 0, (from, to) -> {
+                    byte[] buf = new byte[dim];
+                    for (int t = from; t < to; t++) {
+                        indices[t / tilesPerColumn][t % tilesPerColumn] =
+                                search.findClosest(strip.view(t, buf), strip.viewOffset(t));
+                    }
+                }, job);
+                for (int r = 0; r < rows; r++) {
+                    out.writeRow(indices[r]);
+                }
+            }
+        }
+        VQLog.progress("Streamed " + tilesPerRow + " x " + tilesPerColumn + " tiles to " + outPath);
+    }
+
+    // Decode tile rows [firstRow, firstRow + maxRows) into the strip store; returns the row count
+    private int readStrip(int firstRow, int maxRows) throws IOException {
+        int rows = Math.min(maxRows, tilesPerRow - firstRow);
+        ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, firstRow * tileSize, tilesPerColumn * tileSize, rows * tileSize));
+        BufferedImage image = reader.read(0, param);
+        strip.readTiles(image, tileSize, 0, tilesPerColumn, rows, executor);
+        return rows;
+    }
+
+    // Usage: java vqcompress.VQStreamCompressor <image> <output.vqc> [tileSize] [codeBookSize]
+    public static void main(String[] args) throws IOException {
+        VQLog.console();
+        if (args.length < 2) {
+            System.out.println("Usage: java vqcompress.VQStreamCompressor <image> <output.vqc> [tileSize] [codeBookSize]");
+            return;
+        }
+        VQOptions options = VQOptions.DEFAULT.withIndexCoding(VQContainer.CODING_PACKED);
+        if (args.length > 2) options = options.withTileSize(Integer.parseInt(args[2]));
+        if (args.length > 3) options = options.withCodeBookSize(Integer.parseInt(args[3]));
+        new VQStreamCompressor(options).compress(args[0], args[1]);
+    }
+}
@@ -0,0 +1,161 @@
+package vqcompress;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.nio.ByteBuffer;
+
+// Contiguous storage for count tiles of dim unsigned byte values each (tile t occupies
+// [t * dim, (t + 1) * dim)). Backed by one heap array or one off-heap direct buffer.
+public class VQTileStore {
+
+    public enum Backing { HEAP, DIRECT }
+
+    final int count;
+    final int dim;
+    private final byte[] heap;
+    private final ByteBuffer direct;
+
+    public VQTileStore(int count, int dim, Backing backing) {
+        long bytes = (long) count * dim;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Tile store too large: " + bytes + " bytes");
+        }
+        this.count = count;
+        this.dim = dim;
+        if (backing == Backing.DIRECT) {
+            heap = null;
+            direct = ByteBuffer.allocateDirect((int) bytes);
+        } else {
+            heap = new byte[(int) bytes];
+            direct = null;
+        }
+    }
+
+    public int get(int tile, int j) {
+        int pos = tile * dim + j;
+        return (heap != null ? heap[pos] : direct.get(pos)) & 0xFF;
+    }
+
+    public void set(int tile, int j, int value) {
+        int pos = tile * dim + j;
+        if (heap != null) {
+            heap[pos] = (byte) value;
+        } else {
+            direct.put(pos, (byte) value);
+        }
+    }
+
+    public void copyTile(int tile, byte[] dst, int dstOff) {
+        if (heap != null) {
+            System.arraycopy(heap, tile * dim, dst, dstOff, dim);
+        } else {
+            direct.get(tile * dim, dst, dstOff, dim);
+        }
+    }
+
+    public void putTile(int tile, byte[] src, int srcOff) {
+        if (heap != null) {
+            System.arraycopy(src, srcOff, heap, tile * dim, dim);
+        } else {
+            direct.put(tile * dim, src, srcOff, dim);
+        }
+    }
+
+    // Array holding the tile's values: the backing array for heap stores, else scratch (filled here)
+    public byte[] view(int tile, byte[] scratch) {
+        if (heap != null) {
+            return heap;
+        }
+        direct.get(tile * dim, scratch, 0, dim);
+        return scratch;
+    }
+
+    // Offset of the tile inside the array returned by view()
+    public int viewOffset(int tile) {
+        return heap != null ? tile * dim : 0;
+    }
+
+    // Split tileRows x tilesAcross RGB tiles from the top-left of image into consecutive
+    // tiles starting at firstTile, row-major. Works a pixel row at a time straight off the
+    // raster's backing array (packed int or interleaved byte RGB), tile rows in parallel.
+    public void readTiles(BufferedImage image, int tileSize, int firstTile, int tilesAcross, int tileRows,
+                          VQExecutor executor) {
+        readTiles(image, tileSize, firstTile, tilesAcross, tileRows, executor, null);
+    }
+
+    // job (may be null) receives progress and can cancel the read
+    public void readTiles(BufferedImage image, int tileSize, int firstTile, int tilesAcross, int tileRows,
+                          VQExecutor executor, VQExecutor.Job job) {
+        int width = tilesAcross * tileSize;
+        int segment = tileSize * 3;
+        executor.parallelFor(tileRows, 0, (fromRow, toRow) -> {
+            byte[] rgb = new byte[width * 3];
+            int[] argb = new int[width];
+            for (int row = fromRow; row < toRow; row++) {
+                for (int i = 0; i < tileSize; i++) {
+                    readRgbRow(image, row * tileSize + i, width, rgb, argb);
+                    int tile = firstTile + row * tilesAcross;
+                    for (int col = 0; col < tilesAcross; col++, tile++) {
+                        putBytes(tile * dim + i * segment, rgb, col * segment, segment);
+                    }
+                }
+            }
+        }, job);
+    }
+
+    private void putBytes(int pos, byte[] src, int srcOff, int len) {
+        if (heap != null) {
+            System.arraycopy(src, srcOff, heap, pos, len);
+        } else {
+            direct.put(pos, src, srcOff, len);
+        }
+    }
+
+    // Pixels [0, width) of row y as interleaved R,G,B bytes
+    static void readRgbRow(BufferedImage image, int y, int width, byte[] rgb, int[] scratch) {
+        WritableRaster raster = image.getRaster();
+        int tx = raster.getSampleModelTranslateX();
+        int ty = raster.getSampleModelTranslateY();
+        DataBuffer buffer = raster.getDataBuffer();
+        int type = image.getType();
+        if ((type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB)
+                && buffer instanceof DataBufferInt) {
+            SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+            int[] data = ((DataBufferInt) buffer).getData();
+            int p = buffer.getOffset() + (y - ty) * sm.getScanlineStride() - tx;
+            for (int x = 0, o = 0; x < width; x++, o += 3) {
+                int pixel = data[p + x];
+                rgb[o] = (byte) (pixel >> 16);
+                rgb[o + 1] = (byte) (pixel >> 8);
+                rgb[o + 2] = (byte) pixel;
+            }
+        } else if ((type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR)
+                && buffer instanceof DataBufferByte) {
+            PixelInterleavedSampleModel sm = (PixelInterleavedSampleModel) raster.getSampleModel();
+            byte[] data = ((DataBufferByte) buffer).getData();
+            int[] bands = sm.getBandOffsets();
+            int stride = sm.getPixelStride();
+            int p = buffer.getOffset() + (y - ty) * sm.getScanlineStride() - tx * stride;
+            int r = bands[0], g = bands[1], b = bands[2];
+            for (int x = 0, o = 0; x < width; x++, o += 3, p += stride) {
+                rgb[o] = data[p + r];
+                rgb[o + 1] = data[p + g];
+                rgb[o + 2] = data[p + b];
+            }
+        } else {
+            // Other layouts (grey, indexed, 16-bit...) go through the colour model a row at a time
+            image.getRGB(0, y, width, 1, scratch, 0, width);
+            for (int x = 0, o = 0; x < width; x++, o += 3) {
+                int pixel = scratch[x];
+                rgb[o] = (byte) (pixel >> 16);
+                rgb[o + 1] = (byte) (pixel >> 8);
+                rgb[o + 2] = (byte) pixel;
+            }
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package vqcompress;
+
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+// Tree-structured codebook (TSVQ). Training grows a binary tree top-down: the leaf with the
+// largest distortion is split by a 2-means over only the tiles it holds, until there are
+// codeBookSize leaves. The leaves are the codewords. Encoding walks from the root, comparing
+// the tile with the two children at each level, so a lookup costs about 2 * log2(K) distances
+// instead of K. The result is close to, but not always, the globally nearest codeword.
+//
+// Decoders need only the leaf codebook, so containers look the same as for a flat codebook.
+public class VQTreeCodebook {
+
+    // Settings for the 2-means run at every split
+    int splitIterations = 8;
+    int splitOffset = 2;
+    VQExecutor executor = VQExecutor.shared();
+    VQExecutor.Job job;
+
+    private int dim;
+    private VQTileStore tiles;
+    private int[] order;          // tile numbers; each node owns a contiguous range
+    private byte[] side;          // [position in order] 0 = left, 1 = right during a split
+
+    // Nodes: centroid [node * dim + j], children (-1 for leaves) and codeword of each leaf
+    private byte[] centroids;
+    private int[] left;
+    private int[] right;
+    private int[] codeword;
+    private int nodes;
+    private byte[] codeBook;
+
+    // Per-node range and distortion while training
+    private int[] from;
+    private int[] to;
+    private long[] distortion;
+
+    // Per-worker accumulators for the parallel 2-means passes
+    private long[][] sums;        // [worker][side * dim + j]
+    private int[][] counts;       // [worker][side]
+    private long[] sideDistortion;
+
+    // Train a tree with codeBookSize leaves over the tiles in the store. Fewer leaves are
+    // grown when the tiles run out of distinct values; remaining codewords are left zero.
+    public byte[] train(VQTileStore tiles, int codeBookSize) {
+        this.tiles = tiles;
+        this.dim = tiles.dim;
+        int maxNodes = Math.max(1, 2 * codeBookSize - 1);
+        centroids = new byte[maxNodes * dim];
+        left = new int[maxNodes];
+        right = new int[maxNodes];
+        codeword = new int[maxNodes];
+        from = new int[maxNodes];
+        to = new int[maxNodes];
+        distortion = new long[maxNodes];
+        codeBook = new byte[codeBookSize * dim];
+        order = new int[tiles.count];
+        for (int i = 0; i < order.length; i++) order[i] = i;
+        side = new byte[tiles.count];
+        int w = Math.max(1, Math.min(executor.parallelism(), tiles.count));
+        sums = new long[w][2 * dim];
+        counts = new int[w][2];
+        sideDistortion = new long[2 * w];
+
+        nodes = 1;
+        left[0] = right[0] = -1;
+        from[0] = 0;
+        to[0] = tiles.count;
+        if (tiles.count > 0) {
+            centroidOf(0);
+        }
+        PriorityQueue<Integer> splittable = new PriorityQueue<>(
+                (a, b) -> Long.compare(distortion[b], distortion[a]));
+        splittable.add(0);
+        int leaves = 1;
+        while (leaves < codeBookSize && !splittable.isEmpty()) {
+            int node = splittable.poll();
+            if (distortion[node] == 0 || to[node] - from[node] < 2 || !split(node)) {
+                continue;
+            }
+            leaves++;
+            splittable.add(left[node]);
+            splittable.add(right[node]);
+        }
+
+        // Number the leaves in tree order
+        int next = 0;
+        int[] stack = new int[nodes];
+        int top = 0;
+        stack[top++] = 0;
+        while (top > 0) {
+            int node = stack[--top];
+            if (left[node] < 0) {
+                codeword[node] = next;
+                System.arraycopy(centroids, node * dim, codeBook, next * dim, dim);
+                next++;
+            } else {
+                stack[top++] = right[node];
+                stack[top++] = left[node];
+            }
+        }
+        // Training state is not needed for encoding
+        order = null;
+        side = null;
+        from = to = null;
+        distortion = null;
+        sums = null;
+        counts = null;
+        tiles = null;
+        VQLog.progress("Tree codebook trained with " + next + " leaves.");
+        return codeBook;
+    }
+
+    public byte[] codeBook() {
+        return codeBook;
+    }
+
+    // Descend to the leaf whose path is closest at every level
+    public int findClosest(byte[] tile, int off) {
+        int node = 0;
+        while (left[node] >= 0) {
+            int l = left[node];
+            int r = right[node];
+            node = distance(tile, off, l) <= distance(tile, off, r) ? l : r;
+        }
+        return codeword[node];
+    }
+
+    private long distance(byte[] tile, int off, int node) {
+        int base = node * dim;
+        long d = 0;
+        for (int j = 0; j < dim; j++) {
+            int diff = (tile[off + j] & 0xFF) - (centroids[base + j] & 0xFF);
+            d += diff * diff;
+        }
+        return d;
+    }
+
+    // Mean and distortion of the tiles in a node's range
+    private void centroidOf(int node) {
+        int n = to[node] - from[node];
+        long[] sum = new long[dim];
+        byte[] scratch = new byte[dim];
+        for (int p = from[node]; p < to[node]; p++) {
+            byte[] tile = tiles.view(order[p], scratch);
+            int off = tiles.viewOffset(order[p]);
+            for (int j = 0; j < dim; j++) sum[j] += tile[off + j] & 0xFF;
+        }
+        int base = node * dim;
+        for (int j = 0; j < dim; j++) {
+            centroids[base + j] = (byte) ((sum[j] + n / 2) / n);
+        }
+        long d = 0;
+        for (int p = from[node]; p < to[node]; p++) {
+            d += distance(tiles.view(order[p], scratch), tiles.viewOffset(order[p]), node);
+        }
+        distortion[node] = d;
+    }
+
+    // 2-means over the node's tiles; on success the node gets two children covering its range
+    private boolean split(int node) {
+        int l = nodes;
+        int r = nodes + 1;
+        int base = node * dim;
+        for (int j = 0; j < dim; j++) {
+            int v = centroids[base + j] & 0xFF;
+            centroids[l * dim + j] = (byte) Math.max(0, v - splitOffset);
+            centroids[r * dim + j] = (byte) Math.min(255, v + splitOffset);
+        }
+        int lo = from[node];
+        int hi = to[node];
+        int w = sums.length;
+        int chunk = (hi - lo + w - 1) / w;
+        long previous = Long.MAX_VALUE;
+        int[] total = new int[2];
+        for (int it = 0; it < splitIterations; it++) {
+            executor.parallelFor(w, 1, (first, last) -> {
+                byte[] scratch = new byte[dim];
+                for (int worker = first; worker < last; worker++) {
+                    assignRange(worker, Math.min(hi, lo + worker * chunk),
+                            Math.min(hi, lo + (worker + 1) * chunk), l, r, scratch);
+                }
+            }, job);
+            long current = mergeAndUpdate(l, r, total);
+            if (total[0] == 0 || total[1] == 0) {
+                // Perturbation did not separate anything; seed the right child with the farthest tile
+                if (it > 0 || !seedFromFarthest(node, r)) {
+                    return false;
+                }
+                continue;
+            }
+            if (previous - current <= previous / 1000) {
+                break;
+            }
+            previous = current;
+        }
+        if (total[0] == 0 || total[1] == 0) {
+            return false;
+        }
+
+        // Partition the range so the left child's tiles come first
+        int i = lo;
+        int j = hi - 1;
+        while (i <= j) {
+            if (side[i] == 0) {
+                i++;
+            } else {
+                int t = order[i]; order[i] = order[j]; order[j] = t;
+                byte s = side[i]; side[i] = side[j]; side[j] = s;
+                j--;
+            }
+        }
+        from[l] = lo;
+        to[l] = i;
+        from[r] = i;
+        to[r] = hi;
+        left[l] = right[l] = left[r] = right[r] = -1;
+        left[node] = l;
+        right[node] = r;
+        nodes += 2;
+        centroidOf(l);
+        centroidOf(r);
+        return true;
+    }
+
+    private void assignRange(int worker, int start, int end, int l, int r, byte[] scratch) {
+        long[] sum = sums[worker];
+        int[] count = counts[worker];
+        Arrays.fill(sum, 0L);
+        count[0] = count[1] = 0;
+        long d0 = 0, d1 = 0;
+        for (int p = start; p < end; p++) {
+            byte[] tile = tiles.view(order[p], scratch);
+            int off = tiles.viewOffset(order[p]);
+            long dl = distance(tile, off, l);
+            long dr = distance(tile, off, r);
+            int s = dl <= dr ? 0 : 1;
+            side[p] = (byte) s;
+            count[s]++;
+            if (s == 0) d0 += dl; else d1 += dr;
+            int base = s * dim;
+            for (int j = 0; j < dim; j++) sum[base + j] += tile[off + j] & 0xFF;
+        }
+        sideDistortion[2 * worker] = d0;
+        sideDistortion[2 * worker + 1] = d1;
+    }
+
+    // Move both children to the centroids of their tiles; returns the total distortion
+    private long mergeAndUpdate(int l, int r, int[] total) {
+        long[] sum = sums[0];
+        int[] count = counts[0];
+        for (int t = 1; t < sums.length; t++) {
+            for (int k = 0; k < 2 * dim; k++) sum[k] += sums[t][k];
+            count[0] += counts[t][0];
+            count[1] += counts[t][1];
+        }
+        total[0] = count[0];
+        total[1] = count[1];
+        int[] child = {l, r};
+        for (int s = 0; s < 2; s++) {
+            int n = count[s];
+            if (n == 0) continue;
+            for (int j = 0; j < dim; j++) {
+                centroids[child[s] * dim + j] = (byte) ((sum[s * dim + j] + n / 2) / n);
+            }
+        }
+        long d = 0;
+        for (long v : sideDistortion) d += v;
+        return d;
+    }
+
+    private boolean seedFromFarthest(int node, int r) {
+        byte[] scratch = new byte[dim];
+        int far = -1;
+        long farDistance = 0;
+        for (int p = from[node]; p < to[node]; p++) {
+            long d = distance(tiles.view(order[p], scratch), tiles.viewOffset(order[p]), node);
+            if (d > farDistance) {
+                farDistance = d;
+                far = order[p];
+            }
+        }
+        if (far < 0) {
+            return false;
+        }
+        tiles.copyTile(far, centroids, r * dim);
+        System.arraycopy(centroids, node * dim, centroids, (r - 1) * dim, dim);
+        return true;
+    }
+}
@@ -0,0 +1,597 @@
+package vqcompress;
+
+import java.util.*;
+import java.io.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.imageio.ImageIO;
+
+public class vectorQuantizationCompress {
+
+    // Define the tile size (each tile is tileSize x tileSize pixels)
+    int tileSize = 8; // default, will be set by user
+    int tilesPerRow;
+    int tilesPerColumn;
+
+    // Flat tile storage: tile (row, col) is tile number row * tilesPerColumn + col, each
+    // tileSize*tileSize*3 bytes of interleaved RGB (tileSize*tileSize luma values in YCbCr mode)
+    private VQTileStore tiles;
+    VQTileStore.Backing tileBacking = VQTileStore.Backing.HEAP;
+
+    // Codebook ([codeword * tileSize*tileSize*3 + j]) and compressed image
+    private byte[] codeBook;
+    private int[][] compressedImage;
+
+    // Quality and codebook settings
+    int qualityOption;
+    int codeBookSize;
+    int imageWidth, imageHeight;
+
+    // Pretrained codebook to use instead of training one; the output then references it by id
+    VQCodebookLibrary.Codebook sharedCodebook;
+
+    // Nearest-codeword search strategy used by quantizeImage()
+    VQSearch.Mode searchMode = VQSearch.Mode.SORTED;
+    private VQSearch search;
+
+    // Residual VQ: each stage after the first quantizes what the earlier stages left over,
+    // with its own codebook of codeBookSize vectors (1 = plain VQ)
+    int stages = 1;
+    private byte[][] stageCodeBooks;   // [stage], stage 0 is codeBook
+    private VQSearch[] stageSearches;  // [stage], stage 0 is search
+    private int[][][] residualImage;   // [stage - 1][row][col]
+
+    // Tree-structured codebooks: about 2 * log2(K) distances per tile instead of a full search
+    boolean treeStructured;
+    private VQTreeCodebook[] trees;    // [stage] when treeStructured
+
+    // Colour space of the tiles (VQContainer.COLOR_*). With COLOR_YCBCR_420, tiles and codeBook
+    // hold luma only, and subsampled Cb/Cr tiles get their own codebook (see VQColor).
+    int colorSpace = VQContainer.COLOR_RGB;
+    int chromaCodeBookSize;            // 0 = codeBookSize
+    private VQTileStore chromaTiles;   // [chromaRow * chromaColumns + chromaCol]
+    private byte[] chromaCodeBook;
+    private int[][] chromaImage;
+    private VQSearch chromaSearch;
+    private VQTreeCodebook chromaTree;
+    private BufferedImage source;      // YCbCr mode with metrics: reference for measureQuality
+
+    // Quadtree mode (minTileSize > 0): tileSize becomes the block size and tiles split down to
+    // minTileSize until they reach targetPsnr, or by error within a targetBitsPerPixel budget
+    // (see VQQuadtree)
+    int minTileSize;
+    double targetPsnr = 32;
+    double targetBitsPerPixel;
+    private VQQuadtree quadtree;
+
+    // Training cost controls (see VQCodebookTrainer; 0 = off): stratified sample size, mini-batch
+    // size, and time and iteration budgets. The time budget covers all codebooks of the image.
+    // warmStart seeds the first codebook (luma in YCbCr mode), e.g. with the previous frame's;
+    // in quadtree mode it holds every level's codebook, as a quadtree container stores them.
+    int trainingSample;
+    int trainingBatch;
+    long trainingMillis;
+    int trainingIterations;
+    byte[] warmStart;
+    private long trainingDeadline;
+
+    // Entropy coding applied to the tile indices (VQContainer.CODING_*)
+    int indexCoding = VQContainer.CODING_HUFFMAN_CONTEXT;
+
+    // Tile rows per independently decodable group in the row index (-1 = about 64 pixels, 0 = no index)
+    int restartRows = -1;
+
+    // Execution settings: pool used for training/quantization and an optional job for progress and cancel
+    VQExecutor executor = VQExecutor.shared();
+    VQExecutor.Job job;
+
+    // Optional stage timings, training history and quality of the run (null = not collected)
+    VQMetrics metrics;
+
+    // Optional progressive preview: quantizeImage() paints each finished tile row into an image
+    // and reports it (luma only until the chroma pass in YCbCr mode; quadtree mode has no pass)
+    VQCodec.PreviewListener preview;
+    private BufferedImage previewImage;
+
+    // Allow user to choose compression quality and tile size
+    public void chooseQualityAndTileSize() {
+        Scanner sc = new Scanner(System.in);
+        System.out.print("Enter tile size (e.g., 4, 6, 8): ");
+        tileSize = sc.nextInt();
+        System.out.println("Select compression quality option: ");
+        System.out.println("1. Low Compression (High Quality)");
+        System.out.println("2. Medium Compression (Medium Quality)");
+        System.out.println("3. High Compression (Low Quality)");
+        qualityOption = sc.nextInt();
+        // Determine codebook size based on quality
+        switch (qualityOption) {
+            case 1: codeBookSize = 256; break;
+            case 2: codeBookSize = 128; break;
+            case 3: codeBookSize = 16; break;
+            default:
+                System.out.println("Invalid option; defaulting to Medium Compression.");
+                codeBookSize = 128;
+                break;
+        }
+    }
+
+    // Load image and split into 8x8 color tiles
+    public void loadImage(String imgPath) {
+        try {
+            loadImage(ImageIO.read(new File(imgPath)));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public void loadImage(BufferedImage image) {
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        VQContainer.checkImageSize(image.getWidth(), image.getHeight());
+        imageWidth = image.getWidth();
+        imageHeight = image.getHeight();
+
+        tilesPerRow = imageHeight / tileSize;
+        tilesPerColumn = imageWidth / tileSize;
+
+        quadtree = null;
+        if (minTileSize > 0) {
+            quadtree = new VQQuadtree();
+            quadtree.blockSize = tileSize;
+            quadtree.minTileSize = minTileSize;
+            quadtree.codeBookSize = codeBookSize;
+            quadtree.targetPsnr = targetPsnr;
+            quadtree.targetBitsPerPixel = targetBitsPerPixel;
+            quadtree.searchMode = searchMode;
+            quadtree.tileBacking = tileBacking;
+            quadtree.executor = executor;
+            quadtree.job = job;
+            quadtree.metrics = metrics;
+            quadtree.trainers = this::newTrainer;
+            quadtree.warmStart = warmStart;
+            quadtree.load(image);
+            tiles = null;
+            chromaTiles = null;
+            VQLog.progress("Image loaded for quadtree coding in " + tileSize + "x" + tileSize + " blocks.");
+        } else if (colorSpace == VQContainer.COLOR_YCBCR_420) {
+            compressedImage = new int[tilesPerRow][tilesPerColumn];
+            int chromaRows = VQColor.chromaRows(tilesPerRow);
+            int chromaColumns = VQColor.chromaColumns(tilesPerColumn);
+            tiles = new VQTileStore(tilesPerRow * tilesPerColumn, tileSize * tileSize, tileBacking);
+            chromaTiles = new VQTileStore(chromaRows * chromaColumns, 2 * tileSize * tileSize, tileBacking);
+            chromaImage = new int[chromaRows][chromaColumns];
+            VQColor.readTiles(image, tileSize, tilesPerColumn, tilesPerRow, tiles, chromaTiles, executor, job);
+            source = metrics != null ? image : null;
+            VQLog.progress("Image loaded and split into " + tilesPerRow + " x " + tilesPerColumn
+                    + " luma tiles and " + chromaRows + " x " + chromaColumns + " chroma tiles.");
+        } else {
+            compressedImage = new int[tilesPerRow][tilesPerColumn];
+            tiles = new VQTileStore(tilesPerRow * tilesPerColumn, tileSize * tileSize * 3, tileBacking);
+            chromaTiles = null;
+            chromaImage = null;
+            tiles.readTiles(image, tileSize, 0, tilesPerColumn, tilesPerRow, executor, job);
+            VQLog.progress("Image loaded and split into " + tilesPerRow + " x " + tilesPerColumn + " color tiles.");
+        }
+        if (metrics != null) {
+            metrics.stage("loadImage", wall, cpu, tileCount());
+            metrics.sizes(3L * imageWidth * imageHeight, -1);
+        }
+    }
+
+    // Train the codebook with LBG splitting + Lloyd refinement over every tile of the image
+    public void initializeCodebook() {
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        trainingDeadline = trainingMillis > 0 ? wall + trainingMillis * 1_000_000 : 0;
+        if (quadtree != null) {
+            if (sharedCodebook != null || stages > 1 || colorSpace != VQContainer.COLOR_RGB) {
+                throw new IllegalArgumentException("Quadtree mode cannot be combined with other codebook options");
+            }
+            // Each level's tiles depend on the splits above it, so training and quantizing interleave
+            quadtree.build();
+            VQLog.progress("Quadtree codebooks initialized with " + codeBookSize + " vectors per level.");
+            if (metrics != null) {
+                metrics.stage("initializeCodebook", wall, cpu, tileCount());
+            }
+            return;
+        }
+        if (colorSpace == VQContainer.COLOR_YCBCR_420 && (sharedCodebook != null || stages > 1)) {
+            throw new IllegalArgumentException("YCbCr 4:2:0 cannot be combined with shared codebooks or residual stages");
+        }
+        if (sharedCodebook != null) {
+            if (stages > 1) {
+                throw new IllegalArgumentException("Residual stages need their own codebooks, not a shared one");
+            }
+            if (sharedCodebook.tileSize != tileSize || sharedCodebook.channels != 3) {
+                throw new IllegalArgumentException("Shared codebook " + sharedCodebook.id + " is for "
+                        + sharedCodebook.tileSize + "x" + sharedCodebook.tileSize + " tiles");
+            }
+            codeBook = sharedCodebook.codeBook;
+            codeBookSize = sharedCodebook.codeBookSize;
+            stageCodeBooks = new byte[][] {codeBook};
+            trees = null;
+            VQLog.progress("Using shared codebook " + sharedCodebook.id + " with " + codeBookSize + " vectors.");
+        } else {
+            stageCodeBooks = new byte[stages][];
+            stageSearches = new VQSearch[stages];
+            trees = treeStructured ? new VQTreeCodebook[stages] : null;
+            VQTileStore data = tiles;
+            for (int s = 0; s < stages; s++) {
+                if (s > 0) {
+                    data = residuals(data, s - 1);
+                }
+                stageCodeBooks[s] = trainStage(data, s);
+            }
+            codeBook = stageCodeBooks[0];
+            search = stageSearches[0];
+            if (chromaTiles != null) {
+                trainChroma();
+            }
+            VQLog.progress("Codebook initialized with " + codeBookSize + " vectors"
+                    + (stages > 1 ? " in each of " + stages + " stages." : "."));
+        }
+        if (metrics != null) {
+            metrics.stage("initializeCodebook", wall, cpu, tileCount());
+        }
+    }
+
+    private byte[] trainStage(VQTileStore data, int stage) {
+        if (treeStructured) {
+            VQTreeCodebook tree = new VQTreeCodebook();
+            tree.executor = executor;
+            tree.job = job;
+            trees[stage] = tree;
+            return tree.train(trainingSample > 0 && trainingSample < data.count
+                    ? VQCodebookTrainer.sample(data, trainingSample, 1, executor, job) : data, codeBookSize);
+        }
+        VQCodebookTrainer trainer = newTrainer();
+        if (stage == 0) {
+            trainer.initialCodeBook = warmStart;
+        }
+        byte[] stageCodeBook = trainer.train(data, codeBookSize);
+        stageSearches[stage] = new VQSearch(stageCodeBook, data.dim, searchMode);
+        return stageCodeBook;
+    }
+
+    private void trainChroma() {
+        int size = chromaCodeBookSize > 0 ? chromaCodeBookSize : codeBookSize;
+        if (treeStructured) {
+            chromaTree = new VQTreeCodebook();
+            chromaTree.executor = executor;
+            chromaTree.job = job;
+            chromaCodeBook = chromaTree.train(trainingSample > 0 && trainingSample < chromaTiles.count
+                    ? VQCodebookTrainer.sample(chromaTiles, trainingSample, 1, executor, job) : chromaTiles, size);
+        } else {
+            VQCodebookTrainer trainer = newTrainer();
+            chromaCodeBook = trainer.train(chromaTiles, size);
+            chromaSearch = new VQSearch(chromaCodeBook, chromaTiles.dim, searchMode);
+        }
+        VQLog.progress("Chroma codebook initialized with " + size + " vectors.");
+    }
+
+    // Trainer with this compressor's execution and training settings; the time budget is
+    // whatever is left of trainingMillis
+    private VQCodebookTrainer newTrainer() {
+        VQCodebookTrainer trainer = new VQCodebookTrainer();
+        trainer.executor = executor;
+        trainer.job = job;
+        trainer.metrics = metrics;
+        trainer.sampleSize = trainingSample;
+        trainer.batchSize = trainingBatch;
+        trainer.iterationBudget = trainingIterations;
+        if (trainingDeadline != 0) {
+            trainer.timeBudgetMillis = Math.max(1, (trainingDeadline - System.nanoTime()) / 1_000_000);
+        }
+        return trainer;
+    }
+
+    // What is left of each tile after coding it with the given stage, stored offset by
+    // RESIDUAL_OFFSET so the next stage trains on ordinary unsigned tiles
+    private VQTileStore residuals(VQTileStore data, int stage) {
+        VQTileStore next = new VQTileStore(data.count, data.dim, tileBacking);
+        byte[] stageCodeBook = stageCodeBooks[stage];
+        executor.parallelFor(data.count, 0, (from, to) -> {
+            byte[] scratch = new byte[data.dim];
+            byte[] residual = new byte[data.dim];
+            for (int t = from; t < to; t++) {
+                byte[] tile = data.view(t, scratch);
+                int off = data.viewOffset(t);
+                subtract(tile, off, stageCodeBook, closestInStage(stage, tile, off), residual);
+                next.putTile(t, residual, 0);
+            }
+        }, job);
+        return next;
+    }
+
+    // residual = tile - codeword + RESIDUAL_OFFSET, clamped to a byte
+    private static void subtract(byte[] tile, int off, byte[] stageCodeBook, int code, byte[] residual) {
+        int base = code * residual.length;
+        for (int j = 0; j < residual.length; j++) {
+            int v = (tile[off + j] & 0xFF) - (stageCodeBook[base + j] & 0xFF) + VQContainer.RESIDUAL_OFFSET;
+            residual[j] = (byte) (v < 0 ? 0 : Math.min(255, v));
+        }
+    }
+
+    private int closestInStage(int stage, byte[] tile, int off) {
+        if (trees != null) {
+            return trees[stage].findClosest(tile, off);
+        }
+        return stageSearches[stage].findClosest(tile, off);
+    }
+
+    // Quantize the image using the closest codebook vector (tile ranges on the shared executor).
+    // With residual stages each stage codes the remainder of the stages before it.
+    public void quantizeImage() {
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        if (quadtree != null) {
+            // Already quantized level by level in initializeCodebook()
+            if (metrics != null) {
+                measureQuality();
+            }
+            return;
+        }
+        if (trees == null) {
+            search = new VQSearch(codeBook, tiles.dim, searchMode);
+        }
+        int levels = stageCodeBooks != null ? stageCodeBooks.length : 1;
+        residualImage = new int[levels - 1][tilesPerRow][tilesPerColumn];
+        int[] previewPixels = preview != null ? startPreview() : null;
+        byte[] previewCodeBook = preview == null ? null : chromaTiles != null ? codeBook : containerCodeBook();
+        AtomicInteger previewed = new AtomicInteger();
+        // One tile row per chunk while previewing, so the preview fills in row by row
+        executor.parallelFor(tilesPerRow * tilesPerColumn, preview != null ? tilesPerColumn : 0, (from, to) -> {
+            byte[] scratch = new byte[tiles.dim];
+            byte[] residual = new byte[tiles.dim];
+            int[] codes = new int[levels];
+            for (int t = from; t < to; t++) {
+                int row = t / tilesPerColumn;
+                int col = t % tilesPerColumn;
+                byte[] tile = tiles.view(t, scratch);
+                int off = tiles.viewOffset(t);
+                int code = findClosestCodebookVector(tile, off);
+                compressedImage[row][col] = code;
+                codes[0] = code;
+                for (int s = 1; s < levels; s++) {
+                    subtract(tile, off, stageCodeBooks[s - 1], code, residual);
+                    tile = residual;
+                    off = 0;
+                    code = closestInStage(s, tile, off);
+                    residualImage[s - 1][row][col] = code;
+                    codes[s] = code;
+                }
+                if (previewPixels != null) {
+                    paintPreview(previewPixels, previewCodeBook, row, col, codes);
+                }
+            }
+            if (previewPixels != null) {
+                preview.preview(previewImage, previewed.addAndGet(to - from), tiles.count);
+            }
+        }, job);
+        if (chromaTiles != null) {
+            int chromaColumns = chromaImage.length > 0 ? chromaImage[0].length : 1;
+            executor.parallelFor(chromaTiles.count, 0, (from, to) -> {
+                byte[] scratch = new byte[chromaTiles.dim];
+                for (int t = from; t < to; t++) {
+                    byte[] tile = chromaTiles.view(t, scratch);
+                    int off = chromaTiles.viewOffset(t);
+                    chromaImage[t / chromaColumns][t % chromaColumns] = chromaTree != null
+                            ? chromaTree.findClosest(tile, off) : chromaSearch.findClosest(tile, off);
+                }
+            }, job);
+            if (previewPixels != null) {
+                // Colour the luma preview now that the chroma indices are known
+                byte[] all = containerCodeBook();
+                int[] pixels = previewPixels;
+                executor.parallelFor(tilesPerRow * tileSize, 0, (fromY, toY) -> {
+                    for (int y = fromY; y < toY; y++) {
+                        for (int x = 0; x < tilesPerColumn * tileSize; x++) {
+                            pixels[y * imageWidth + x] = VQColor.pixel(all, codeBook.length, tileSize,
+                                    compressedImage, chromaImage, x, y);
+                        }
+                    }
+                }, job);
+                preview.preview(previewImage, tiles.count, tiles.count);
+            }
+        }
+        if (metrics != null) {
+            metrics.stage("quantizeImage", wall, cpu, tileCount());
+            measureQuality();
+        }
+    }
+
+    private int[] startPreview() {
+        previewImage = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+        return ((DataBufferInt) previewImage.getRaster().getDataBuffer()).getData();
+    }
+
+    // Reconstruct one tile into the preview (grey from luma in YCbCr mode)
+    private void paintPreview(int[] pixels, byte[] all, int row, int col, int[] codes) {
+        int area = tileSize * tileSize;
+        int channels = tiles.dim / area;
+        for (int p = 0; p < area; p++) {
+            int y = row * tileSize + p / tileSize;
+            int x = col * tileSize + p % tileSize;
+            pixels[y * imageWidth + x] = vectorQuantizationDecompress.residualPixel(all, codeBook.length,
+                    tiles.dim, codes, codes.length, p, channels);
+        }
+    }
+
+    // PSNR/SSIM of the quantized image against the source tiles, reported to metrics
+    private void measureQuality() {
+        long wall = System.nanoTime(), cpu = VQMetrics.cpuTime();
+        double[] q = quadtree != null ? quadtreeQuality()
+                : chromaTiles != null
+                ? VQQuality.measure(source, containerCodeBook(), codeBook.length, compressedImage, chromaImage,
+                        tileSize, tilesPerRow, tilesPerColumn, executor, job)
+                : VQQuality.measure(tiles, containerCodeBook(), stageGrids(), codeBookSize, tileSize,
+                        tilesPerRow, tilesPerColumn, executor, job);
+        metrics.stage("measureQuality", wall, cpu, tileCount());
+        metrics.quality(q[0], q[1]);
+    }
+
+    // Quality of the quadtree image, rendered the way the decoder does
+    private double[] quadtreeQuality() {
+        try {
+            VQQuadtree.Layout layout = new VQQuadtree.Layout(toContainer());
+            int[] decoded = new int[imageWidth * imageHeight];
+            layout.render(decoded, imageWidth, 0, 0, imageWidth, imageHeight, executor, job);
+            return VQQuality.measure(imageWidth, imageHeight, quadtree::sourcePixel,
+                    (x, y) -> decoded[y * imageWidth + x], executor, job);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    // Tiles covered by the metrics of a stage (blocks in quadtree mode)
+    private long tileCount() {
+        if (quadtree != null) {
+            return (long) ((imageWidth + tileSize - 1) / tileSize) * ((imageHeight + tileSize - 1) / tileSize);
+        }
+        return tiles.count;
+    }
+
+    // Find the closest vector in the codebook using Euclidean distance (for color)
+    public int findClosestCodebookVector(byte[] tile, int off) {
+        if (trees != null) {
+            return trees[0].findClosest(tile, off);
+        }
+        if (search == null) {
+            search = new VQSearch(codeBook, tiles.dim, searchMode);
+        }
+        return search.findClosest(tile, off);
+    }
+
+    // Tile number of (row, col) in the flat tile store
+    int tileIndex(int row, int col) {
+        return row * tilesPerColumn + col;
+    }
+
+    // Save compressed image and codebook to a binary VQ container (see VQContainer for the layout)
+    public void saveCompressedFile(String filename) {
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        try {
+            toContainer().write(filename);
+            VQLog.progress("Compression successful. Data saved to " + filename);
+            if (metrics != null) {
+                metrics.stage("saveCompressedFile", wall, cpu, tileCount());
+                metrics.sizes(-1, new File(filename).length());
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Tiles, first-stage codebook and indices of the current image (VQSequence codes frames from these)
+    VQTileStore tiles() {
+        return tiles;
+    }
+
+    byte[] codeBook() {
+        return codeBook;
+    }
+
+    int[][] indices() {
+        return compressedImage;
+    }
+
+    // Package the current codebook and indices for writing
+    public VQContainer toContainer() {
+        VQContainer container = new VQContainer();
+        if (quadtree != null) {
+            container.indexCoding = indexCoding;
+            quadtree.toContainer(container);
+            return container;
+        }
+        container.imageWidth = imageWidth;
+        container.imageHeight = imageHeight;
+        container.tileSize = tileSize;
+        container.codeBookSize = codeBookSize;
+        container.codeBook = containerCodeBook();
+        container.indices = compressedImage;
+        if (residualImage != null && residualImage.length > 0) {
+            container.stages = residualImage.length + 1;
+            container.residualIndices = residualImage;
+        }
+        if (chromaTiles != null) {
+            container.colorSpace = VQContainer.COLOR_YCBCR_420;
+            container.chromaCodeBookSize = chromaCodeBook.length / chromaTiles.dim;
+            container.chromaIndices = chromaImage;
+        }
+        container.indexCoding = indexCoding;
+        container.restartRows = restartRows < 0 ? VQContainer.defaultRestartRows(tileSize) : restartRows;
+        if (sharedCodebook != null) {
+            container.codebookId = sharedCodebook.id;
+            container.codebookHash = sharedCodebook.hash;
+        }
+        return container;
+    }
+
+    // All stage codebooks back to back, as the container stores them
+    private byte[] containerCodeBook() {
+        if (chromaTiles != null) {
+            byte[] all = Arrays.copyOf(codeBook, codeBook.length + chromaCodeBook.length);
+            System.arraycopy(chromaCodeBook, 0, all, codeBook.length, chromaCodeBook.length);
+            return all;
+        }
+        if (stageCodeBooks == null || stageCodeBooks.length == 1) {
+            return codeBook;
+        }
+        byte[] all = new byte[stageCodeBooks.length * codeBook.length];
+        for (int s = 0; s < stageCodeBooks.length; s++) {
+            System.arraycopy(stageCodeBooks[s], 0, all, s * codeBook.length, codeBook.length);
+        }
+        return all;
+    }
+
+    private int[][][] stageGrids() {
+        int[][][] grids = new int[1 + (residualImage != null ? residualImage.length : 0)][][];
+        grids[0] = compressedImage;
+        for (int s = 1; s < grids.length; s++) {
+            grids[s] = residualImage[s - 1];
+        }
+        return grids;
+    }
+
+    // Save in the legacy text format (still readable by the decompressor)
+    public void saveCompressedTextFile(String filename) {
+        if (chromaTiles != null || quadtree != null) {
+            VQLog.warning("The text format only holds fixed-size RGB tiles; use saveCompressedFile.");
+            return;
+        }
+        try (BufferedWriter bw = new BufferedWriter(new FileWriter(filename))) {
+            // Write metadata: image width, height, tile size, codebook size, color flag
+            bw.write(imageWidth + " " + imageHeight + " " + tileSize + " " + codeBookSize + " 3");
+            bw.newLine();
+            // Write compressed image (tile indices)
+            for (int i = 0; i < tilesPerRow; i++) {
+                for (int j = 0; j < tilesPerColumn; j++) {
+                    bw.write(compressedImage[i][j] + " ");
+                }
+                bw.newLine();
+            }
+            // Write codebook vectors (color)
+            for (int i = 0; i < codeBookSize; i++) {
+                for (int j = 0; j < tileSize * tileSize * 3; j++) {
+                    bw.write((codeBook[i * tileSize * tileSize * 3 + j] & 0xFF) + " ");
+                }
+                bw.newLine();
+            }
+            VQLog.progress("Compression successful. Data saved to " + filename);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Main method
+    public static void main(String[] args) {
+        VQLog.console();
+        vectorQuantizationCompress compressor = new vectorQuantizationCompress();
+        Scanner sc = new Scanner(System.in);
+        System.out.print("Give file path : ");
+        String filePath = sc.nextLine();
+        compressor.chooseQualityAndTileSize();
+        compressor.loadImage(filePath);
+        compressor.initializeCodebook();
+        compressor.quantizeImage();
+        compressor.saveCompressedFile("Compressed.vqc");
+    }
+}
@@ -0,0 +1,298 @@
+package vqcompress;
+
+import java.util.*;
+import java.io.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.nio.file.Paths;
+
+public class vectorQuantizationDecompress {
+    private int tileSize;
+    private int tilesPerRow;
+    private int tilesPerColumn;
+    private byte[] codeBook; // [codeword * tileSize*tileSize*channels + j]
+    private int[][] decompressedIndices;
+    private int[][][] stageIndices; // [stage][row][col] when the container has residual stages
+    private int stages = 1;
+    private int stageSize;          // codebook bytes per stage
+    private int[][] chromaIndices;  // YCbCr 4:2:0 containers: chroma grid, codebook at chromaOffset
+    private int chromaOffset;
+
+    // Residual stages to apply (fewer gives a coarser, progressive result)
+    int maxStages = Integer.MAX_VALUE;
+
+    // Where loadCompressedData() writes the image: the format comes from the file extension
+    // unless outputFormat is set (see VQImageWriter). INDEXED_PNG needs a 1x1-tile container.
+    String outputPath = "DecompressedImage.png";
+    VQImageWriter.Format outputFormat;
+    int pngLevel = VQImageWriter.DEFAULT_PNG_LEVEL;
+
+    // Execution settings shared with the compressor
+    VQExecutor executor = VQExecutor.shared();
+    VQExecutor.Job job;
+    VQMetrics metrics;
+
+    public void loadCompressedData(String filePath) {
+        if (VQContainer.isContainer(filePath)) {
+            try {
+                long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+                VQContainer container = VQContainer.read(filePath);
+                if (metrics != null) {
+                    metrics.stage("readContainer", wall, cpu, (long) container.tilesPerRow() * container.tilesPerColumn());
+                    metrics.sizes(-1, new File(filePath).length());
+                }
+                if (outputFormat == VQImageWriter.Format.INDEXED_PNG && saveIndexed(container)) {
+                    return;
+                }
+                BufferedImage img = decode(container);
+                saveImage(img);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            return;
+        }
+        // Legacy text format
+        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
+            // Line 1: metadata -> imageWidth imageHeight tileSize codebookSize channels
+            String[] header = reader.readLine().trim().split("\\s+");
+            int imageWidth = Integer.parseInt(header[0]);
+            int imageHeight = Integer.parseInt(header[1]);
+            tileSize = Integer.parseInt(header[2]);
+            stages = 1;
+            chromaIndices = null;
+            int codebookSize = Integer.parseInt(header[3]);
+            int channels = header.length > 4 ? Integer.parseInt(header[4]) : 1;
+            // Compute tiles per row/column
+            tilesPerRow = imageHeight / tileSize;
+            tilesPerColumn = imageWidth / tileSize;
+            // Initialize arrays
+            decompressedIndices = new int[tilesPerRow][tilesPerColumn];
+            int dim = tileSize * tileSize * channels;
+            codeBook = new byte[codebookSize * dim];
+            // Read tile indices (tilesPerRow lines with tilesPerColumn values)
+            for (int i = 0; i < tilesPerRow; i++) {
+                String[] indices = reader.readLine().trim().split("\\s+");
+                for (int j = 0; j < tilesPerColumn; j++) {
+                    decompressedIndices[i][j] = Integer.parseInt(indices[j]);
+                }
+            }
+            // Read codebook vectors (codebookSize lines)
+            for (int i = 0; i < codebookSize; i++) {
+                String[] pixels = reader.readLine().trim().split("\\s+");
+                for (int j = 0; j < dim; j++) {
+                    codeBook[i * dim + j] = (byte) Integer.parseInt(pixels[j]);
+                }
+            }
+            VQLog.progress("Compressed data loaded successfully.");
+            // Reconstruct and save the image
+            BufferedImage img = reconstructImage(imageWidth, imageHeight, channels);
+            saveImage(img);
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // Rebuild the image held by a container
+    public BufferedImage decode(VQContainer container) {
+        if (container.levels > 1) {
+            VQLog.progress("Compressed data loaded successfully.");
+            return reconstructQuadtree(container);
+        }
+        tileSize = container.tileSize;
+        tilesPerRow = container.tilesPerRow();
+        tilesPerColumn = container.tilesPerColumn();
+        codeBook = container.codeBook;
+        decompressedIndices = container.indices;
+        stages = Math.max(1, Math.min(container.stages, maxStages));
+        stageSize = container.codeBookSize * container.tileSize * container.tileSize * container.channels;
+        stageIndices = new int[stages][][];
+        for (int s = 0; s < stages; s++) {
+            stageIndices[s] = container.stageIndices(s);
+        }
+        chromaIndices = container.colorSpace == VQContainer.COLOR_YCBCR_420 ? container.chromaIndices : null;
+        chromaOffset = container.chromaOffset();
+        VQLog.progress("Compressed data loaded successfully.");
+        return reconstructImage(container.imageWidth, container.imageHeight, container.channels);
+    }
+
+    private BufferedImage reconstructImage(int width, int height, int channels) {
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        BufferedImage reconstructedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) reconstructedImage.getRaster().getDataBuffer()).getData();
+        if (chromaIndices != null) {
+            reconstructYCbCr(pixels, width);
+            VQLog.progress("Image reconstructed successfully (YCbCr 4:2:0).");
+        } else if (stages > 1) {
+            reconstructResidual(pixels, width, channels);
+            VQLog.progress("Image reconstructed successfully (" + stages + " stages).");
+        } else {
+            int[] tilePixels = packCodebook(codeBook, tileSize, channels);
+            int area = tileSize * tileSize;
+            // Each worker blits whole tile rows straight into the raster's backing array
+            executor.parallelFor(tilesPerRow, 0, (fromRow, toRow) -> {
+                for (int r = fromRow; r < toRow; r++) {
+                    int[] indices = decompressedIndices[r];
+                    for (int i = 0; i < tileSize; i++) {
+                        int rowStart = (r * tileSize + i) * width;
+                        for (int col = 0; col < tilesPerColumn; col++) {
+                            System.arraycopy(tilePixels, indices[col] * area + i * tileSize,
+                                    pixels, rowStart + col * tileSize, tileSize);
+                        }
+                    }
+                }
+            }, job);
+            VQLog.progress("Image reconstructed successfully.");
+        }
+        if (metrics != null) {
+            metrics.stage("reconstructImage", wall, cpu, (long) tilesPerRow * tilesPerColumn);
+            metrics.sizes(3L * width * height, -1);
+        }
+        return reconstructedImage;
+    }
+
+    // Variable-size tiles of a quadtree container, one block row per task (see VQQuadtree)
+    private BufferedImage reconstructQuadtree(VQContainer container) {
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        int width = container.imageWidth;
+        int height = container.imageHeight;
+        BufferedImage reconstructedImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) reconstructedImage.getRaster().getDataBuffer()).getData();
+        VQQuadtree.Layout layout;
+        try {
+            layout = new VQQuadtree.Layout(container);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        layout.render(pixels, width, 0, 0, width, height, executor, job);
+        VQLog.progress("Image reconstructed successfully (quadtree, " + container.levels + " tile sizes).");
+        if (metrics != null) {
+            metrics.stage("reconstructImage", wall, cpu, (long) layout.blocksAcross * layout.blocksDown);
+            metrics.sizes(3L * width * height, -1);
+        }
+        return reconstructedImage;
+    }
+
+    // Luma codewords plus upsampled chroma, converted back to RGB, one tile row per task
+    private void reconstructYCbCr(int[] pixels, int width) {
+        int tiledWidth = tilesPerColumn * tileSize;
+        executor.parallelFor(tilesPerRow, 0, (fromRow, toRow) -> {
+            for (int y = fromRow * tileSize; y < toRow * tileSize; y++) {
+                int rowStart = y * width;
+                for (int x = 0; x < tiledWidth; x++) {
+                    pixels[rowStart + x] = VQColor.pixel(codeBook, chromaOffset, tileSize,
+                            decompressedIndices, chromaIndices, x, y);
+                }
+            }
+        }, job);
+    }
+
+    // Sum the stage codewords of every tile pixel by pixel, one tile row per task
+    private void reconstructResidual(int[] pixels, int width, int channels) {
+        int area = tileSize * tileSize;
+        executor.parallelFor(tilesPerRow, 0, (fromRow, toRow) -> {
+            int[] codes = new int[stages];
+            for (int r = fromRow; r < toRow; r++) {
+                for (int col = 0; col < tilesPerColumn; col++) {
+                    for (int s = 0; s < stages; s++) codes[s] = stageIndices[s][r][col];
+                    for (int p = 0; p < area; p++) {
+                        int y = r * tileSize + p / tileSize;
+                        int x = col * tileSize + p % tileSize;
+                        pixels[y * width + x] = residualPixel(codeBook, stageSize, tileSize * tileSize * channels,
+                                codes, stages, p, channels);
+                    }
+                }
+            }
+        }, job);
+    }
+
+    // Pixel p of a tile coded by codes[0..stages): the stage-1 codeword plus the residual
+    // codewords of the later stages, clamped, as 0xRRGGBB
+    static int residualPixel(byte[] codeBook, int stageSize, int dim, int[] codes, int stages, int p, int channels) {
+        int rgb = 0;
+        for (int c = 0; c < 3; c++) {
+            int j = p * channels + Math.min(c, channels - 1);
+            int v = codeBook[codes[0] * dim + j] & 0xFF;
+            for (int s = 1; s < stages; s++) {
+                v += (codeBook[s * stageSize + codes[s] * dim + j] & 0xFF) - VQContainer.RESIDUAL_OFFSET;
+            }
+            rgb = (rgb << 8) | (v < 0 ? 0 : Math.min(255, v));
+        }
+        return rgb;
+    }
+
+    // Codebook as packed 0xRRGGBB pixels, [codeword * tileSize*tileSize + i * tileSize + j]
+    static int[] packCodebook(byte[] codeBook, int tileSize, int channels) {
+        int area = tileSize * tileSize;
+        int size = codeBook.length / (area * channels);
+        int[] packed = new int[size * area];
+        for (int p = 0, idx = 0; p < packed.length; p++, idx += channels) {
+            int r = codeBook[idx] & 0xFF;
+            int g = channels >= 3 ? codeBook[idx + 1] & 0xFF : r;
+            int b = channels >= 3 ? codeBook[idx + 2] & 0xFF : r;
+            packed[p] = (r << 16) | (g << 8) | b;
+        }
+        return packed;
+    }
+
+    private VQImageWriter newWriter() {
+        VQImageWriter writer = new VQImageWriter();
+        writer.pngLevel = pngLevel;
+        writer.executor = executor;
+        writer.job = job;
+        return writer;
+    }
+
+    private void saveImage(BufferedImage image) {
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        VQImageWriter.Format format = outputFormat != null ? outputFormat : VQImageWriter.formatFor(outputPath);
+        if (format == VQImageWriter.Format.INDEXED_PNG) {
+            VQLog.warning("Indexed output is not possible for this image; writing RGB PNG instead.");
+            format = VQImageWriter.Format.PNG;
+        }
+        try {
+            newWriter().write(image, format, Paths.get(outputPath));
+            VQLog.progress("Decompressed image saved as " + format + " to " + outputPath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        if (metrics != null) {
+            metrics.stage("writeImage", wall, cpu, (long) image.getWidth() * image.getHeight());
+        }
+    }
+
+    // Palette PNG straight from the codebook and index grid, without building an RGB image;
+    // false when the container does not have 1x1 tiles and a small enough single codebook
+    private boolean saveIndexed(VQContainer container) throws IOException {
+        long wall = System.nanoTime(), cpu = metrics != null ? VQMetrics.cpuTime() : -1;
+        try {
+            newWriter().writeIndexed(container, Paths.get(outputPath));
+        } catch (IllegalArgumentException e) {
+            VQLog.warning(e.getMessage() + ".");
+            return false;
+        }
+        VQLog.progress("Decompressed image saved as indexed PNG to " + outputPath);
+        if (metrics != null) {
+            metrics.stage("writeImage", wall, cpu, (long) container.imageWidth * container.imageHeight);
+        }
+        return true;
+    }
+
+    // Usage: java vqcompress.vectorQuantizationDecompress [--format png|indexed|ppm|raw|jpg]
+    //        [--png-level 0-9] [file.vqc [output]]
+    public static void main(String[] args) {
+        VQLog.console();
+        vectorQuantizationDecompress vqd = new vectorQuantizationDecompress();
+        List<String> positional = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--format": vqd.outputFormat = VQImageWriter.parseFormat(args[++i]); break;
+                case "--png-level": vqd.pngLevel = VQImageWriter.checkPngLevel(Integer.parseInt(args[++i])); break;
+                default: positional.add(args[i]); break;
+            }
+        }
+        if (positional.size() > 1) {
+            vqd.outputPath = positional.get(1);
+        }
+        vqd.loadCompressedData(positional.size() > 0 ? positional.get(0) : "Compressed.vqc");
+    }
+}